@@ -0,0 +1,92 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning of on-disk archives, as done for every JAR the handler is given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveScannerBenchmark {
+
+    /**
+     * small - a few classes; large - 5000 classes; nested - archives bundled 6 levels deep.
+     */
+    @Param({"small", "large", "nested"})
+    public String archive;
+
+    @Param({"true", "false"})
+    public boolean randomAccess;
+
+    private File directory;
+    private File file;
+    private ArchiveScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mercator-bench").toFile();
+        byte[] content;
+        switch (archive) {
+            case "small":
+                content = BenchmarkFixtures.jar("small", 20, 1024, null);
+                break;
+            case "large":
+                content = BenchmarkFixtures.jar("large", 5000, 2048, null);
+                break;
+            case "nested":
+                content = BenchmarkFixtures.nestedJar(6, 100);
+                break;
+            default:
+                throw new IllegalArgumentException(archive);
+        }
+        file = new File(directory, archive + ".jar");
+        Files.write(file.toPath(), content);
+        scanner = new ArchiveScanner(new ScanOptions().setRandomAccess(randomAccess), new ScanStats());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        LocalRepository.recursiveDelete(directory.toPath());
+    }
+
+    @Benchmark
+    public Map<String, Object> scan() throws IOException {
+        return scanner.scan(file);
+    }
+}
@@ -0,0 +1,147 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates archives and POMs for the benchmarks, so that nothing depends on
+ * the network or on files lying around. Content is derived from a fixed seed,
+ * every run benchmarks the same bytes.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Build a JAR with Maven metadata, class files and, optionally, a bundled archive.
+     *
+     * @param name, artifact name
+     * @param classes, number of class entries
+     * @param classSize, size of each class entry, in bytes
+     * @param bundled, archive to bundle under lib/, may be null
+     * @return the archive
+     */
+    static byte[] jar(String name, int classes, int classSize, byte[] bundled) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.IMPLEMENTATION_TITLE, name);
+        attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, "1.0");
+
+        Random random = new Random(name.hashCode());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(bos, manifest)) {
+            add(jos, "META-INF/maven/org.example/" + name + "/pom.properties",
+                    String.format("groupId=org.example%nartifactId=%s%nversion=1.0%n", name)
+                            .getBytes(StandardCharsets.UTF_8));
+            add(jos, "META-INF/maven/org.example/" + name + "/pom.xml", pom(name, 10));
+            for (int i = 0; i < classes; i++) {
+                byte[] content = new byte[classSize];
+                // compressible, like real class files
+                for (int j = 0; j < content.length; j++) {
+                    content[j] = (byte) ('a' + random.nextInt(8));
+                }
+                add(jos, String.format("org/example/%s/p%d/Class%d.class", name, i % 50, i), content);
+            }
+            if (bundled != null) {
+                add(jos, "lib/" + name + "-bundled.jar", bundled);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Build archives bundled in each other, depth levels deep.
+     */
+    static byte[] nestedJar(int depth, int classes) throws IOException {
+        byte[] archive = null;
+        for (int i = depth; i >= 0; i--) {
+            archive = jar("level" + i, classes, 256, archive);
+        }
+        return archive;
+    }
+
+    /**
+     * Build a POM with the given number of dependencies, licenses and a description.
+     */
+    static byte[] pom(String name, int dependencies) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        sb.append("  <modelVersion>4.0.0</modelVersion>\n");
+        sb.append("  <groupId>org.example</groupId>\n");
+        sb.append("  <artifactId>").append(name).append("</artifactId>\n");
+        sb.append("  <version>1.0</version>\n");
+        sb.append("  <name>").append(name).append("</name>\n");
+        sb.append("  <url>https://example.org/").append(name).append("</url>\n");
+        sb.append("  <description>Benchmark fixture ").append(name).append("</description>\n");
+        sb.append("  <licenses><license><name>Apache-2.0</name></license></licenses>\n");
+        sb.append("  <scm><url>https://github.com/example/").append(name).append("</url></scm>\n");
+        sb.append("  <properties>\n");
+        for (int i = 0; i < dependencies; i++) {
+            sb.append("    <dep").append(i).append(".version>1.").append(i).append("</dep").append(i)
+                    .append(".version>\n");
+        }
+        sb.append("  </properties>\n");
+        sb.append("  <dependencies>\n");
+        for (int i = 0; i < dependencies; i++) {
+            sb.append("    <dependency>\n");
+            sb.append("      <groupId>org.example.deps</groupId>\n");
+            sb.append("      <artifactId>dep").append(i).append("</artifactId>\n");
+            sb.append("      <version>1.").append(i).append("</version>\n");
+            if (i % 4 == 0) {
+                sb.append("      <scope>test</scope>\n");
+            }
+            if (i % 5 == 0) {
+                sb.append("      <exclusions><exclusion><groupId>org.example.excluded</groupId>"
+                        + "<artifactId>excluded</artifactId></exclusion></exclusions>\n");
+            }
+            sb.append("    </dependency>\n");
+        }
+        sb.append("  </dependencies>\n");
+        sb.append("</project>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Make output like that of "mvn help:effective-pom" for several modules:
+     * POMs concatenated, each with an XML declaration and detected OS properties.
+     */
+    static byte[] effectivePomOutput(int modules, int dependencies) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < modules; i++) {
+            String pom = new String(pom("module" + i, dependencies), StandardCharsets.UTF_8);
+            sb.append(pom.replace("  <properties>\n", "  <properties>\n"
+                    + "    <os.detected.name>linux</os.detected.name>\n"
+                    + "    <os.detected.release>fedora</os.detected.release>\n"
+                    + "    <os.detected.release.like.fedora>true</os.detected.release.like.fedora>\n"));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void add(JarOutputStream jos, String name, byte[] content) throws IOException {
+        jos.putNextEntry(new JarEntry(name));
+        jos.write(content);
+        jos.closeEntry();
+    }
+}
@@ -0,0 +1,94 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Identification of an archive by its classes, against an index of 2000 artifacts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FingerprintIndexBenchmark {
+
+    private File directory;
+    private FingerprintIndex index;
+    private ClassFingerprints fingerprints;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mercator-bench").toFile();
+        File repository = new File(directory, "repository");
+        for (int i = 0; i < 2000; i++) {
+            File dir = new File(repository, "org/example/artifact" + i + "/1.0");
+            dir.mkdirs();
+            Files.write(new File(dir, "artifact" + i + "-1.0.jar").toPath(),
+                    BenchmarkFixtures.jar("artifact" + i, 100, 256, null));
+        }
+        File file = new File(directory, "index");
+        FingerprintIndex.build(repository, file, Runtime.getRuntime().availableProcessors());
+        index = new FingerprintIndex(file);
+
+        // like a shaded JAR, 10 artifacts and 2000 classes of its own
+        File shaded = new File(directory, "shaded.jar");
+        Files.write(shaded.toPath(), BenchmarkFixtures.jar("shaded", 2000, 256, null));
+        fingerprints = FingerprintIndex.read(shaded);
+        for (int i = 0; i < 10; i++) {
+            File jar = new File(repository, String.format("org/example/artifact%d/1.0/artifact%d-1.0.jar", i, i));
+            addAll(fingerprints, FingerprintIndex.read(jar));
+        }
+    }
+
+    private static void addAll(ClassFingerprints to, ClassFingerprints from) {
+        // keys are what matters, names only group classes in packages
+        long[] keys = from.classKeys();
+        for (int i = 0; i < keys.length; i++) {
+            to.add(String.format("vendored%d/Class%d.class", i / 50, i), keys[i] >>> 32, keys[i] & 0xffffffffL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        LocalRepository.recursiveDelete(directory.toPath());
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> identify() {
+        return index.identify(fingerprints);
+    }
+}
@@ -0,0 +1,96 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Smaller helpers called for every POM or archive entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MavenUtilsBenchmark {
+
+    private static final String[] ENTRY_NAMES = {
+        "META-INF/MANIFEST.MF",
+        "META-INF/maven/org.example/artifact/pom.xml",
+        "META-INF/maven/org.example/artifact/pom.properties",
+        "org/example/artifact/internal/SomeClass.class",
+        "org/example/artifact/internal/SomeClass$Inner.class",
+        "META-INF/services/java.nio.file.spi.FileSystemProvider",
+        "lib/bundled.jar",
+        "WEB-INF/classes/META-INF/maven/org.example/web/pom.xml",
+    };
+
+    private byte[] effectivePomOutput;
+    private ZipEntry[] entries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        effectivePomOutput = BenchmarkFixtures.effectivePomOutput(20, 50);
+        entries = new ZipEntry[ENTRY_NAMES.length];
+        for (int i = 0; i < ENTRY_NAMES.length; i++) {
+            entries[i] = new ZipEntry(ENTRY_NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] removeDuplicateXMLTag() throws IOException {
+        return MavenUtils.removeDuplicateXMLTag(new ByteArrayInputStream(effectivePomOutput));
+    }
+
+    /**
+     * Classify a mix of typical entry names, as done for every entry of every archive.
+     */
+    @Benchmark
+    public void isMavenMetadataFile(Blackhole blackhole) {
+        for (ZipEntry entry : entries) {
+            blackhole.consume(MavenUtils.isPomXml(entry));
+            blackhole.consume(MavenUtils.isPomProperties(entry));
+        }
+    }
+
+    /**
+     * Classify the same names in one go, as the scanner does.
+     */
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        for (String name : ENTRY_NAMES) {
+            blackhole.consume(EntryClassifier.classify(name));
+        }
+    }
+}
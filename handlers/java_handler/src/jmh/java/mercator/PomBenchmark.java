@@ -0,0 +1,88 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of data from (non-effective) POMs, with both extractors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PomBenchmark {
+
+    /**
+     * small - 10 dependencies; huge - 5000 dependencies.
+     */
+    @Param({"small", "huge"})
+    public String pom;
+
+    private byte[] content;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = BenchmarkFixtures.pom(pom, "small".equals(pom) ? 10 : 5000);
+        file = File.createTempFile("mercator-bench", ".xml");
+        Files.write(file.toPath(), content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * The whole getPomXmlEntries path, as used for pom.xml files, with the configured extractor.
+     */
+    @Benchmark
+    public Map<String, Map> getPomXmlEntries() {
+        return MavenUtils.getPomXmlEntries(file, false);
+    }
+
+    @Benchmark
+    public Map<String, Map> streamExtractor() {
+        return PomStreamExtractor.extract(new ByteArrayInputStream(content), false);
+    }
+
+    @Benchmark
+    public Map<String, Map> domExtractor() {
+        return MavenUtils.getPomXmlEntries(MavenUtils.readStreamAsDocument(new ByteArrayInputStream(content)), false);
+    }
+}
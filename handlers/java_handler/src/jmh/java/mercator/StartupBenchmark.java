@@ -0,0 +1,139 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single file invocations of the handler, from the launch of the JVM to the
+ * first result printed.
+ *
+ * The handler and its class data sharing archive are those made by
+ * "make benchmark", see the Makefile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmark {
+
+    /**
+     * Handler JAR, its archive is expected next to it, with the ".jsa" extension.
+     */
+    @Param({"target/startup/java"})
+    public String handler;
+
+    /**
+     * jar - a small JAR; pom - a POM.
+     */
+    @Param({"jar", "pom"})
+    public String input;
+
+    /**
+     * Whether to use the class data sharing archive of the handler.
+     */
+    @Param({"false", "true"})
+    public boolean cds;
+
+    private File directory;
+    private List<String> command;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File jar = new File(handler).getAbsoluteFile();
+        File archive = new File(jar.getPath() + ".jsa");
+        if (!jar.isFile() || (cds && !archive.isFile())) {
+            throw new IllegalStateException(String.format("%s or %s not found, run \"make benchmark\"", jar, archive));
+        }
+
+        directory = Files.createTempDirectory("mercator-bench").toFile();
+        File file;
+        switch (input) {
+            case "jar":
+                file = new File(directory, "small.jar");
+                Files.write(file.toPath(), BenchmarkFixtures.jar("small", 20, 1024, null));
+                break;
+            case "pom":
+                file = new File(directory, "pom.xml");
+                Files.write(file.toPath(), BenchmarkFixtures.pom("small", 10));
+                break;
+            default:
+                throw new IllegalArgumentException(input);
+        }
+
+        command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (cds) {
+            command.add("-XX:SharedArchiveFile=" + archive.getPath());
+        }
+        command.add("-jar");
+        command.add(jar.getPath());
+        command.add(file.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        LocalRepository.recursiveDelete(directory.toPath());
+    }
+
+    /**
+     * Let the handler exit outside of the measured time.
+     */
+    @TearDown(Level.Invocation)
+    public void waitForExit() throws InterruptedException {
+        if (process != null) {
+            process.waitFor();
+            process = null;
+        }
+    }
+
+    @Benchmark
+    public String launch() throws IOException {
+        process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8));
+        String result = reader.readLine();
+        if (result == null || result.startsWith("{\"error\"")) {
+            throw new IllegalStateException(String.format("%s: %s", command, result));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,1096 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import mercator.EntryClassifier.EntryType;
+
+/**
+ * Extract metadata from JAR, WAR and EAR files.
+ *
+ * Besides the manifest and Maven metadata, the result holds the module
+ * declaration ("module_info"), releases of multi-release JARs
+ * ("multi_release"), OSGi bundle headers and OSGI-INF entries ("osgi") and
+ * service providers ("services"), all collected in the same pass.
+ *
+ * Archives on disk are read through their central directory, so only the
+ * manifest, metadata entries and bundled archives are ever inflated. Bundled
+ * archives (and on-disk archives with a broken central directory) are read
+ * sequentially with {@link JarInputStream}.
+ *
+ * Class files are never considered to be bundled archives, other entries are
+ * descended into only if they start with the ZIP magic bytes.
+ *
+ * Each top-level archive gets a budget of inflated bytes, entries and time,
+ * shared with everything bundled in it. When the budget runs out the scan
+ * stops and the partial result gets a "truncated" member with the reason.
+ *
+ * With a nested parallelism above 1, archives bundled in the top-level one
+ * are inflated into memory and scanned on a fork-join pool, while the scan of
+ * the top-level archive goes on; results are still added in entry order.
+ * Memory used by bundled archives waiting to be scanned is bounded by the
+ * nested buffer size, shared by all scans; archives which don't fit are
+ * scanned in order, as without parallelism.
+ *
+ * With a {@link FingerprintIndex}, archives without pom.properties get the
+ * known artifacts their classes come from ("identified").
+ */
+public class ArchiveScanner {
+
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    private final ScanOptions options;
+    private final ScanStats stats;
+    private final ResultCache cache;
+    private final FingerprintIndex fingerprintIndex;
+    /** Memory left for bundled archives buffered for parallel scans. */
+    private final AtomicLong nestedBufferLeft;
+    private ForkJoinPool nestedPool;
+
+    /**
+     * Create scanner configured from the environment.
+     */
+    public ArchiveScanner() {
+        this(ScanOptions.fromEnvironment());
+    }
+
+    private ArchiveScanner(ScanOptions options) {
+        this(options, new ScanStats(), ResultCache.fromEnvironment(options));
+    }
+
+    public ArchiveScanner(ScanOptions options, ScanStats stats) {
+        this(options, stats, null);
+    }
+
+    /**
+     * @param options, scan settings
+     * @param stats, where to collect counters
+     * @param cache, cache of results, may be null
+     */
+    public ArchiveScanner(ScanOptions options, ScanStats stats, ResultCache cache) {
+        this.options = options;
+        this.stats = stats;
+        this.cache = cache;
+        this.fingerprintIndex = FingerprintIndex.shared(options.getFingerprintIndex());
+        this.nestedBufferLeft = new AtomicLong(options.getNestedBufferSize());
+    }
+
+    private synchronized ForkJoinPool nestedPool() {
+        if (nestedPool == null) {
+            nestedPool = new ForkJoinPool(options.getNestedParallelism());
+        }
+        return nestedPool;
+    }
+
+    public ScanOptions getOptions() {
+        return options;
+    }
+
+    public ScanStats getStats() {
+        return stats;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Extract metadata from the given archive.
+     *
+     * @param file, archive to scan
+     * @return result map, never empty
+     * @throws IOException when the file is not a readable JAR
+     */
+    public Map<String, Object> scan(File file) throws IOException {
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = ResultCache.fileKey(file);
+            Map<String, Object> cached = cache.get(cacheKey);
+            if (cached != null) {
+                cached.put("kind", getJarKind(file.getName()));
+                return cached;
+            }
+        }
+
+        Map<String, Object> resultMap = scanFile(file, null);
+        if (cacheKey != null && !resultMap.containsKey("truncated")) {
+            cache.put(cacheKey, resultMap);
+        }
+        resultMap.put("kind", getJarKind(file.getName()));
+        return resultMap;
+    }
+
+    /**
+     * Extract metadata from the given archive, writing the result as it is found.
+     *
+     * Bundled archives are written as soon as each of them has been scanned,
+     * so the result of the whole archive is never held in memory. Results are
+     * only cached when they are complete, with a cache the result is written
+     * at once.
+     *
+     * If the scan fails after the output started, the result is completed
+     * with an "error" member instead of throwing.
+     *
+     * @param file, archive to scan
+     * @param out, where to write the result object
+     * @return whether the result is complete, false if it ran out of budget or ended with an error
+     * @throws IOException when the file is not a readable JAR
+     */
+    public boolean scan(File file, ResultWriter out) throws IOException {
+        if (cache != null) {
+            Map<String, Object> resultMap = scan(file);
+            out.value(resultMap);
+            return !resultMap.containsKey("truncated");
+        }
+        StreamingResult streaming = new StreamingResult(out);
+        Map<String, Object> resultMap;
+        try {
+            resultMap = scanFile(file, streaming);
+        } catch (IOException | RuntimeException e) {
+            if (!streaming.started) {
+                throw e;
+            }
+            e.printStackTrace();
+            streaming.fail(e);
+            return false;
+        }
+        resultMap.put("kind", getJarKind(file.getName()));
+        streaming.finish(resultMap);
+        return !resultMap.containsKey("truncated");
+    }
+
+    private Map<String, Object> scanFile(File file, StreamingResult streaming) throws IOException {
+        Scan scan = new Scan(streaming);
+        try {
+            if (options.isRandomAccess()) {
+                try (JarFile jarFile = new JarFile(file, false)) {
+                    return scanJarFile(jarFile, scan);
+                } catch (ZipException e) {
+                    if (streaming != null && streaming.started) {
+                        throw e;
+                    }
+                    // no usable central directory, streaming may still work
+                    System.err.println(String.format("Falling back to streaming for %s: %s", file, e.getMessage()));
+                }
+            }
+            try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+                return scanStream(is, 0, scan);
+            }
+        } finally {
+            scan.report();
+        }
+    }
+
+    private Map<String, Object> scanJarFile(JarFile jarFile, Scan scan) throws IOException {
+        Map<String, Object> resultMap = new HashMap<String, Object>();
+        long start = Metrics.start();
+        readManifest(jarFile.getManifest(), resultMap);
+        Metrics.record(Metrics.Phase.MANIFEST_READ, start);
+
+        MetadataState state = new MetadataState(fingerprintIndex != null);
+        NestedScans nested = scan.nested(resultMap);
+        Enumeration<JarEntry> entries = jarFile.entries();
+        start = Metrics.start();
+        try {
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                stats.entriesVisited.incrementAndGet();
+                scan.entry();
+
+                EntryType type = EntryClassifier.classify(entry.getName());
+                state.visit(entry.getName(), type);
+                if (type == EntryType.CLASS && state.fingerprints != null) {
+                    state.fingerprints.add(entry.getName(), entry.getCrc(), entry.getSize());
+                }
+                if (hasMetadata(type)) {
+                    try (InputStream is = new BudgetInputStream(jarFile.getInputStream(entry), scan)) {
+                        handleMetadataEntry(entry.getName(), type, is, resultMap, state, options.isResolvePoms());
+                    }
+                    continue;
+                }
+
+                if (options.isResolvePoms() || type != EntryType.NESTED_ARCHIVE) {
+                    // everything else is left compressed
+                    stats.entriesSkipped.incrementAndGet();
+                    continue;
+                }
+
+                try (InputStream is = new BudgetInputStream(jarFile.getInputStream(entry), scan)) {
+                    addBundled(resultMap, entry, is, 0, scan);
+                }
+            }
+        } catch (TruncatedException e) {
+            // keep what was found so far
+        }
+        if (nested != null) {
+            nested.flush(true);
+        }
+        Metrics.record(Metrics.Phase.ENTRY_ITERATION, start);
+        state.addTo(resultMap);
+        identify(state, resultMap);
+        scan.mark(resultMap);
+        return resultMap;
+    }
+
+    /**
+     * Extract metadata from an archive read sequentially.
+     *
+     * @param is, stream positioned at the start of the archive
+     * @return result map
+     * @throws IOException when the stream doesn't contain a JAR
+     */
+    Map<String, Object> scanStream(InputStream is) throws IOException {
+        return scanStream(is, 0, new Scan(null));
+    }
+
+    /**
+     * @param depth, nesting depth of the archive, 0 for the top-level one
+     * @param scan, budget and output of the top-level archive
+     */
+    private Map<String, Object> scanStream(InputStream is, int depth, Scan scan) throws IOException {
+        Map<String, Object> resultMap = new HashMap<String, Object>();
+
+        long start = Metrics.start();
+        JarInputStream jis = new JarInputStream(is);
+        readManifest(jis.getManifest(), resultMap);
+        Metrics.record(Metrics.Phase.MANIFEST_READ, start);
+
+        MetadataState state = new MetadataState(fingerprintIndex != null);
+        NestedScans nested = depth == 0 ? scan.nested(resultMap) : null;
+        InputStream entryStream = new BudgetInputStream(jis, scan);
+        ZipEntry entry = null;
+        start = Metrics.start();
+        try {
+            while ((entry = jis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    scanStreamEntry(entry, entryStream, resultMap, state, depth, scan);
+                }
+                // inflate what is left of the entry here, getNextEntry() would do it outside the budget
+                drain(entryStream);
+            }
+        } catch (TruncatedException e) {
+            // keep what was found so far
+        }
+        if (nested != null) {
+            nested.flush(true);
+        }
+        Metrics.record(Metrics.Phase.ENTRY_ITERATION, start);
+        state.addTo(resultMap);
+        identify(state, resultMap);
+        scan.mark(resultMap);
+        return resultMap;
+    }
+
+    private void scanStreamEntry(ZipEntry entry, InputStream is, Map<String, Object> resultMap, MetadataState state,
+                                 int depth, Scan scan) throws IOException {
+        stats.entriesVisited.incrementAndGet();
+        scan.entry();
+
+        EntryType type = EntryClassifier.classify(entry.getName());
+        state.visit(entry.getName(), type);
+        if (handleMetadataEntry(entry.getName(), type, is, resultMap, state, options.isResolvePoms())) {
+            return;
+        }
+
+        // class files are never bundled archives, and bundled archives
+        // are not scanned when resolving POMs
+        if (options.isResolvePoms() || type == EntryType.CLASS || type == EntryType.MODULE_INFO) {
+            if (type == EntryType.CLASS && state.fingerprints != null) {
+                // the CRC is known once the entry has been inflated and checked
+                drain(is);
+                state.fingerprints.add(entry.getName(), entry.getCrc(), entry.getSize());
+            }
+            stats.entriesSkipped.incrementAndGet();
+            return;
+        }
+
+        addBundled(resultMap, entry, is, depth, scan);
+    }
+
+    /**
+     * Identify an archive without pom.properties by its classes.
+     */
+    private void identify(MetadataState state, Map<String, Object> resultMap) {
+        if (state.fingerprints == null || state.foundPomProperties || state.fingerprints.isEmpty()) {
+            return;
+        }
+        long start = Metrics.start();
+        List<Map<String, Object>> identified = fingerprintIndex.identify(state.fingerprints);
+        Metrics.record(Metrics.Phase.FINGERPRINT_LOOKUP, start);
+        if (!identified.isEmpty()) {
+            resultMap.put("identified", identified);
+        }
+    }
+
+    private static void readManifest(Manifest manifest, Map<String, Object> resultMap) throws IOException {
+        if (manifest == null) {
+            throw new IOException("JAR manifest not found");
+        }
+        // fetch data from jar manifest
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            resultMap.put(entry.getKey(), toMap(entry.getValue()));
+        }
+        resultMap.put("manifest", toMap(manifest.getMainAttributes()));
+        Map<String, Object> bundle = BundleHeaders.read(manifest.getMainAttributes());
+        if (bundle != null) {
+            resultMap.put("osgi", bundle);
+        }
+    }
+
+    private static Map<String, Object> toMap(Attributes attributes) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+            map.put(attribute.getKey().toString(), attribute.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * Check if the content of entries of the given type is read by {@link #handleMetadataEntry}.
+     */
+    private static boolean hasMetadata(EntryType type) {
+        return type == EntryType.POM_PROPERTIES || type == EntryType.POM_XML || type == EntryType.MODULE_INFO
+                || type == EntryType.SERVICE;
+    }
+
+    /**
+     * Process pom.properties, pom.xml, module-info.class and service provider entries.
+     *
+     * @param name, name of the entry
+     * @param type, type of the entry
+     * @param resolvePoms, whether to extract data from the effective pom.xml
+     * @return true if the entry was metadata
+     */
+    private static boolean handleMetadataEntry(String name, EntryType type, InputStream is,
+                                               Map<String, Object> resultMap, MetadataState state,
+                                               boolean resolvePoms) throws IOException {
+        if (type == EntryType.MODULE_INFO) {
+            // the declaration for the oldest release wins, the one at the root if there is one
+            int release = Math.max(0, EntryClassifier.release(name));
+            if (release < state.moduleInfoRelease) {
+                try {
+                    state.moduleInfo = ModuleInfoReader.read(is);
+                    state.moduleInfoRelease = release;
+                } catch (TruncatedException e) {
+                    throw e;
+                } catch (IOException e) {
+                    System.err.println(String.format("Unable to read %s: %s", name, e.getMessage()));
+                }
+            }
+            return true;
+        }
+
+        if (type == EntryType.SERVICE) {
+            state.services.put(name.substring(name.lastIndexOf('/') + 1), readProviders(is));
+            return true;
+        }
+
+        if (type == EntryType.POM_PROPERTIES) {
+            String result_key = "maven_id";
+            if (!state.foundPomProperties) {
+                state.foundPomProperties = true;
+                Properties props = new Properties();
+                props.load(is);
+                resultMap.put(result_key, new HashMap<Object, Object>(props));
+            } else {
+                // we don't know how to handle multiple pom.properties files
+                resultMap.remove(result_key);
+            }
+            return true;
+        }
+
+        if (resolvePoms && type == EntryType.POM_XML) {
+            String result_key = "pom.xml";
+            // fetch data from pom.xml
+            if (!state.foundPomXml) {
+                state.foundPomXml = true;
+                ByteArrayOutputStream pom = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    pom.write(buffer, 0, read);
+                }
+                Map pomData = MavenUtils.getPomXmlEntries(pom.toByteArray(), null, true);
+                resultMap.putAll(pomData);
+            } else {
+                // we don't know how to handle multiple pom.xml files
+                resultMap.remove(result_key);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read provider class names from a META-INF/services file.
+     */
+    private static List<String> readProviders(InputStream is) throws IOException {
+        List<String> providers = new ArrayList<String>();
+        // not closed, the stream may be that of the whole archive
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (!line.isEmpty()) {
+                providers.add(line);
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Look for bundled JAR files.
+     *
+     * Only entries starting with the ZIP local file header signature are parsed,
+     * within the configured nesting depth and size limits. Archives found in
+     * the result cache are not descended into at all.
+     *
+     * Partial results of bundled archives that ran out of budget are added,
+     * but never cached.
+     *
+     * @param depth, nesting depth of the archive containing the entry
+     * @param scan, budget and output of the top-level archive
+     */
+    private void addBundled(Map<String, Object> resultMap, ZipEntry entry, InputStream is, int depth, Scan scan)
+            throws IOException {
+        // archives bundled in the top-level one may be scanned in parallel
+        NestedScans nested = depth == 0 ? scan.nested : null;
+        if (entry.getSize() > options.getMaxNestedSize()) {
+            stats.tooLarge.incrementAndGet();
+            return;
+        }
+
+        PushbackInputStream pis = new PushbackInputStream(is, ZIP_MAGIC.length);
+        byte[] magic = new byte[ZIP_MAGIC.length];
+        int read = readFully(pis, magic);
+        if (read < magic.length || !Arrays.equals(magic, ZIP_MAGIC)) {
+            stats.entriesSkipped.incrementAndGet();
+            return;
+        }
+        pis.unread(magic);
+
+        if (depth >= options.getMaxNestingDepth()) {
+            stats.tooDeep.incrementAndGet();
+            return;
+        }
+
+        // CRC and size are not known in advance for streamed entries with data descriptors
+        String cacheKey = null;
+        if (cache != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+            cacheKey = ResultCache.entryKey(entry.getCrc(), entry.getSize(), depth + 1);
+            Map<String, Object> cached = cache.get(cacheKey);
+            if (cached != null) {
+                addBundled(resultMap, entry, cached, depth, scan);
+                return;
+            }
+        }
+
+        stats.archivesDescended.incrementAndGet();
+        InputStream archive = pis;
+        if (nested != null) {
+            archive = nested.submit(entry, pis, cacheKey);
+            if (archive == null) {
+                // scanned in parallel, or turned out to be too large while buffered
+                return;
+            }
+        }
+        Map<String, Object> bundledResultMap = descend(archive, depth, cacheKey, scan);
+        if (bundledResultMap != null) {
+            addBundled(resultMap, entry, bundledResultMap, depth, scan);
+        }
+    }
+
+    /**
+     * Scan bundled archive.
+     *
+     * @param depth, nesting depth of the archive containing the bundled one
+     * @return result of the bundled archive, null if it's not a JAR or is too large
+     * @throws TruncatedException when out of budget before the bundled archive was even recognized
+     */
+    private Map<String, Object> descend(InputStream is, int depth, String cacheKey, Scan scan) throws IOException {
+        Map<String, Object> bundledResultMap;
+        long start = Metrics.start();
+        try {
+            bundledResultMap = scanStream(new LimitedInputStream(is, options.getMaxNestedSize()), depth + 1, scan);
+            if (cacheKey != null && !bundledResultMap.containsKey("truncated")) {
+                cache.put(cacheKey, bundledResultMap);
+            }
+        } catch (LimitExceededException e) {
+            stats.tooLarge.incrementAndGet();
+            return null;
+        } catch (TruncatedException e) {
+            throw e;
+        } catch (Exception e) {
+            // ok, not a JAR file
+            return null;
+        } finally {
+            Metrics.record(Metrics.Phase.NESTED_DESCENT, start);
+        }
+        return bundledResultMap;
+    }
+
+    /**
+     * Add result of a bundled archive, keeping the entry order when archives are scanned in parallel.
+     */
+    private static void addBundled(Map<String, Object> resultMap, ZipEntry entry, Map<String, Object> bundledResultMap,
+                                   int depth, Scan scan) throws IOException {
+        if (depth == 0 && scan.nested != null) {
+            scan.nested.add(entry, bundledResultMap);
+        } else {
+            // only bundled archives of the top-level one are written out as they are found
+            addBundled(resultMap, entry, bundledResultMap, depth == 0 ? scan.streaming : null);
+        }
+    }
+
+    private static void addBundled(Map<String, Object> resultMap, ZipEntry entry, Map<String, Object> bundledResultMap,
+                                   StreamingResult streaming) throws IOException {
+        bundledResultMap.put("kind", getJarKind(entry.getName()));
+        if (streaming != null) {
+            streaming.bundled(bundledResultMap);
+            return;
+        }
+        if (!resultMap.containsKey("bundled")) {
+            List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+            resultMap.put("bundled", list);
+        }
+        ((List<Map<String, Object>>) resultMap.get("bundled")).add(bundledResultMap);
+    }
+
+    private static void drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (is.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = is.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static String getJarKind(String name) {
+        String lcName = name.toLowerCase();
+
+        // TODO: this is a very naive approach, it can be improved
+        if (lcName.endsWith(".jar")) {
+            return "JAR";
+        } else if (lcName.endsWith(".war")) {
+            return "WAR";
+        } else if (lcName.endsWith(".ear")) {
+            return "EAR";
+        }
+        return "UNKNOWN";
+    }
+
+    /**
+     * Result of a top-level archive being written out.
+     *
+     * Bundled archives go to the "bundled" array as they are found, everything
+     * else (manifest, Maven metadata, kind) is small and written at the end,
+     * when it is known to be final.
+     */
+    private static class StreamingResult {
+        private final ResultWriter out;
+        boolean started = false;
+
+        StreamingResult(ResultWriter out) {
+            this.out = out;
+        }
+
+        void bundled(Map<String, Object> bundledResultMap) throws IOException {
+            if (!started) {
+                started = true;
+                out.beginObject().name("bundled").beginArray();
+            }
+            out.value(bundledResultMap);
+        }
+
+        void finish(Map<String, Object> resultMap) throws IOException {
+            if (started) {
+                out.endArray();
+            } else {
+                out.beginObject();
+            }
+            for (Map.Entry<String, Object> entry : resultMap.entrySet()) {
+                out.name(entry.getKey()).value(entry.getValue());
+            }
+            out.endObject();
+        }
+
+        void fail(Throwable e) throws IOException {
+            out.endArray().name("error").value(MercatorJava.errorMessage(e)).endObject();
+        }
+    }
+
+    /**
+     * Budget of one top-level archive, shared with the archives bundled in it.
+     */
+    private class Scan {
+        /** Where to write bundled archives of the top-level one, null to add them to the result map. */
+        final StreamingResult streaming;
+        /** Parallel scans of archives bundled in the top-level one, null when scanned in order. */
+        NestedScans nested;
+        private final long deadline;
+        // bundled archives scanned in parallel share the budget
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong inflated = new AtomicLong();
+        private volatile String truncated;
+
+        Scan(StreamingResult streaming) {
+            this.streaming = streaming;
+            this.deadline = options.getMaxScanTime() > 0
+                    ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getMaxScanTime()) : 0;
+        }
+
+        /**
+         * Start parallel scans of bundled archives, if enabled.
+         *
+         * @param resultMap, result of the top-level archive
+         * @return parallel scans, null if disabled
+         */
+        NestedScans nested(Map<String, Object> resultMap) {
+            nested = options.getNestedParallelism() > 1 ? new NestedScans(this, resultMap) : null;
+            return nested;
+        }
+
+        void entry() throws TruncatedException {
+            if (entries.incrementAndGet() > options.getMaxEntries()) {
+                truncate("entry count limit exceeded");
+            }
+            checkTime();
+        }
+
+        void inflated(long count) throws TruncatedException {
+            if (inflated.addAndGet(count) > options.getMaxInflatedSize()) {
+                truncate("inflated size limit exceeded");
+            }
+            checkTime();
+        }
+
+        private void checkTime() throws TruncatedException {
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                truncate("time limit exceeded");
+            }
+        }
+
+        private void truncate(String reason) throws TruncatedException {
+            synchronized (this) {
+                if (truncated == null) {
+                    truncated = reason;
+                    stats.truncated.incrementAndGet();
+                }
+            }
+            throw new TruncatedException(truncated);
+        }
+
+        /**
+         * Add what the scan used up to the metrics.
+         */
+        void report() {
+            Metrics.count(Metrics.Counter.ARTIFACTS_SCANNED, 1);
+            Metrics.count(Metrics.Counter.ENTRIES_VISITED, entries.get());
+            Metrics.count(Metrics.Counter.BYTES_INFLATED, inflated.get());
+        }
+
+        /**
+         * Record in the result of an archive that the budget ran out while it was scanned.
+         */
+        void mark(Map<String, Object> resultMap) {
+            if (truncated != null) {
+                resultMap.put("truncated", truncated);
+            }
+        }
+    }
+
+    /**
+     * Archives bundled in a top-level one, scanned on the fork-join pool.
+     *
+     * Only the thread scanning the top-level archive uses this. Results are
+     * added to the top-level one in entry order, as soon as all those before
+     * them are done.
+     */
+    private class NestedScans {
+        private final Scan scan;
+        private final Map<String, Object> resultMap;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+
+        NestedScans(Scan scan, Map<String, Object> resultMap) {
+            this.scan = scan;
+            this.resultMap = resultMap;
+        }
+
+        /**
+         * Buffer the bundled archive and scan it in parallel, if it fits in the memory budget.
+         *
+         * @param is, content of the bundled archive
+         * @return null if the archive was taken care of, otherwise the stream to scan it from
+         */
+        InputStream submit(ZipEntry entry, InputStream is, final String cacheKey) throws IOException {
+            if (entry.getSize() > nestedBufferLeft.get()) {
+                return is;
+            }
+            final Buffer buffer = new Buffer(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+            byte[] chunk = new byte[64 * 1024];
+            long reserved = 0;
+            boolean submitted = false;
+            try {
+                InputStream limited = new LimitedInputStream(is, options.getMaxNestedSize());
+                int read;
+                while ((read = limited.read(chunk)) >= 0) {
+                    buffer.write(chunk, 0, read);
+                    if (!reserve(read)) {
+                        // doesn't fit, scan what was read so far followed by the rest in order;
+                        // the entry stream is left open for the next entries
+                        return new SequenceInputStream(buffer.toInputStream(),
+                                new FilterInputStream(is) {
+                                    @Override
+                                    public void close() {
+                                    }
+                                });
+                    }
+                    reserved += read;
+                }
+                submitted = true;
+            } catch (LimitExceededException e) {
+                stats.tooLarge.incrementAndGet();
+                return null;
+            } finally {
+                if (!submitted) {
+                    release(reserved);
+                }
+            }
+
+            final long size = reserved;
+            Future<Map<String, Object>> future = nestedPool().submit(new Callable<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> call() throws IOException {
+                    try {
+                        return descend(buffer.toInputStream(), 0, cacheKey, scan);
+                    } finally {
+                        release(size);
+                    }
+                }
+            });
+            pending.add(new Pending(entry, future));
+            flush(false);
+            return null;
+        }
+
+        /**
+         * Add result of a bundled archive scanned by the current thread, after those still being scanned.
+         */
+        void add(ZipEntry entry, Map<String, Object> bundledResultMap) throws IOException {
+            pending.add(new Pending(entry, bundledResultMap));
+            flush(false);
+        }
+
+        /**
+         * Add results which are done, in entry order.
+         *
+         * @param wait, whether to wait for all the results
+         */
+        void flush(boolean wait) throws IOException {
+            while (!pending.isEmpty() && (wait || pending.peek().isDone())) {
+                Pending next = pending.poll();
+                Map<String, Object> bundledResultMap = next.get();
+                if (bundledResultMap != null) {
+                    addBundled(resultMap, next.entry, bundledResultMap, scan.streaming);
+                }
+            }
+        }
+
+        private boolean reserve(long bytes) {
+            long left;
+            do {
+                left = nestedBufferLeft.get();
+                if (left < bytes) {
+                    return false;
+                }
+            } while (!nestedBufferLeft.compareAndSet(left, left - bytes));
+            return true;
+        }
+
+        private void release(long bytes) {
+            nestedBufferLeft.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Result of a bundled archive, done or being scanned.
+     */
+    private static class Pending {
+        final ZipEntry entry;
+        private final Future<Map<String, Object>> future;
+        private final Map<String, Object> result;
+
+        Pending(ZipEntry entry, Future<Map<String, Object>> future) {
+            this.entry = entry;
+            this.future = future;
+            this.result = null;
+        }
+
+        Pending(ZipEntry entry, Map<String, Object> result) {
+            this.entry = entry;
+            this.future = null;
+            this.result = result;
+        }
+
+        boolean isDone() {
+            return future == null || future.isDone();
+        }
+
+        /**
+         * @return result, null if the entry turned out not to be a JAR
+         */
+        Map<String, Object> get() throws IOException {
+            if (future == null) {
+                return result;
+            }
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof TruncatedException) {
+                    // out of budget, the top-level scan stops at its next entry
+                    return null;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Buffer of a bundled archive, read back without copying it, so it only takes the memory reserved for it.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    /**
+     * Metadata seen so far in one archive.
+     */
+    private static class MetadataState {
+        boolean foundPomProperties = false;
+        boolean foundPomXml = false;
+        Map<String, Object> moduleInfo = null;
+        int moduleInfoRelease = Integer.MAX_VALUE;
+        final Map<String, List<String>> services = new LinkedHashMap<String, List<String>>();
+        final TreeSet<Integer> releases = new TreeSet<Integer>();
+        final List<String> osgiEntries = new ArrayList<String>();
+        /** Fingerprints of the classes, null when archives are not identified by their classes. */
+        final ClassFingerprints fingerprints;
+
+        MetadataState(boolean fingerprint) {
+            fingerprints = fingerprint ? new ClassFingerprints() : null;
+        }
+
+        /**
+         * Note releases of multi-release JARs and OSGI-INF entries, which are never read.
+         */
+        void visit(String name, EntryType type) {
+            int release = EntryClassifier.release(name);
+            if (release >= 0) {
+                releases.add(release);
+            }
+            if (type == EntryType.OSGI) {
+                osgiEntries.add(name);
+            }
+        }
+
+        /**
+         * Add what was found to the result of the archive.
+         */
+        void addTo(Map<String, Object> resultMap) {
+            if (moduleInfo != null) {
+                resultMap.put("module_info", moduleInfo);
+            }
+            if (!services.isEmpty()) {
+                resultMap.put("services", services);
+            }
+            if (!releases.isEmpty()) {
+                Map<String, Object> multiRelease = new LinkedHashMap<String, Object>();
+                Map<?, ?> manifest = (Map<?, ?>) resultMap.get("manifest");
+                multiRelease.put("enabled", manifest != null && "true".equalsIgnoreCase(
+                        String.valueOf(manifest.get("Multi-Release")).trim()));
+                multiRelease.put("releases", new ArrayList<Integer>(releases));
+                resultMap.put("multi_release", multiRelease);
+            }
+            if (!osgiEntries.isEmpty()) {
+                Map<String, Object> bundle = (Map<String, Object>) resultMap.get("osgi");
+                if (bundle == null) {
+                    bundle = new LinkedHashMap<String, Object>();
+                    resultMap.put("osgi", bundle);
+                }
+                bundle.put("osgi_inf", osgiEntries);
+            }
+        }
+    }
+
+    private static class LimitExceededException extends IOException {
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static class TruncatedException extends IOException {
+        TruncatedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Stream charging the bytes read from it to the budget of a scan.
+     */
+    private static class BudgetInputStream extends FilterInputStream {
+        private final Scan scan;
+
+        BudgetInputStream(InputStream in, Scan scan) {
+            super(in);
+            this.scan = scan;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                scan.inflated(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                scan.inflated(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            scan.inflated(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * Stream failing once more than the given number of bytes was read from it.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consumed(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                consumed(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            consumed(skipped);
+            return skipped;
+        }
+
+        private void consumed(long count) throws LimitExceededException {
+            remaining -= count;
+            if (remaining < 0) {
+                throw new LimitExceededException("bundled archive exceeds the size limit");
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Process many files in a single JVM.
+ *
+ * Inputs are paths to supported files or directories, "@file" for a file
+ * with one path per line, or "-" for paths read from stdin. Directories are
+ * walked (in sorted order) for pom.xml, Gradle, JAR, WAR and EAR files.
+ *
+ * Files are processed on a bounded worker pool, but the results are always
+ * printed in the input order, one JSON object per line keyed by the path.
+ * At most twice as many results as there are workers are kept in memory,
+ * reading further inputs blocks until the output catches up.
+ *
+ * With an index, results of files which didn't change since the previous
+ * run are printed without analysing the files again. Files recorded in the
+ * index which are no longer found in a walked directory, or no longer exist
+ * when given explicitly, are reported as {"deleted": true}.
+ *
+ * In binary mode the records are written as CBOR maps instead, grouped in
+ * arrays of up to {@link #CHUNK_RECORDS} records. Each array is a stringref
+ * namespace of its own, repeated strings are written once per array rather
+ * than once per record, without the dictionary growing for the whole run.
+ */
+public class BatchProcessor {
+
+    private static final String JOBS_ENV = "MERCATOR_JAVA_JOBS";
+
+    private static final byte[] DELETED = "{\"deleted\":true}".getBytes(StandardCharsets.UTF_8);
+
+    static final int CHUNK_RECORDS = 1000;
+
+    private final int jobs;
+    private final PrintStream out;
+    private final ArchiveScanner scanner;
+    private final ScanIndex index;
+    private boolean binary = false;
+    private OrderedPrinter printer;
+
+    public BatchProcessor(int jobs, PrintStream out, ArchiveScanner scanner) {
+        this(jobs, out, scanner, null);
+    }
+
+    /**
+     * @param index, index of results from previous runs, null to analyse every file
+     */
+    public BatchProcessor(int jobs, PrintStream out, ArchiveScanner scanner, ScanIndex index) {
+        this.jobs = Math.max(1, jobs);
+        this.out = out;
+        this.scanner = scanner;
+        this.index = index;
+    }
+
+    /**
+     * Write results as CBOR rather than JSON lines.
+     */
+    public BatchProcessor setBinary(boolean binary) {
+        this.binary = binary;
+        return this;
+    }
+
+    /**
+     * Get the number of workers to use.
+     *
+     * @return value of MERCATOR_JAVA_JOBS, or number of available processors when not set.
+     */
+    public static int configuredJobs() {
+        String jobs = System.getenv(JOBS_ENV);
+        if (jobs != null) {
+            try {
+                return Integer.parseInt(jobs.trim());
+            } catch (NumberFormatException ex) {
+                System.err.println(String.format("Ignoring invalid %s value: %s", JOBS_ENV, jobs));
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Process all given inputs.
+     *
+     * @param sources, paths or path sources; no sources means stdin
+     * @throws IOException
+     */
+    public void run(List<String> sources) throws IOException {
+        if (sources.isEmpty()) {
+            sources = Collections.singletonList("-");
+        }
+
+        ExecutorService executor = newExecutor();
+        BlockingQueue<Pending> queue = new ArrayBlockingQueue<Pending>(2 * jobs);
+        printer = new OrderedPrinter(queue);
+        printer.start();
+        try {
+            for (String source : sources) {
+                if (source.equals("-")) {
+                    // stdin may be interactive, results are flushed as soon as they are ready
+                    submitPaths(new InputStreamReader(System.in, StandardCharsets.UTF_8), executor, queue);
+                } else if (source.startsWith("@")) {
+                    try (Reader reader = new InputStreamReader(new FileInputStream(source.substring(1)), StandardCharsets.UTF_8)) {
+                        submitPaths(reader, executor, queue);
+                    }
+                } else {
+                    submitPath(source, executor, queue);
+                }
+            }
+        } finally {
+            if (printer.failure == null) {
+                put(queue, Pending.END);
+            }
+            try {
+                printer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdown();
+        }
+        if (printer.failure != null) {
+            throw new IllegalStateException("Unable to print results", printer.failure);
+        }
+        System.err.println(String.format("Scan statistics: %s", scanner.getStats()));
+        if (scanner.getCache() != null) {
+            System.err.println(String.format("Result cache statistics: %s", scanner.getCache()));
+        }
+        if (scanner.getOptions().isResolvePoms()) {
+            System.err.println(String.format("Effective POM cache statistics: %s", EffectivePomCache.shared()));
+        }
+        if (index != null) {
+            System.err.println(String.format("Index statistics: %s", index));
+        }
+    }
+
+    private void submitPaths(Reader reader, ExecutorService executor, BlockingQueue<Pending> queue) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            // paths are used as given, they are the keys of the results
+            if (!line.isEmpty()) {
+                submitPath(line, executor, queue);
+            }
+        }
+    }
+
+    private void submitPath(String path, ExecutorService executor, BlockingQueue<Pending> queue) throws IOException {
+        File file = new File(path);
+        if (!file.isDirectory()) {
+            if (index != null && !file.exists() && index.contains(file)) {
+                putDeleted(file, queue);
+                return;
+            }
+            put(queue, new Pending(path, executor.submit(new Task(path))));
+            return;
+        }
+        List<String> files = findSupportedFiles(file.toPath());
+        for (String found : files) {
+            put(queue, new Pending(found, executor.submit(new Task(found))));
+        }
+        if (index != null) {
+            for (File missing : index.missing(file, files)) {
+                putDeleted(missing, queue);
+            }
+        }
+    }
+
+    private void putDeleted(File file, BlockingQueue<Pending> queue) {
+        index.delete(file);
+        FutureTask<byte[]> result = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                if (!binary) {
+                    return DELETED;
+                }
+                Map<String, Object> deleted = new HashMap<String, Object>();
+                deleted.put("deleted", true);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new CborWriter(bos).value(deleted);
+                return bos.toByteArray();
+            }
+        });
+        result.run();
+        put(queue, new Pending(file.getPath(), result));
+    }
+
+    /**
+     * Queue a result for printing, waiting while the queue is full.
+     *
+     * @throws IllegalStateException when the printer failed, nothing would take from the queue anymore
+     */
+    private void put(BlockingQueue<Pending> queue, Pending pending) {
+        try {
+            while (!queue.offer(pending, 100, TimeUnit.MILLISECONDS)) {
+                if (printer.failure != null) {
+                    throw new IllegalStateException("Unable to print results", printer.failure);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for results", ex);
+        }
+    }
+
+    /**
+     * Find all files the handler knows how to process in the given directory.
+     *
+     * @param dir, directory to walk
+     * @return sorted list of paths
+     * @throws IOException
+     */
+    static List<String> findSupportedFiles(Path dir) throws IOException {
+        final List<String> found = new ArrayList<String>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isSupportedFile(file.toFile())) {
+                    found.add(file.toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
+
+    private static boolean isSupportedFile(File file) {
+        String name = file.getName();
+        String lcName = name.toLowerCase();
+        return name.equals("pom.xml") || GradleParser.isGradleFile(file)
+                || lcName.endsWith(".jar") || lcName.endsWith(".war") || lcName.endsWith(".ear");
+    }
+
+    /**
+     * Create worker pool, using virtual threads when the JDK has them.
+     */
+    private ExecutorService newExecutor() {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new BoundedExecutor(virtual, jobs);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(jobs);
+        }
+    }
+
+    /**
+     * Print a CBOR record, in the namespace of the current chunk.
+     *
+     * @param records, number of records printed before this one
+     */
+    private void printRecord(CborWriter cbor, long records, String path, byte[] result) throws IOException {
+        if (records % CHUNK_RECORDS == 0) {
+            cbor.namespace().beginArray();
+        }
+        // re-encoded so that strings are referenced across the records of the chunk
+        Object decoded;
+        try {
+            decoded = new CborReader(new ByteArrayInputStream(result)).read();
+        } catch (IOException ex) {
+            decoded = Collections.singletonMap("error", MercatorJava.errorMessage(ex));
+        }
+        cbor.value(Collections.singletonMap(path, decoded));
+        if ((records + 1) % CHUNK_RECORDS == 0) {
+            cbor.endArray();
+        }
+    }
+
+    private void printRecord(String path, byte[] result) {
+        out.print("{");
+        out.print(JSONValue.toJSONString(path));
+        out.print(": ");
+        out.write(result, 0, result.length);
+        out.print("}\n");
+    }
+
+    private static class Pending {
+        static final Pending END = new Pending(null, null);
+
+        final String path;
+        final Future<byte[]> result;
+
+        Pending(String path, Future<byte[]> result) {
+            this.path = path;
+            this.result = result;
+        }
+    }
+
+    private class Task implements Callable<byte[]> {
+        private final String path;
+
+        Task(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public byte[] call() {
+            if (index == null) {
+                return MercatorJava.handleFileSafely(path, scanner, binary);
+            }
+            ScanIndex.Lookup lookup;
+            try {
+                lookup = index.lookup(new File(path));
+            } catch (IOException ex) {
+                // not readable, fails the usual way
+                return MercatorJava.handleFileSafely(path, scanner, binary);
+            }
+            if (lookup.getResult() != null) {
+                return lookup.getResult();
+            }
+            MercatorJava.Result result = MercatorJava.processSafely(path, scanner, binary);
+            index.put(lookup, result.bytes, result.complete);
+            return result.bytes;
+        }
+    }
+
+    /**
+     * Take results from the queue in submission order and print them.
+     */
+    private class OrderedPrinter extends Thread {
+        private final BlockingQueue<Pending> queue;
+        volatile Throwable failure;
+
+        OrderedPrinter(BlockingQueue<Pending> queue) {
+            super("mercator-batch-writer");
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            CborWriter cbor = binary ? new CborWriter(out) : null;
+            long records = 0;
+            try {
+                Pending pending;
+                while ((pending = queue.take()) != Pending.END) {
+                    byte[] result;
+                    try {
+                        result = pending.result.get();
+                    } catch (ExecutionException ex) {
+                        result = MercatorJava.errorResult(ex.getCause(), binary);
+                    }
+                    if (cbor != null) {
+                        printRecord(cbor, records, pending.path, result);
+                    } else {
+                        printRecord(pending.path, result);
+                    }
+                    records++;
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+                if (cbor != null && records % CHUNK_RECORDS != 0) {
+                    cbor.endArray();
+                }
+                out.flush();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException | Error ex) {
+                // PrintStream doesn't throw, anything else is reported by the producer
+                failure = ex;
+            }
+        }
+    }
+
+    /**
+     * Executor limiting the number of concurrently running tasks.
+     *
+     * Virtual thread executors start a new thread for every task, the semaphore
+     * keeps the number of archives being inflated at the same time in check.
+     */
+    private static class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int permits) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(permits);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            delegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    permits.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Extract OSGi bundle metadata from manifest headers.
+ */
+public final class BundleHeaders {
+
+    private BundleHeaders() {
+    }
+
+    /**
+     * Get bundle metadata from the main manifest attributes.
+     *
+     * @return symbolic name, version, exported and imported packages; null if this is not a bundle
+     */
+    public static Map<String, Object> read(Attributes attributes) {
+        String symbolicName = attributes.getValue("Bundle-SymbolicName");
+        if (symbolicName == null) {
+            return null;
+        }
+        Map<String, Object> bundle = new LinkedHashMap<String, Object>();
+        List<String> names = clauseNames(symbolicName);
+        bundle.put("symbolic_name", names.isEmpty() ? symbolicName.trim() : names.get(0));
+        String version = attributes.getValue("Bundle-Version");
+        if (version != null) {
+            bundle.put("version", version.trim());
+        }
+        bundle.put("export_package", clauseNames(attributes.getValue("Export-Package")));
+        bundle.put("import_package", clauseNames(attributes.getValue("Import-Package")));
+        return bundle;
+    }
+
+    /**
+     * Get names from a header like "a.b;c.d;version=1,e.f;uses:=\"a.b,c.d\"".
+     *
+     * Each comma separated clause lists one or more names followed by
+     * attributes and directives, which may be quoted and contain commas.
+     *
+     * @param header, header value, may be null
+     * @return names in all clauses, in order
+     */
+    static List<String> clauseNames(String header) {
+        List<String> names = new ArrayList<String>();
+        if (header == null) {
+            return names;
+        }
+        int start = 0;
+        boolean quoted = false;
+        boolean parameters = false;
+        for (int i = 0; i <= header.length(); i++) {
+            char ch = i < header.length() ? header.charAt(i) : ',';
+            if (ch == '"') {
+                quoted = !quoted;
+            } else if (quoted) {
+                continue;
+            } else if (ch == '=') {
+                // attribute or directive, everything up to the next clause is parameters
+                parameters = true;
+            } else if (ch == ';' || ch == ',') {
+                String name = header.substring(start, i).trim();
+                if (!parameters && !name.isEmpty()) {
+                    names.add(name);
+                }
+                start = i + 1;
+                if (ch == ',') {
+                    parameters = false;
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,318 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoder of the CBOR written by {@link CborWriter}.
+ *
+ * Maps are decoded to maps keeping the order of their keys, arrays to lists,
+ * integers to longs, floats to floats or doubles; written back with
+ * {@link JsonWriter}, decoded results are the same JSON the handler writes.
+ *
+ * Batch output is a sequence of namespaces, each holding an array of records;
+ * {@link #next()} returns the records one at a time.
+ *
+ * Usage, to convert CBOR output to JSON lines:
+ *   java -cp handler.jar mercator.CborReader [FILE]
+ */
+public class CborReader {
+
+    private static final Object BREAK = new Object();
+
+    private final PushbackInputStream in;
+    /** Strings of the current namespace, null outside of namespaces. */
+    private List<String> strings;
+    /** Whether {@link #next()} is returning elements of a namespaced array. */
+    private boolean inRecords = false;
+
+    public CborReader(InputStream in) {
+        this.in = new PushbackInputStream(in, 4);
+    }
+
+    public static void main(String[] args) throws IOException {
+        InputStream is = args.length > 0 ? new FileInputStream(args[0]) : new FileInputStream(FileDescriptor.in);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                StandardCharsets.UTF_8));
+        CborReader reader = new CborReader(new BufferedInputStream(is));
+        while (reader.hasNext()) {
+            new JsonWriter(writer).value(reader.next());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Check if there are more records.
+     */
+    public boolean hasNext() throws IOException {
+        while (true) {
+            int initial = in.read();
+            if (initial < 0) {
+                return false;
+            }
+            if (inRecords && initial == 0xff) {
+                inRecords = false;
+                strings = null;
+                continue;
+            }
+            if (!inRecords && initial == 0xd9) {
+                // namespace holding an array of records
+                byte[] next = new byte[3];
+                int read = readFully(next);
+                if (read == 3 && (next[0] & 0xff) == 0x01 && next[1] == 0x00 && (next[2] & 0xff) == 0x9f) {
+                    strings = new ArrayList<String>();
+                    inRecords = true;
+                    continue;
+                }
+                in.unread(next, 0, read);
+            }
+            in.unread(initial);
+            return true;
+        }
+    }
+
+    /**
+     * Read the next record: a top-level item, or an element of a namespaced top-level array.
+     *
+     * @throws EOFException when there are no more records
+     */
+    public Object next() throws IOException {
+        if (!hasNext()) {
+            throw new EOFException();
+        }
+        return read();
+    }
+
+    /**
+     * Read the next item.
+     */
+    public Object read() throws IOException {
+        Object item = item();
+        if (item == BREAK) {
+            throw new IOException("unexpected break");
+        }
+        return item;
+    }
+
+    private Object item() throws IOException {
+        int initial = readByte();
+        int major = initial >>> 5;
+        int info = initial & 0x1f;
+        if (initial == 0xff) {
+            return BREAK;
+        }
+        switch (major) {
+            case 0:
+                return argument(info);
+            case 1:
+                return -1 - argument(info);
+            case 3:
+                return text(info);
+            case 4:
+                return array(info);
+            case 5:
+                return map(info);
+            case 6:
+                return tagged(argument(info));
+            case 7:
+                return simple(info);
+            default:
+                throw new IOException(String.format("unsupported item: 0x%02x", initial));
+        }
+    }
+
+    private String text(int info) throws IOException {
+        String s;
+        if (info == 31) {
+            StringBuilder sb = new StringBuilder();
+            Object chunk;
+            while ((chunk = item()) != BREAK) {
+                sb.append((String) chunk);
+            }
+            s = sb.toString();
+        } else {
+            long length = argument(info);
+            byte[] bytes = new byte[checkLength(length)];
+            if (readFully(bytes) < bytes.length) {
+                throw new EOFException();
+            }
+            s = new String(bytes, StandardCharsets.UTF_8);
+            if (strings != null && CborWriter.referenced(bytes.length, strings.size())) {
+                strings.add(s);
+            }
+        }
+        return s;
+    }
+
+    private List<Object> array(int info) throws IOException {
+        List<Object> list = new ArrayList<Object>();
+        if (info == 31) {
+            Object item;
+            while ((item = item()) != BREAK) {
+                list.add(item);
+            }
+            return list;
+        }
+        long length = argument(info);
+        for (long i = 0; i < length; i++) {
+            list.add(read());
+        }
+        return list;
+    }
+
+    private Map<String, Object> map(int info) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        if (info == 31) {
+            Object key;
+            while ((key = item()) != BREAK) {
+                map.put(String.valueOf(key), read());
+            }
+            return map;
+        }
+        long length = argument(info);
+        for (long i = 0; i < length; i++) {
+            map.put(String.valueOf(read()), read());
+        }
+        return map;
+    }
+
+    private Object tagged(long tag) throws IOException {
+        if (tag == CborWriter.TAG_STRINGREF_NAMESPACE) {
+            List<String> outer = strings;
+            strings = new ArrayList<String>();
+            try {
+                return read();
+            } finally {
+                strings = outer;
+            }
+        }
+        if (tag == CborWriter.TAG_STRINGREF) {
+            Object index = read();
+            if (strings == null || !(index instanceof Long) || (Long) index >= strings.size()) {
+                throw new IOException("invalid string reference: " + index);
+            }
+            return strings.get(((Long) index).intValue());
+        }
+        // other tags don't change the value
+        return read();
+    }
+
+    private Object simple(int info) throws IOException {
+        switch (info) {
+            case 20:
+                return false;
+            case 21:
+                return true;
+            case 22:
+            case 23:
+                return null;
+            case 25:
+                return halfToFloat((int) argument(info));
+            case 26:
+                return Float.intBitsToFloat((int) argument(info));
+            case 27:
+                return Double.longBitsToDouble(argument(info));
+            default:
+                throw new IOException("unsupported simple value: " + info);
+        }
+    }
+
+    private static float halfToFloat(int bits) {
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        float value;
+        if (exponent == 0) {
+            value = mantissa * (float) Math.pow(2, -24);
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        }
+        return (bits & 0x8000) != 0 ? -value : value;
+    }
+
+    private long argument(int info) throws IOException {
+        if (info < 24) {
+            return info;
+        }
+        int bytes;
+        switch (info) {
+            case 24:
+                bytes = 1;
+                break;
+            case 25:
+                bytes = 2;
+                break;
+            case 26:
+                bytes = 4;
+                break;
+            case 27:
+                bytes = 8;
+                break;
+            default:
+                throw new IOException("unsupported argument: " + info);
+        }
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private static int checkLength(long length) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("invalid length: " + length);
+        }
+        return (int) length;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private int readFully(byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
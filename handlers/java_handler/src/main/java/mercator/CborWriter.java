@@ -0,0 +1,237 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming CBOR (RFC 8949) writer, producing the same data model as {@link JsonWriter}.
+ *
+ * Objects and arrays written with begin/end calls have indefinite length,
+ * those written as values have definite length. Integers and floats are
+ * written as such, anything else that is not a map, collection, boolean or
+ * null as a text string.
+ *
+ * Within a namespace (tag 256 of the stringref extension), strings written
+ * before are replaced by a reference (tag 25) to their index in the namespace.
+ * Repeated keys and values, such as manifest attributes and coordinates, are
+ * then written only once per namespace. {@link CborReader} decodes it.
+ */
+public class CborWriter implements ResultWriter {
+
+    static final int TAG_STRINGREF = 25;
+    static final int TAG_STRINGREF_NAMESPACE = 256;
+
+    private final OutputStream out;
+    /** Indexes of strings in the current namespace, null outside of namespaces. */
+    private Map<String, Integer> strings;
+    private int depth = 0;
+    /** Depth of the item the current namespace applies to. */
+    private int namespaceDepth = -1;
+
+    public CborWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Check if results should be written in CBOR.
+     *
+     * @return true if MERCATOR_JAVA_OUTPUT_FORMAT is "cbor"
+     */
+    public static boolean enabled() {
+        return "cbor".equalsIgnoreCase(System.getenv("MERCATOR_JAVA_OUTPUT_FORMAT"));
+    }
+
+    /**
+     * Start a string reference namespace for the next item.
+     */
+    public CborWriter namespace() throws IOException {
+        head(6, TAG_STRINGREF_NAMESPACE);
+        strings = new HashMap<String, Integer>();
+        namespaceDepth = depth;
+        return this;
+    }
+
+    @Override
+    public CborWriter beginObject() throws IOException {
+        out.write(0xbf);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public CborWriter endObject() throws IOException {
+        return end();
+    }
+
+    @Override
+    public CborWriter beginArray() throws IOException {
+        out.write(0x9f);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public CborWriter endArray() throws IOException {
+        return end();
+    }
+
+    private CborWriter end() throws IOException {
+        out.write(0xff);
+        depth--;
+        itemDone();
+        return this;
+    }
+
+    @Override
+    public CborWriter name(String name) throws IOException {
+        string(name);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(Object value) throws IOException {
+        long start = Metrics.start();
+        write(value);
+        itemDone();
+        Metrics.record(Metrics.Phase.CBOR_SERIALIZATION, start);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void itemDone() {
+        if (depth == namespaceDepth) {
+            strings = null;
+            namespaceDepth = -1;
+        }
+    }
+
+    private void write(Object value) throws IOException {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            head(5, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                string(String.valueOf(entry.getKey()));
+                write(entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            head(4, collection.size());
+            for (Object item : collection) {
+                write(item);
+            }
+        } else if (value == null) {
+            out.write(0xf6);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? 0xf5 : 0xf4);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof AtomicLong || value instanceof AtomicInteger) {
+            long l = ((Number) value).longValue();
+            if (l >= 0) {
+                head(0, l);
+            } else {
+                head(1, -1 - l);
+            }
+        } else if (value instanceof Float) {
+            out.write(0xfa);
+            int bits = Float.floatToIntBits((Float) value);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.write(bits >>> shift);
+            }
+        } else if (value instanceof Number) {
+            // doubles; big numbers are not part of results
+            out.write(0xfb);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        } else {
+            string(value.toString());
+        }
+    }
+
+    private void string(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (strings != null) {
+            Integer index = strings.get(s);
+            if (index != null) {
+                head(6, TAG_STRINGREF);
+                head(0, index);
+                return;
+            }
+            if (referenced(bytes.length, strings.size())) {
+                strings.put(s, strings.size());
+            }
+        }
+        head(3, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Check if a string is added to the namespace, that is if a reference to
+     * it would be shorter than the string itself.
+     *
+     * @param length, length of the string, in bytes
+     * @param index, index the string would get
+     */
+    static boolean referenced(int length, int index) {
+        if (index < 24) {
+            return length >= 3;
+        }
+        if (index < 256) {
+            return length >= 4;
+        }
+        if (index < 65536) {
+            return length >= 5;
+        }
+        return length >= 7;
+    }
+
+    private void head(int major, long value) throws IOException {
+        int type = major << 5;
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value <= 0xffL) {
+            out.write(type | 24);
+            out.write((int) value);
+        } else if (value <= 0xffffL) {
+            out.write(type | 25);
+            out.write((int) (value >>> 8));
+            out.write((int) value);
+        } else if (value <= 0xffffffffL) {
+            out.write(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        } else {
+            out.write(type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        }
+    }
+}
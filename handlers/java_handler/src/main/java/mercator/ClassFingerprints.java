@@ -0,0 +1,120 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hashes of the class files of one archive, to identify it without Maven metadata.
+ *
+ * Each class is keyed by the CRC-32 and size of its content, as recorded in
+ * the central directory, or as checked by ZipInputStream while inflating
+ * when the archive is read sequentially. Either way nothing is hashed on top
+ * of what reading the archive costs anyway.
+ *
+ * Packages of at least {@link #MIN_PACKAGE_CLASSES} classes are also keyed by
+ * a hash of the names of their classes, which is left as it is when shading
+ * relocates the package and rewrites the classes.
+ *
+ * Classes of other releases of multi-release JARs are left out.
+ */
+public class ClassFingerprints {
+
+    static final int MIN_PACKAGE_CLASSES = 3;
+
+    private long[] classes = new long[64];
+    private int classCount = 0;
+    private final Map<String, List<String>> packages = new HashMap<String, List<String>>();
+
+    /**
+     * Add a class file.
+     *
+     * @param name, entry name
+     * @param crc, CRC-32 of the content, -1 if not known
+     * @param size, size of the content, -1 if not known
+     * @return whether the class was added
+     */
+    public boolean add(String name, long crc, long size) {
+        if (crc < 0 || size < 0 || EntryClassifier.release(name) >= 0) {
+            return false;
+        }
+        if (classCount == classes.length) {
+            classes = Arrays.copyOf(classes, 2 * classCount);
+        }
+        classes[classCount++] = key(crc, size);
+
+        int slash = name.lastIndexOf('/');
+        String packageName = slash < 0 ? "" : name.substring(0, slash);
+        List<String> names = packages.get(packageName);
+        if (names == null) {
+            names = new ArrayList<String>();
+            packages.put(packageName, names);
+        }
+        names.add(name.substring(slash + 1));
+        return true;
+    }
+
+    static long key(long crc, long size) {
+        return (crc << 32) | (size & 0xffffffffL);
+    }
+
+    public boolean isEmpty() {
+        return classCount == 0;
+    }
+
+    /**
+     * @return distinct keys of the classes, sorted
+     */
+    long[] classKeys() {
+        return distinct(Arrays.copyOf(classes, classCount));
+    }
+
+    /**
+     * @return distinct signatures of the packages with enough classes, sorted
+     */
+    long[] packageSignatures() {
+        long[] signatures = new long[packages.size()];
+        int count = 0;
+        for (List<String> names : packages.values()) {
+            if (names.size() < MIN_PACKAGE_CLASSES) {
+                continue;
+            }
+            Collections.sort(names);
+            long hash = Coordinate.FNV_OFFSET;
+            for (String name : names) {
+                hash = Coordinate.fnv(hash, name);
+            }
+            signatures[count++] = hash;
+        }
+        return distinct(Arrays.copyOf(signatures, count));
+    }
+
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                values[count++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
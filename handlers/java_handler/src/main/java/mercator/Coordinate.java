@@ -0,0 +1,128 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+/**
+ * Coordinates of an artifact, without its version: groupId, artifactId, type and classifier.
+ *
+ * Instances are immutable and interned, so that coordinates found in many
+ * POMs (junit, slf4j and such) are held in memory once, along with their
+ * {@code groupId:artifactId:type:classifier} key. Hashes are computed once;
+ * {@link #fingerprint()} is a 64-bit hash stable across runs, suitable as
+ * a key in caches and indexes.
+ */
+public final class Coordinate {
+
+    static final int POOL_SIZE = 1 << 16;
+
+    private static final Interner<Coordinate> POOL = new Interner<Coordinate>(POOL_SIZE);
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String groupId;
+    private final String artifactId;
+    private final String type;
+    private final String classifier;
+    private final String key;
+    private final long fingerprint;
+
+    private Coordinate(String groupId, String artifactId, String type, String classifier) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.type = type;
+        this.classifier = classifier;
+        this.key = groupId + ":" + artifactId + ":" + type + ":" + classifier;
+        this.fingerprint = fnv(fnv(fnv(fnv(FNV_OFFSET, groupId), artifactId), type), classifier);
+    }
+
+    /**
+     * Get the coordinates with the given values.
+     *
+     * @param type, type, or empty if not given
+     * @param classifier, classifier, or empty if not given
+     * @return interned coordinates
+     */
+    public static Coordinate of(String groupId, String artifactId, String type, String classifier) {
+        if (groupId == null || artifactId == null) {
+            throw new NullPointerException("groupId and artifactId are required");
+        }
+        return POOL.intern(new Coordinate(groupId, artifactId, type == null ? "" : type,
+                classifier == null ? "" : classifier));
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Get 64-bit FNV-1a hash of the coordinates, the same in every run.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Add the given string to an FNV-1a hash, with a terminator keeping fields apart.
+     */
+    static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Coordinate)) {
+            return false;
+        }
+        Coordinate other = (Coordinate) obj;
+        return fingerprint == other.fingerprint && groupId.equals(other.groupId)
+                && artifactId.equals(other.artifactId) && type.equals(other.type)
+                && classifier.equals(other.classifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    /**
+     * @return groupId:artifactId:type:classifier
+     */
+    @Override
+    public String toString() {
+        return key;
+    }
+}
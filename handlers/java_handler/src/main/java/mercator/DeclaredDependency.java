@@ -0,0 +1,159 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dependency declared in a POM or Gradle file: coordinates, version and scopes.
+ *
+ * Instances are immutable and interned like {@link Coordinate}. Maven scopes
+ * are kept as an {@link EnumSet}; other names, such as Gradle configurations
+ * without a Maven counterpart, are kept aside.
+ */
+public final class DeclaredDependency {
+
+    private static final Interner<DeclaredDependency> POOL = new Interner<DeclaredDependency>(Coordinate.POOL_SIZE);
+
+    private static final String[] NO_SCOPES = {};
+
+    private final Coordinate coordinate;
+    private final String version;
+    private final EnumSet<Scope> scopes;
+    private final String[] otherScopes;
+    private final long fingerprint;
+
+    private DeclaredDependency(Coordinate coordinate, String version, EnumSet<Scope> scopes, String[] otherScopes) {
+        this.coordinate = coordinate;
+        this.version = version;
+        this.scopes = scopes;
+        this.otherScopes = otherScopes;
+        long hash = Coordinate.fnv(coordinate.fingerprint(), version);
+        for (Scope scope : scopes) {
+            hash = Coordinate.fnv(hash, scope.id());
+        }
+        for (String scope : otherScopes) {
+            hash = Coordinate.fnv(hash, scope);
+        }
+        this.fingerprint = hash;
+    }
+
+    /**
+     * Get the dependency with the given values.
+     *
+     * @param version, version, or empty if not given
+     * @param scopeNames, names of scopes
+     * @return interned dependency
+     */
+    public static DeclaredDependency of(Coordinate coordinate, String version, Collection<String> scopeNames) {
+        EnumSet<Scope> scopes = EnumSet.noneOf(Scope.class);
+        List<String> others = null;
+        for (String name : scopeNames) {
+            Scope scope = Scope.of(name);
+            if (scope != null) {
+                scopes.add(scope);
+            } else {
+                if (others == null) {
+                    others = new ArrayList<String>();
+                }
+                if (!others.contains(name)) {
+                    others.add(name);
+                }
+            }
+        }
+        return POOL.intern(new DeclaredDependency(coordinate, version == null ? "" : version, scopes,
+                others == null ? NO_SCOPES : others.toArray(new String[others.size()])));
+    }
+
+    public Coordinate getCoordinate() {
+        return coordinate;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Maven scopes of the dependency
+     */
+    public Set<Scope> getScopes() {
+        return EnumSet.copyOf(scopes);
+    }
+
+    /**
+     * Get names of all scopes of the dependency, Maven scopes first.
+     */
+    public List<String> getScopeNames() {
+        List<String> names = new ArrayList<String>(scopes.size() + otherScopes.length);
+        for (Scope scope : scopes) {
+            names.add(scope.id());
+        }
+        names.addAll(Arrays.asList(otherScopes));
+        return names;
+    }
+
+    /**
+     * Check if the dependency is in the scope with the given name.
+     */
+    public boolean hasScope(Object name) {
+        Scope scope = Scope.of(name);
+        if (scope != null) {
+            return scopes.contains(scope);
+        }
+        for (String other : otherScopes) {
+            if (other.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get 64-bit hash of the dependency, the same in every run.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DeclaredDependency)) {
+            return false;
+        }
+        DeclaredDependency other = (DeclaredDependency) obj;
+        return fingerprint == other.fingerprint && coordinate.equals(other.coordinate)
+                && version.equals(other.version) && scopes.equals(other.scopes)
+                && Arrays.equals(otherScopes, other.otherScopes);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%s %s", coordinate, version, getScopeNames());
+    }
+}
@@ -0,0 +1,395 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.building.ModelBuildingException;
+
+/**
+ * Resolve transitive dependencies of a POM, offline, the way Maven does it.
+ *
+ * Dependencies are looked up in the {@link LocalRepository}, which may be
+ * a pre-seeded mirror, or fetch from file:// remotes only. Conflicts are
+ * mediated nearest-wins, the first declaration winning at equal depth;
+ * exclusions apply to the whole subtree below the dependency declaring them.
+ * Optional dependencies and test, provided and system dependencies of
+ * dependencies are left out. Scopes propagate as in Maven: a dependency gets
+ * the narrower of its scope and the scope of the dependency that brought it,
+ * and the widest scope over all the paths leading to it. Dependency
+ * management of the root POM overrides versions and scopes of transitive
+ * dependencies.
+ *
+ * The dependencies of each artifact, read from its effective POM, are kept
+ * for the whole run and shared by all resolutions. Selected versions depend
+ * on the whole graph, so the graphs themselves are not.
+ *
+ * The result is a compact graph: a list of nodes, the root first, and a list
+ * of [from, to] pairs of node indexes, one for each dependency edge between
+ * selected nodes.
+ */
+public class DependencyResolver {
+
+    private static final List<String> SCOPES = Arrays.asList("test", "provided", "runtime", "compile");
+
+    private static DependencyResolver shared;
+
+    private final PomModelBuilder builder;
+    /** Dependencies of artifacts, by groupId:artifactId:version. */
+    private final ConcurrentMap<String, Descriptor> descriptors = new ConcurrentHashMap<String, Descriptor>();
+
+    public DependencyResolver(PomModelBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Get resolver using the shared local repository, downloading from file:// remotes only.
+     *
+     * @return shared resolver
+     * @throws IOException when the local repository can't be set up
+     */
+    public static synchronized DependencyResolver shared() throws IOException {
+        if (shared == null) {
+            shared = new DependencyResolver(new PomModelBuilder(LocalRepository.shared().withFileRemotesOnly(),
+                    (int) ScanOptions.getenv("MERCATOR_JAVA_POM_CACHE_SIZE", PomModelBuilder.DEFAULT_CACHE_SIZE)));
+        }
+        return shared;
+    }
+
+    /**
+     * Check if dependency graphs should be added to the results of POMs.
+     *
+     * @return true if MERCATOR_JAVA_DEPENDENCY_GRAPH is true
+     */
+    public static boolean enabled() {
+        return Boolean.parseBoolean(System.getenv("MERCATOR_JAVA_DEPENDENCY_GRAPH"));
+    }
+
+    /**
+     * Add the dependency graph of the given POM to the data extracted from it, as "dependency_graph".
+     *
+     * The data may be shared with the effective POM cache, so the graph is
+     * added to a copy of it.
+     *
+     * @param entries, data extracted from the POM
+     * @param pomFile, POM to resolve
+     */
+    static void addGraph(Map<String, Map> entries, File pomFile) {
+        if (entries.get("pom.xml") == null) {
+            return;
+        }
+        try {
+            Map pomData = new HashMap(entries.get("pom.xml"));
+            pomData.put("dependency_graph", shared().resolve(pomFile));
+            entries.put("pom.xml", pomData);
+        } catch (IOException | ModelBuildingException ex) {
+            System.err.println(String.format("Unable to resolve dependencies of %s: %s", pomFile, ex.getMessage()));
+        }
+    }
+
+    /**
+     * Resolve dependencies of the given POM.
+     *
+     * @param pomFile, POM to resolve
+     * @return graph with "nodes", "edges" and "unresolved" members
+     * @throws ModelBuildingException when the effective model can't be built
+     */
+    public Map<String, Object> resolve(File pomFile) throws ModelBuildingException {
+        return resolve(builder.buildModel(pomFile));
+    }
+
+    Map<String, Object> resolve(Model model) {
+        Graph graph = new Graph(model);
+        Node root = graph.add(key(model.getGroupId(), model.getArtifactId(), model.getPackaging(), ""),
+                model.getVersion(), null, false, Collections.<Exclusion>emptyList(), 0);
+        ArrayDeque<Node> queue = new ArrayDeque<Node>();
+        for (Dependency dependency : model.getDependencies()) {
+            graph.visit(root, dependency, queue);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            Descriptor descriptor = descriptor(node);
+            if (descriptor.dependencies == null) {
+                graph.unresolved.add(node.coordinate + ":" + node.version);
+                continue;
+            }
+            for (Dependency dependency : descriptor.dependencies) {
+                graph.visit(node, dependency, queue);
+            }
+        }
+        graph.widenScopes();
+        return graph.toMap();
+    }
+
+    private Descriptor descriptor(Node node) {
+        String gav = node.coordinate.getGroupId() + ":" + node.coordinate.getArtifactId() + ":" + node.version;
+        Descriptor descriptor = descriptors.get(gav);
+        if (descriptor == null) {
+            List<Dependency> dependencies = null;
+            try {
+                Model model = builder.buildModel(node.coordinate.getGroupId(), node.coordinate.getArtifactId(),
+                        node.version);
+                if (model != null) {
+                    dependencies = model.getDependencies();
+                }
+            } catch (ModelBuildingException ex) {
+                if (Log.DEBUG) {
+                    Log.debug("Unable to build model of %s: %s", gav, ex.getMessage());
+                }
+            }
+            descriptor = new Descriptor(dependencies);
+            Descriptor previous = descriptors.putIfAbsent(gav, descriptor);
+            if (previous != null) {
+                descriptor = previous;
+            }
+        }
+        return descriptor;
+    }
+
+    private static Coordinate key(String groupId, String artifactId, String type, String classifier) {
+        return Coordinate.of(groupId, artifactId, type == null ? "jar" : type, classifier);
+    }
+
+    private static Coordinate key(Dependency dependency) {
+        return key(dependency.getGroupId(), dependency.getArtifactId(), dependency.getType(),
+                dependency.getClassifier());
+    }
+
+    /**
+     * Get scope of a dependency of a dependency in the given scope.
+     *
+     * @return propagated scope, null if the dependency is left out
+     */
+    static String propagate(String parentScope, String scope) {
+        if ("compile".equals(scope)) {
+            return parentScope;
+        }
+        if ("runtime".equals(scope)) {
+            return "compile".equals(parentScope) ? "runtime" : parentScope;
+        }
+        return null;
+    }
+
+    private static String scope(Dependency dependency) {
+        return dependency.getScope() == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
+    }
+
+    private static boolean excluded(List<Exclusion> exclusions, Dependency dependency) {
+        for (Exclusion exclusion : exclusions) {
+            if (matches(exclusion.getGroupId(), dependency.getGroupId())
+                    && matches(exclusion.getArtifactId(), dependency.getArtifactId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String pattern, String value) {
+        return "*".equals(pattern) || (pattern != null && pattern.equals(value));
+    }
+
+    /**
+     * Dependencies of one artifact.
+     */
+    private static class Descriptor {
+        /** Dependencies, null if the effective POM is not available. */
+        final List<Dependency> dependencies;
+
+        Descriptor(List<Dependency> dependencies) {
+            this.dependencies = dependencies;
+        }
+    }
+
+    private static class Node {
+        final int index;
+        final Coordinate coordinate;
+        final String version;
+        String scope;
+        final boolean optional;
+        /** Exclusions of all the dependencies on the path from the root. */
+        final List<Exclusion> exclusions;
+        final int depth;
+
+        Node(int index, Coordinate coordinate, String version, String scope, boolean optional,
+             List<Exclusion> exclusions, int depth) {
+            this.index = index;
+            this.coordinate = coordinate;
+            this.version = version;
+            this.scope = scope;
+            this.optional = optional;
+            this.exclusions = exclusions;
+            this.depth = depth;
+        }
+    }
+
+    private static class Edge {
+        final Node from;
+        final Node to;
+        /** Declared scope, propagated from the scope of the source node. */
+        final String scope;
+        /** Scope from dependency management, overriding the propagated one. */
+        final String managedScope;
+
+        Edge(Node from, Node to, String scope, String managedScope) {
+            this.from = from;
+            this.to = to;
+            this.scope = scope;
+            this.managedScope = managedScope;
+        }
+    }
+
+    /**
+     * Dependency graph being resolved.
+     */
+    private static class Graph {
+        final Map<Coordinate, Dependency> management = new HashMap<Coordinate, Dependency>();
+        final Map<Coordinate, Node> selected = new HashMap<Coordinate, Node>();
+        final List<Node> nodes = new ArrayList<Node>();
+        final List<Edge> edges = new ArrayList<Edge>();
+        final Set<String> unresolved = new HashSet<String>();
+
+        Graph(Model model) {
+            if (model.getDependencyManagement() != null) {
+                for (Dependency managed : model.getDependencyManagement().getDependencies()) {
+                    management.put(key(managed), managed);
+                }
+            }
+        }
+
+        Node add(Coordinate key, String version, String scope, boolean optional, List<Exclusion> exclusions,
+                 int depth) {
+            Node node = new Node(nodes.size(), key, version, scope, optional, exclusions, depth);
+            nodes.add(node);
+            selected.put(key, node);
+            return node;
+        }
+
+        /**
+         * Add a dependency of the given node, unless it is left out.
+         */
+        void visit(Node parent, Dependency dependency, ArrayDeque<Node> queue) {
+            boolean direct = parent.index == 0;
+            String declared = scope(dependency);
+            if (!direct && (dependency.isOptional() || excluded(parent.exclusions, dependency))) {
+                return;
+            }
+            String scope = direct ? declared : propagate(parent.scope, declared);
+            if (scope == null) {
+                return;
+            }
+            Coordinate key = key(dependency);
+            String version = dependency.getVersion();
+            String managedScope = null;
+            Dependency managed = direct ? null : management.get(key);
+            if (managed != null) {
+                if (managed.getVersion() != null) {
+                    version = managed.getVersion();
+                }
+                managedScope = managed.getScope();
+                if (managedScope != null) {
+                    scope = managedScope;
+                }
+            }
+
+            Node node = selected.get(key);
+            if (node == null) {
+                // nearest wins, nodes are visited breadth-first
+                List<Exclusion> exclusions = parent.exclusions;
+                if (!dependency.getExclusions().isEmpty()) {
+                    exclusions = new ArrayList<Exclusion>(parent.exclusions);
+                    exclusions.addAll(dependency.getExclusions());
+                }
+                node = add(key, version, scope, direct && dependency.isOptional(), exclusions, parent.depth + 1);
+                if (!"system".equals(scope)) {
+                    queue.add(node);
+                }
+            }
+            if (node != parent) {
+                edges.add(new Edge(parent, node, declared, managedScope));
+            }
+        }
+
+        /**
+         * Give each transitive dependency the widest scope over all paths leading to it.
+         */
+        void widenScopes() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (Edge edge : edges) {
+                    if (edge.from.index == 0 || edge.to.depth == 1) {
+                        // scopes of direct dependencies are kept as declared
+                        continue;
+                    }
+                    String scope = edge.managedScope != null ? edge.managedScope
+                            : propagate(edge.from.scope, edge.scope);
+                    if (SCOPES.indexOf(scope) > SCOPES.indexOf(edge.to.scope)) {
+                        edge.to.scope = scope;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> toMap() {
+            List<Map<String, Object>> nodeList = new ArrayList<Map<String, Object>>();
+            for (Node node : nodes) {
+                Map<String, Object> nodeMap = new LinkedHashMap<String, Object>();
+                nodeMap.put("id", node.coordinate.toString());
+                nodeMap.put("version", node.version);
+                if (node.scope != null) {
+                    nodeMap.put("scope", node.scope);
+                }
+                if (node.optional) {
+                    nodeMap.put("optional", true);
+                }
+                nodeList.add(nodeMap);
+            }
+            List<List<Integer>> edgeList = new ArrayList<List<Integer>>();
+            Set<List<Integer>> seen = new HashSet<List<Integer>>();
+            for (Edge edge : edges) {
+                List<Integer> pair = Arrays.asList(edge.from.index, edge.to.index);
+                if (seen.add(pair)) {
+                    edgeList.add(pair);
+                }
+            }
+            List<String> unresolvedList = new ArrayList<String>(unresolved);
+            Collections.sort(unresolvedList);
+
+            Map<String, Object> graph = new LinkedHashMap<String, Object>();
+            graph.put("nodes", nodeList);
+            graph.put("edges", edgeList);
+            graph.put("unresolved", unresolvedList);
+            return graph;
+        }
+    }
+}
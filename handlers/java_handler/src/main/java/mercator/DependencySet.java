@@ -0,0 +1,94 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependencies of one POM or Gradle file.
+ *
+ * Seen as a map, it is the dependencies by scope, each a map of
+ * groupId:artifactId:type:classifier to version, as in the results. Only
+ * references to interned {@link DeclaredDependency} instances are kept, the
+ * maps are built when read, which is once, when the result is written.
+ * The map is read-only, dependencies are added with {@link #add}.
+ */
+public class DependencySet extends AbstractMap<String, Map> {
+
+    private final List<DeclaredDependency> dependencies = new ArrayList<DeclaredDependency>();
+
+    public void add(DeclaredDependency dependency) {
+        dependencies.add(dependency);
+    }
+
+    /**
+     * @return dependencies in the order they were added
+     */
+    public List<DeclaredDependency> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Get dependencies in the given scope.
+     *
+     * @return map of coordinates to version, later declarations winning; null if there are none
+     */
+    @Override
+    public Map get(Object scope) {
+        Map<String, String> inScope = null;
+        for (DeclaredDependency dependency : dependencies) {
+            if (dependency.hasScope(scope)) {
+                if (inScope == null) {
+                    inScope = new LinkedHashMap<String, String>();
+                }
+                inScope.put(dependency.getCoordinate().toString(), dependency.getVersion());
+            }
+        }
+        return inScope;
+    }
+
+    @Override
+    public boolean containsKey(Object scope) {
+        for (DeclaredDependency dependency : dependencies) {
+            if (dependency.hasScope(scope)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<Entry<String, Map>> entrySet() {
+        Map<String, Map> byScope = new LinkedHashMap<String, Map>();
+        for (DeclaredDependency dependency : dependencies) {
+            for (String scope : dependency.getScopeNames()) {
+                Map<String, String> inScope = byScope.get(scope);
+                if (inScope == null) {
+                    inScope = new LinkedHashMap<String, String>();
+                    byScope.put(scope, inScope);
+                }
+                inScope.put(dependency.getCoordinate().toString(), dependency.getVersion());
+            }
+        }
+        return Collections.unmodifiableMap(byScope).entrySet();
+    }
+}
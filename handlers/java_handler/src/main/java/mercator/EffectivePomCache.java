@@ -0,0 +1,269 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Cache of data extracted from effective POMs.
+ *
+ * Results are keyed by the content of the POM and of all its parents, so the
+ * same POM found in many JARs is expanded only once per run, while a change
+ * anywhere in the parent chain still leads to a new expansion. Concurrent
+ * requests for the same POM wait for the first one to finish.
+ */
+public class EffectivePomCache {
+
+    /** Give up on walking parents after this many levels. */
+    private static final int MAX_PARENTS = 32;
+
+    private static final String MISSING = "missing";
+
+    private static EffectivePomCache shared;
+
+    private final LocalRepository repository;
+    private final Map<String, FutureTask<Map<String, Map>>> results;
+    /**
+     * Parent POM digests by coordinates, looked up only once so that parents
+     * downloaded by an expansion don't change the keys of later POMs.
+     */
+    private final ConcurrentMap<String, String> parentDigests = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param repository, repository to look up parent POMs in
+     * @param maxEntries, maximum number of cached results
+     */
+    public EffectivePomCache(LocalRepository repository, final int maxEntries) {
+        this.repository = repository;
+        this.results = new LinkedHashMap<String, FutureTask<Map<String, Map>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Map<String, Map>>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get cache for the shared local repository.
+     *
+     * The number of cached results is limited by MERCATOR_JAVA_POM_CACHE_SIZE.
+     *
+     * @return shared cache
+     * @throws IOException when the local repository can't be set up
+     */
+    public static synchronized EffectivePomCache shared() throws IOException {
+        if (shared == null) {
+            int maxEntries = (int) ScanOptions.getenv("MERCATOR_JAVA_POM_CACHE_SIZE", 10000);
+            shared = new EffectivePomCache(LocalRepository.shared(), maxEntries);
+        }
+        return shared;
+    }
+
+    /**
+     * Get data extracted from the effective version of the given POM.
+     *
+     * @param pomFile, POM file
+     * @param parsedPom, the POM file parsed
+     * @param expansion, computes the result when it's not cached
+     * @return result of the expansion
+     * @throws IOException when the POM can't be read
+     */
+    public Map<String, Map> get(File pomFile, Document parsedPom, Callable<Map<String, Map>> expansion) throws IOException {
+        return get(Files.readAllBytes(pomFile.toPath()), pomFile, parsedPom, expansion);
+    }
+
+    /**
+     * Get data extracted from the effective version of the given POM.
+     *
+     * @param pom, POM content
+     * @param pomFile, POM file the content was read from, null for POMs embedded in archives
+     * @param parsedPom, the POM parsed
+     * @param expansion, computes the result when it's not cached
+     * @return result of the expansion
+     * @throws IOException when a parent POM can't be read
+     */
+    public Map<String, Map> get(byte[] pom, File pomFile, Document parsedPom, Callable<Map<String, Map>> expansion)
+            throws IOException {
+        String key = key(pom, pomFile, parsedPom);
+
+        FutureTask<Map<String, Map>> task;
+        boolean cached;
+        synchronized (results) {
+            task = results.get(key);
+            cached = task != null;
+            if (!cached) {
+                task = new FutureTask<Map<String, Map>>(expansion);
+                results.put(key, task);
+            }
+        }
+
+        if (cached) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            task.run();
+        }
+
+        try {
+            return new HashMap<String, Map>(task.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            synchronized (results) {
+                results.remove(key);
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Compute cache key of the given POM.
+     *
+     * The key consists of the SHA-256 of the POM and of every parent POM found,
+     * either at the parent's relative path, or in the local repository. POMs
+     * embedded in archives have no relative path to look at.
+     */
+    String key(File pomFile, Document parsedPom) throws IOException {
+        return key(Files.readAllBytes(pomFile.toPath()), pomFile, parsedPom);
+    }
+
+    private String key(byte[] pom, File pomFile, Document parsedPom) throws IOException {
+        StringBuilder key = new StringBuilder(sha256(pom));
+        File current = pomFile;
+        Document currentPom = parsedPom;
+        for (int i = 0; i < MAX_PARENTS && currentPom != null; i++) {
+            Element parent = MavenUtils.childElement(currentPom.getDocumentElement(), "parent");
+            if (parent == null) {
+                break;
+            }
+            String groupId = childText(parent, "groupId");
+            String artifactId = childText(parent, "artifactId");
+            String version = childText(parent, "version");
+            String coordinates = String.format("%s:%s:%s", groupId, artifactId, version);
+
+            File parentPom = current == null ? null : findRelativeParent(current, parent, groupId, artifactId);
+            String digest;
+            if (parentPom != null) {
+                digest = sha256(parentPom);
+            } else if (groupId == null || artifactId == null || version == null) {
+                digest = MISSING;
+            } else {
+                parentPom = repository.findPom(groupId, artifactId, version);
+                String found = parentPom == null ? MISSING : sha256(parentPom);
+                String previous = parentDigests.putIfAbsent(coordinates, found);
+                digest = previous == null ? found : previous;
+            }
+
+            key.append('|').append(coordinates).append('=').append(digest);
+            if (parentPom == null || digest.equals(MISSING)) {
+                break;
+            }
+            current = parentPom;
+            currentPom = MavenUtils.readFileAsDocument(parentPom);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Find parent POM at the relative path given in the child POM (../pom.xml by default).
+     *
+     * @return parent POM, null if there's no POM with matching coordinates
+     */
+    private static File findRelativeParent(File child, Element parent, String groupId, String artifactId) {
+        String relativePath = childText(parent, "relativePath");
+        if (relativePath == null) {
+            relativePath = "../pom.xml";
+        }
+        if (relativePath.isEmpty() || child.getParentFile() == null || groupId == null || artifactId == null) {
+            return null;
+        }
+        File candidate = new File(child.getParentFile(), relativePath);
+        if (candidate.isDirectory()) {
+            candidate = new File(candidate, "pom.xml");
+        }
+        if (!candidate.isFile()) {
+            return null;
+        }
+        Document candidatePom = MavenUtils.readFileAsDocument(candidate);
+        if (candidatePom == null) {
+            return null;
+        }
+        Element project = candidatePom.getDocumentElement();
+        String candidateGroupId = childText(project, "groupId");
+        Element candidateParent = MavenUtils.childElement(project, "parent");
+        if (candidateGroupId == null && candidateParent != null) {
+            candidateGroupId = childText(candidateParent, "groupId");
+        }
+        if (groupId.equals(candidateGroupId) && artifactId.equals(childText(project, "artifactId"))) {
+            return candidate;
+        }
+        return null;
+    }
+
+    static String childText(Element parent, String name) {
+        Element child = MavenUtils.childElement(parent, name);
+        return child == null ? null : child.getTextContent().trim();
+    }
+
+    private static String sha256(File file) throws IOException {
+        return sha256(Files.readAllBytes(file.toPath()));
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d", getHits(), getMisses());
+    }
+}
@@ -0,0 +1,170 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+/**
+ * Classify archive entries by name.
+ *
+ * Every entry of every scanned archive goes through here, so classification
+ * is a handful of comparisons on the name and allocates nothing.
+ */
+public final class EntryClassifier {
+
+    public enum EntryType {
+        /** META-INF/MANIFEST.MF */
+        MANIFEST,
+        /** META-INF/maven/groupId/artifactId/pom.properties */
+        POM_PROPERTIES,
+        /** META-INF/maven/groupId/artifactId/pom.xml */
+        POM_XML,
+        /** JAR, WAR, EAR, ZIP, SAR or RAR */
+        NESTED_ARCHIVE,
+        /** module-info.class, also in META-INF/versions/N/ */
+        MODULE_INFO,
+        /** OSGI-INF/** */
+        OSGI,
+        /** META-INF/services/service.Name */
+        SERVICE,
+        /** any other class file */
+        CLASS,
+        OTHER
+    }
+
+    private static final String META_INF = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String MAVEN = "META-INF/maven/";
+    private static final String SERVICES = "META-INF/services/";
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final String OSGI_INF = "OSGI-INF/";
+    private static final String CLASS = ".class";
+    private static final String MODULE_INFO = "module-info.class";
+    private static final String POM_XML = "pom.xml";
+    private static final String POM_PROPERTIES = "pom.properties";
+    private static final String[] ARCHIVE_EXTENSIONS = {".jar", ".war", ".ear", ".zip", ".sar", ".rar"};
+
+    private EntryClassifier() {
+    }
+
+    /**
+     * Classify the given entry.
+     *
+     * @param name, entry name
+     * @return entry type, never null
+     */
+    public static EntryType classify(String name) {
+        int lastSlash = name.lastIndexOf('/');
+
+        if (name.endsWith(CLASS)) {
+            return isModuleInfo(name, lastSlash) ? EntryType.MODULE_INFO : EntryType.CLASS;
+        }
+
+        if (name.startsWith(META_INF)) {
+            if (name.length() == MANIFEST.length() && name.regionMatches(true, 0, MANIFEST, 0, MANIFEST.length())) {
+                return EntryType.MANIFEST;
+            }
+            if (name.startsWith(MAVEN)) {
+                EntryType type = classifyMavenMetadata(name, lastSlash);
+                if (type != null) {
+                    return type;
+                }
+            } else if (name.startsWith(SERVICES) && lastSlash == SERVICES.length() - 1
+                    && name.length() > SERVICES.length()) {
+                return EntryType.SERVICE;
+            }
+        } else if (name.startsWith(OSGI_INF) && name.length() > OSGI_INF.length()) {
+            return EntryType.OSGI;
+        }
+
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+                return EntryType.NESTED_ARCHIVE;
+            }
+        }
+        return EntryType.OTHER;
+    }
+
+    /**
+     * Get release of a multi-release JAR entry.
+     *
+     * @param name, entry name
+     * @return N for entries in META-INF/versions/N/, -1 for any other entry
+     */
+    public static int release(String name) {
+        if (!name.startsWith(VERSIONS)) {
+            return -1;
+        }
+        int release = 0;
+        int i = VERSIONS.length();
+        for (; i < name.length() && name.charAt(i) != '/'; i++) {
+            char ch = name.charAt(i);
+            if (ch < '0' || ch > '9' || release > Integer.MAX_VALUE / 10 - 1) {
+                return -1;
+            }
+            release = release * 10 + (ch - '0');
+        }
+        if (i == VERSIONS.length() || i == name.length()) {
+            return -1;
+        }
+        return release;
+    }
+
+    /**
+     * Recognize META-INF/maven/groupId/artifactId/pom.(xml|properties).
+     *
+     * @return type, null if the name is not Maven metadata
+     */
+    private static EntryType classifyMavenMetadata(String name, int lastSlash) {
+        int groupEnd = name.indexOf('/', MAVEN.length());
+        if (groupEnd <= MAVEN.length()) {
+            return null;
+        }
+        int artifactEnd = name.indexOf('/', groupEnd + 1);
+        if (artifactEnd <= groupEnd + 1 || artifactEnd != lastSlash) {
+            return null;
+        }
+        if (fileNameEquals(name, lastSlash, POM_XML)) {
+            return EntryType.POM_XML;
+        }
+        if (fileNameEquals(name, lastSlash, POM_PROPERTIES)) {
+            return EntryType.POM_PROPERTIES;
+        }
+        return null;
+    }
+
+    private static boolean isModuleInfo(String name, int lastSlash) {
+        if (!fileNameEquals(name, lastSlash, MODULE_INFO)) {
+            return false;
+        }
+        if (lastSlash < 0) {
+            return true;
+        }
+        // multi-release JAR, META-INF/versions/N/module-info.class
+        if (!name.startsWith(VERSIONS) || lastSlash == VERSIONS.length()) {
+            return false;
+        }
+        for (int i = VERSIONS.length(); i < lastSlash; i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean fileNameEquals(String name, int lastSlash, String fileName) {
+        return name.length() - lastSlash - 1 == fileName.length()
+                && name.startsWith(fileName, lastSlash + 1);
+    }
+}
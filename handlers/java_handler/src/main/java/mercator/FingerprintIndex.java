@@ -0,0 +1,421 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import mercator.EntryClassifier.EntryType;
+
+/**
+ * Index of the class fingerprints of known artifacts, to identify archives
+ * without Maven metadata, such as shaded, repackaged or vendored JARs.
+ *
+ * The index is built offline from a local Maven repository, reading the
+ * central directories of its JARs in parallel, see {@link #main(String[])}.
+ * It is a single memory-mapped file holding two open-addressing hash tables,
+ * class keys and package signatures (see {@link ClassFingerprints}) to the
+ * artifacts having them, followed by the artifacts: coordinates and number
+ * of classes and packages. Looking up an archive is one probe sequence per
+ * class, nothing is loaded on the heap.
+ *
+ * An artifact is reported when the archive contains at least half of its
+ * classes, or half of its packages, by name, for relocated copies.
+ */
+public class FingerprintIndex {
+
+    private static final int MAGIC = 0x4d465049;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 32;
+    /** long key, int artifact index + 1, 0 for empty slots */
+    private static final int SLOT_SIZE = 12;
+
+    /** Keys found in more artifacts than this are too common to tell anything. */
+    static final int MAX_ARTIFACTS_PER_KEY = 256;
+    static final int MAX_RESULTS = 10;
+
+    private static final Map<File, FingerprintIndex> OPENED = new HashMap<File, FingerprintIndex>();
+
+    private final MappedByteBuffer buffer;
+    private final int artifactCount;
+    private final int classSlots;
+    private final int packageSlots;
+    private final int classTable;
+    private final int packageTable;
+    private final int artifactOffsets;
+
+    /**
+     * Open the given index.
+     *
+     * @throws IOException when the file can't be read or is not an index
+     */
+    public FingerprintIndex(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a fingerprint index: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException("Not a fingerprint index: " + file);
+        }
+        artifactCount = buffer.getInt(8);
+        classSlots = buffer.getInt(12);
+        packageSlots = buffer.getInt(16);
+        classTable = HEADER_SIZE;
+        packageTable = classTable + classSlots * SLOT_SIZE;
+        artifactOffsets = packageTable + packageSlots * SLOT_SIZE;
+        if ((long) artifactOffsets + 4L * artifactCount > buffer.capacity()) {
+            throw new IOException("Truncated fingerprint index: " + file);
+        }
+    }
+
+    /**
+     * Get the index opened from the given file, for the whole run.
+     *
+     * @param file, index file, may be null
+     * @return index, null if no file is given or it can't be opened
+     */
+    public static synchronized FingerprintIndex shared(File file) {
+        if (file == null) {
+            return null;
+        }
+        if (!OPENED.containsKey(file)) {
+            FingerprintIndex index = null;
+            try {
+                index = new FingerprintIndex(file);
+            } catch (IOException ex) {
+                System.err.println(String.format("Class fingerprinting disabled: %s", ex.getMessage()));
+            }
+            OPENED.put(file, index);
+        }
+        return OPENED.get(file);
+    }
+
+    /**
+     * Build an index from a local Maven repository.
+     *
+     * Usage: FingerprintIndex REPOSITORY INDEX [THREADS]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FingerprintIndex REPOSITORY INDEX [THREADS]");
+            System.exit(1);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        int artifacts = build(new File(args[0]), new File(args[1]), threads);
+        System.err.println(String.format("Indexed %d artifacts in %d ms", artifacts,
+                System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Find the artifacts the given archive contains.
+     *
+     * @return artifacts, best matches first: "artifact" coordinates, "matched_classes",
+     *         "artifact_classes", "matched_packages" and "artifact_packages"
+     */
+    public List<Map<String, Object>> identify(ClassFingerprints fingerprints) {
+        Map<Integer, int[]> matches = new HashMap<Integer, int[]>();
+        count(classTable, classSlots, fingerprints.classKeys(), matches, 0);
+        count(packageTable, packageSlots, fingerprints.packageSignatures(), matches, 1);
+
+        List<Map<String, Object>> identified = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<Integer, int[]> match : matches.entrySet()) {
+            int offset = buffer.getInt(artifactOffsets + 4 * match.getKey());
+            int classes = buffer.getInt(offset);
+            int packages = buffer.getInt(offset + 4);
+            int[] matched = match.getValue();
+            if (2 * matched[0] < classes && (packages == 0 || 2 * matched[1] < packages)) {
+                continue;
+            }
+            byte[] id = new byte[buffer.getShort(offset + 8) & 0xffff];
+            for (int i = 0; i < id.length; i++) {
+                id[i] = buffer.get(offset + 10 + i);
+            }
+            Map<String, Object> artifact = new LinkedHashMap<String, Object>();
+            artifact.put("artifact", new String(id, StandardCharsets.UTF_8));
+            artifact.put("matched_classes", matched[0]);
+            artifact.put("artifact_classes", classes);
+            artifact.put("matched_packages", matched[1]);
+            artifact.put("artifact_packages", packages);
+            identified.add(artifact);
+        }
+        Collections.sort(identified, new Comparator<Map<String, Object>>() {
+            @Override
+            public int compare(Map<String, Object> a, Map<String, Object> b) {
+                int result = (Integer) b.get("matched_classes") - (Integer) a.get("matched_classes");
+                if (result == 0) {
+                    result = (Integer) b.get("matched_packages") - (Integer) a.get("matched_packages");
+                }
+                return result != 0 ? result : ((String) a.get("artifact")).compareTo((String) b.get("artifact"));
+            }
+        });
+        return identified.size() > MAX_RESULTS ? identified.subList(0, MAX_RESULTS) : identified;
+    }
+
+    /**
+     * Count the keys found in the given table, by artifact.
+     *
+     * @param which, index of the counter to increment
+     */
+    private void count(int table, int slots, long[] keys, Map<Integer, int[]> matches, int which) {
+        if (slots == 0) {
+            return;
+        }
+        int[] found = new int[MAX_ARTIFACTS_PER_KEY];
+        for (long key : keys) {
+            int count = 0;
+            for (int slot = slot(key, slots); ; slot = (slot + 1) & (slots - 1)) {
+                int position = table + slot * SLOT_SIZE;
+                int artifact = buffer.getInt(position + 8);
+                if (artifact == 0) {
+                    break;
+                }
+                if (buffer.getLong(position) == key) {
+                    if (count == found.length) {
+                        count = -1;
+                        break;
+                    }
+                    found[count++] = artifact - 1;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int[] matched = matches.get(found[i]);
+                if (matched == null) {
+                    matched = new int[2];
+                    matches.put(found[i], matched);
+                }
+                matched[which]++;
+            }
+        }
+    }
+
+    private static int slot(long key, int slots) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> 32) & (slots - 1);
+    }
+
+    /**
+     * Get size of a table holding the given number of entries at most half full.
+     */
+    private static long slots(long entries) {
+        return entries == 0 ? 0 : Long.highestOneBit(2 * entries - 1) << 1;
+    }
+
+    /**
+     * Build an index of all the JARs of a local Maven repository.
+     *
+     * Only main artifacts are indexed, JARs with a classifier are not.
+     *
+     * @param repository, local repository directory
+     * @param index, index file to write, replaced atomically
+     * @param threads, number of JARs read in parallel
+     * @return number of artifacts indexed
+     * @throws IOException when the repository can't be walked or the index can't be written
+     */
+    public static int build(File repository, File index, int threads) throws IOException {
+        final Map<String, File> jars = findArtifacts(repository.toPath());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<String> ids = new ArrayList<String>();
+        List<ClassFingerprints> fingerprints = new ArrayList<ClassFingerprints>();
+        try {
+            Map<String, Future<ClassFingerprints>> futures = new LinkedHashMap<String, Future<ClassFingerprints>>();
+            for (final Map.Entry<String, File> jar : jars.entrySet()) {
+                futures.put(jar.getKey(), executor.submit(new Callable<ClassFingerprints>() {
+                    @Override
+                    public ClassFingerprints call() throws IOException {
+                        return read(jar.getValue());
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<ClassFingerprints>> future : futures.entrySet()) {
+                try {
+                    ClassFingerprints read = future.getValue().get();
+                    if (!read.isEmpty()) {
+                        ids.add(future.getKey());
+                        fingerprints.add(read);
+                    }
+                } catch (ExecutionException ex) {
+                    System.err.println(String.format("Skipping %s: %s", jars.get(future.getKey()), ex.getCause()));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading artifacts", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        write(ids, fingerprints, index);
+        return ids.size();
+    }
+
+    /**
+     * Find main JARs in a local repository.
+     *
+     * @return JARs by groupId:artifactId:version, sorted
+     */
+    static Map<String, File> findArtifacts(final Path repository) throws IOException {
+        final List<String> ids = new ArrayList<String>();
+        final Map<String, File> jars = new HashMap<String, File>();
+        Files.walkFileTree(repository, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path relative = repository.relativize(file);
+                int count = relative.getNameCount();
+                if (!attrs.isRegularFile() || count < 4 || !file.getFileName().toString().endsWith(".jar")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String version = relative.getName(count - 2).toString();
+                String artifactId = relative.getName(count - 3).toString();
+                if (file.getFileName().toString().equals(artifactId + "-" + version + ".jar")) {
+                    StringBuilder groupId = new StringBuilder();
+                    for (Path part : relative.subpath(0, count - 3)) {
+                        groupId.append(groupId.length() == 0 ? "" : ".").append(part);
+                    }
+                    String id = groupId + ":" + artifactId + ":" + version;
+                    ids.add(id);
+                    jars.put(id, file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(ids);
+        Map<String, File> sorted = new LinkedHashMap<String, File>();
+        for (String id : ids) {
+            sorted.put(id, jars.get(id));
+        }
+        return sorted;
+    }
+
+    /**
+     * Read fingerprints of a JAR from its central directory, without inflating anything.
+     */
+    static ClassFingerprints read(File jar) throws IOException {
+        ClassFingerprints fingerprints = new ClassFingerprints();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && EntryClassifier.classify(entry.getName()) == EntryType.CLASS) {
+                    fingerprints.add(entry.getName(), entry.getCrc(), entry.getSize());
+                }
+            }
+        }
+        return fingerprints;
+    }
+
+    static void write(List<String> ids, List<ClassFingerprints> fingerprints, File index) throws IOException {
+        int artifacts = ids.size();
+        long[][] classKeys = new long[artifacts][];
+        long[][] packageSignatures = new long[artifacts][];
+        byte[][] idBytes = new byte[artifacts][];
+        long classEntries = 0;
+        long packageEntries = 0;
+        long recordsSize = 0;
+        for (int i = 0; i < artifacts; i++) {
+            classKeys[i] = fingerprints.get(i).classKeys();
+            packageSignatures[i] = fingerprints.get(i).packageSignatures();
+            idBytes[i] = ids.get(i).getBytes(StandardCharsets.UTF_8);
+            classEntries += classKeys[i].length;
+            packageEntries += packageSignatures[i].length;
+            recordsSize += 10 + idBytes[i].length;
+        }
+        long classSlots = slots(classEntries);
+        long packageSlots = slots(packageEntries);
+        long size = HEADER_SIZE + (classSlots + packageSlots) * SLOT_SIZE + 4L * artifacts + recordsSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Index of %d classes would exceed 2 GiB, index fewer artifacts",
+                    classEntries));
+        }
+
+        File directory = index.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        Path tmp = Files.createTempFile(directory.toPath(), index.getName(), ".part");
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                raf.setLength(size);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, MAGIC).putInt(4, FORMAT).putInt(8, artifacts)
+                        .putInt(12, (int) classSlots).putInt(16, (int) packageSlots);
+                int classTable = HEADER_SIZE;
+                int packageTable = classTable + (int) classSlots * SLOT_SIZE;
+                int artifactOffsets = packageTable + (int) packageSlots * SLOT_SIZE;
+                int record = artifactOffsets + 4 * artifacts;
+                for (int i = 0; i < artifacts; i++) {
+                    insert(buffer, classTable, (int) classSlots, classKeys[i], i);
+                    insert(buffer, packageTable, (int) packageSlots, packageSignatures[i], i);
+                    buffer.putInt(artifactOffsets + 4 * i, record);
+                    buffer.putInt(record, classKeys[i].length).putInt(record + 4, packageSignatures[i].length)
+                            .putShort(record + 8, (short) idBytes[i].length);
+                    for (int j = 0; j < idBytes[i].length; j++) {
+                        buffer.put(record + 10 + j, idBytes[i][j]);
+                    }
+                    record += 10 + idBytes[i].length;
+                }
+                buffer.force();
+            }
+            try {
+                Files.move(tmp, index.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void insert(MappedByteBuffer buffer, int table, int slots, long[] keys, int artifact) {
+        for (long key : keys) {
+            int slot = slot(key, slots);
+            while (buffer.getInt(table + slot * SLOT_SIZE + 8) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            buffer.putLong(table + slot * SLOT_SIZE, key).putInt(table + slot * SLOT_SIZE + 8, artifact + 1);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Extract dependencies from Gradle files: build.gradle, build.gradle.kts,
+ * gradle.lockfile and Gradle Module Metadata (.module).
+ *
+ * Dependencies are returned by scope, like {@link MavenUtils#getPomXmlDependencies}.
+ * Configurations with a Maven counterpart are mapped to its scope (implementation
+ * to compile, compileOnly to provided, ...), any other keeps its own name.
+ *
+ * Build scripts are not evaluated: only dependencies declared with literal
+ * coordinates in dependencies blocks are found, those of the buildscript
+ * block excepted. Versions are reported as written, variables included.
+ */
+public final class GradleParser {
+
+    static final String BUILD_GRADLE = "build.gradle";
+    static final String BUILD_GRADLE_KTS = "build.gradle.kts";
+    static final String LOCKFILE = "gradle.lockfile";
+    static final String MODULE_EXTENSION = ".module";
+
+    /** Bytes of a .module file read to recognize Gradle module metadata. */
+    private static final int METADATA_HEAD = 4096;
+
+    private static final Map<String, String> SCOPES = new HashMap<String, String>();
+
+    static {
+        for (String configuration : new String[]{"api", "implementation", "compile", "compileOnlyApi",
+                "compileClasspath"}) {
+            SCOPES.put(configuration, "compile");
+        }
+        for (String configuration : new String[]{"compileOnly", "annotationProcessor", "kapt", "providedCompile"}) {
+            SCOPES.put(configuration, "provided");
+        }
+        for (String configuration : new String[]{"runtimeOnly", "runtime", "runtimeClasspath", "providedRuntime"}) {
+            SCOPES.put(configuration, "runtime");
+        }
+        for (String configuration : new String[]{"testImplementation", "testCompile", "testCompileOnly",
+                "testRuntimeOnly", "testRuntime", "testCompileClasspath", "testRuntimeClasspath",
+                "testAnnotationProcessor", "androidTestImplementation", "testFixturesImplementation"}) {
+            SCOPES.put(configuration, "test");
+        }
+    }
+
+    /**
+     * Compiled on first parse rather than with the class: {@link #isGradleFile(String)}
+     * is called for every file the handler is given.
+     */
+    private static final class Patterns {
+        static final Pattern STRING = Pattern.compile("\"([^\"]*)\"|'([^']*)'");
+        static final Pattern NAMED_ARGUMENT = Pattern.compile(
+                "\\b(group|name|version|classifier|ext)\\s*[:=]\\s*(?:\"([^\"]*)\"|'([^']*)')");
+        static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    }
+
+    private GradleParser() {
+    }
+
+    /**
+     * Check if the handler knows how to read the given file.
+     *
+     * @param name, file name
+     */
+    public static boolean isGradleFile(String name) {
+        return name.equals(BUILD_GRADLE) || name.equals(BUILD_GRADLE_KTS) || name.equals(LOCKFILE)
+                || (name.endsWith(MODULE_EXTENSION) && name.length() > MODULE_EXTENSION.length());
+    }
+
+    /**
+     * Check if the handler knows how to read the given file.
+     *
+     * Other ecosystems use the .module extension too (Drupal, for one), such
+     * files are claimed only when they look like Gradle module metadata.
+     *
+     * @param file, file to check
+     */
+    public static boolean isGradleFile(File file) {
+        String name = file.getName();
+        if (!isGradleFile(name)) {
+            return false;
+        }
+        return !name.endsWith(MODULE_EXTENSION) || isModuleMetadata(file);
+    }
+
+    /**
+     * Check if the file starts like Gradle module metadata: a JSON object with
+     * "formatVersion" and "component" among its first keys.
+     */
+    static boolean isModuleMetadata(File file) {
+        byte[] head = new byte[METADATA_HEAD];
+        int length = 0;
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while (length < head.length && (read = is.read(head, length, head.length - length)) != -1) {
+                length += read;
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        String start = new String(head, 0, length, StandardCharsets.UTF_8).trim();
+        return start.startsWith("{") && start.contains("\"formatVersion\"") && start.contains("\"component\"");
+    }
+
+    /**
+     * Extract data from the given Gradle file.
+     *
+     * @param file, build script, lockfile or module metadata
+     * @return extracted data keyed by the kind of the file, like "pom.xml" for POMs
+     * @throws IOException when the file can't be read or parsed
+     */
+    public static Map<String, Map> getGradleEntries(File file) throws IOException {
+        String name = file.getName();
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Map<String, Object> data = new HashMap<String, Object>();
+        String key;
+        if (name.equals(LOCKFILE)) {
+            key = LOCKFILE;
+            data.put("dependencies", parseLockfile(content));
+        } else if (name.endsWith(MODULE_EXTENSION)) {
+            if (!isModuleMetadata(file)) {
+                throw new IOException("Not Gradle module metadata: " + file);
+            }
+            key = "gradle.module";
+            data = parseModuleMetadata(new StringReader(content));
+        } else {
+            key = name;
+            data.put("dependencies", parseBuildScript(content));
+        }
+        Map<String, Map> result = new HashMap<String, Map>();
+        result.put(key, data);
+        return result;
+    }
+
+    static String scope(String configuration) {
+        String scope = SCOPES.get(configuration);
+        return scope == null ? configuration : scope;
+    }
+
+    /**
+     * Extract dependencies declared in a Groovy or Kotlin build script.
+     */
+    static Map<String, Map> parseBuildScript(String script) {
+        DependencySet dependencies = new DependencySet();
+        for (String block : dependencyBlocks(stripComments(script))) {
+            for (String statement : statements(block)) {
+                addDeclaration(dependencies, statement);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Parse one declaration like {@code implementation 'g:a:v'}, {@code api("g:a:v:classifier@ext")}
+     * or {@code compile group: 'g', name: 'a', version: 'v'}.
+     */
+    private static void addDeclaration(DependencySet dependencies, String statement) {
+        Matcher identifier = Patterns.IDENTIFIER.matcher(statement);
+        if (!identifier.lookingAt()) {
+            return;
+        }
+        String configuration = identifier.group();
+        String arguments = statement.substring(identifier.end()).trim();
+        // a closure configuring the dependency (excludes and such) is not of interest
+        int closure = arguments.indexOf('{');
+        if (closure >= 0) {
+            arguments = arguments.substring(0, closure);
+        }
+        if (arguments.isEmpty() || arguments.startsWith("=") || arguments.startsWith(".")
+                || arguments.contains("project(") || arguments.contains("files(") || arguments.contains("fileTree(")) {
+            // assignment, method call on an object, or not an external module
+            return;
+        }
+        Set<String> scopes = Collections.singleton(scope(configuration));
+
+        Map<String, String> named = new HashMap<String, String>();
+        Matcher m = Patterns.NAMED_ARGUMENT.matcher(arguments);
+        while (m.find()) {
+            named.put(m.group(1), m.group(2) != null ? m.group(2) : m.group(3));
+        }
+        if (named.containsKey("name")) {
+            MavenUtils.addDependency(dependencies, named.get("group"), named.get("name"),
+                    value(named.get("version")), value(named.get("ext")), value(named.get("classifier")), scopes);
+            return;
+        }
+
+        m = Patterns.STRING.matcher(arguments);
+        while (m.find()) {
+            addNotation(dependencies, m.group(1) != null ? m.group(1) : m.group(2), scopes);
+        }
+    }
+
+    /**
+     * Add dependency given in the "group:name:version:classifier@extension" notation.
+     */
+    private static void addNotation(DependencySet dependencies, String notation, Set<String> scopes) {
+        String extension = "";
+        int at = notation.lastIndexOf('@');
+        if (at >= 0) {
+            extension = notation.substring(at + 1);
+            notation = notation.substring(0, at);
+        }
+        String[] parts = notation.split(":", -1);
+        if (parts.length < 2 || parts.length > 4 || parts[0].isEmpty() || parts[1].isEmpty()) {
+            return;
+        }
+        MavenUtils.addDependency(dependencies, parts[0], parts[1], parts.length > 2 ? parts[2] : "", extension,
+                parts.length > 3 ? parts[3] : "", scopes);
+    }
+
+    private static String value(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Replace comments by spaces, leaving string literals alone.
+     */
+    static String stripComments(String script) {
+        StringBuilder sb = new StringBuilder(script.length());
+        int i = 0;
+        while (i < script.length()) {
+            char ch = script.charAt(i);
+            if (ch == '"' || ch == '\'') {
+                int end = stringEnd(script, i);
+                sb.append(script, i, end);
+                i = end;
+            } else if (script.startsWith("//", i)) {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? script.length() : end;
+            } else if (script.startsWith("/*", i)) {
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? script.length() : end + 2;
+                sb.append(' ');
+            } else {
+                sb.append(ch);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find end of the string literal starting at the given index.
+     *
+     * @return index after the closing quote, or the end of the line for unterminated strings
+     */
+    private static int stringEnd(String script, int start) {
+        char quote = script.charAt(start);
+        for (int i = start + 1; i < script.length(); i++) {
+            char ch = script.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == quote) {
+                return i + 1;
+            } else if (ch == '\n' && !script.startsWith("\"\"\"", start) && !script.startsWith("'''", start)) {
+                return i;
+            }
+        }
+        return script.length();
+    }
+
+    /**
+     * Find content of all dependencies blocks, except those within buildscript blocks.
+     */
+    static List<String> dependencyBlocks(String script) {
+        List<String> blocks = new ArrayList<String>();
+        findBlocks(script, 0, script.length(), blocks);
+        return blocks;
+    }
+
+    private static void findBlocks(String script, int from, int to, List<String> blocks) {
+        Matcher m = Patterns.IDENTIFIER.matcher(script);
+        m.region(from, to);
+        while (m.find()) {
+            int open = skipWhitespace(script, m.end(), to);
+            if (open >= to || script.charAt(open) != '{' || (m.start() > 0 && script.charAt(m.start() - 1) == '.')) {
+                continue;
+            }
+            int close = blockEnd(script, open, to);
+            String name = m.group();
+            if (name.equals("dependencies")) {
+                blocks.add(script.substring(open + 1, close));
+            } else if (!name.equals("buildscript")) {
+                // allprojects, subprojects, configure and such may hold dependencies blocks too
+                findBlocks(script, open + 1, close, blocks);
+            }
+            m.region(Math.min(close + 1, to), to);
+        }
+    }
+
+    private static int skipWhitespace(String script, int i, int to) {
+        while (i < to && Character.isWhitespace(script.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Find the brace closing the one at the given index, skipping string literals.
+     */
+    private static int blockEnd(String script, int open, int to) {
+        int depth = 0;
+        int i = open;
+        while (i < to) {
+            char ch = script.charAt(i);
+            if (ch == '"' || ch == '\'') {
+                i = stringEnd(script, i);
+                continue;
+            }
+            if (ch == '{') {
+                depth++;
+            } else if (ch == '}') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+            i++;
+        }
+        return to;
+    }
+
+    /**
+     * Split block content into statements, ending at line ends or semicolons
+     * outside of parentheses, brackets and braces, unless the line ends with a comma.
+     */
+    static List<String> statements(String block) {
+        List<String> statements = new ArrayList<String>();
+        StringBuilder statement = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < block.length()) {
+            char ch = block.charAt(i);
+            if (ch == '"' || ch == '\'') {
+                int end = stringEnd(block, i);
+                statement.append(block, i, end);
+                i = end;
+                continue;
+            }
+            if (ch == '(' || ch == '[' || ch == '{') {
+                depth++;
+            } else if (ch == ')' || ch == ']' || ch == '}') {
+                depth--;
+            }
+            boolean end = (ch == '\n' || ch == ';') && depth <= 0;
+            if (end && ch == '\n') {
+                String text = statement.toString().trim();
+                end = !text.endsWith(",") && !text.endsWith(":");
+            }
+            if (end) {
+                addStatement(statements, statement);
+            } else {
+                statement.append(ch);
+            }
+            i++;
+        }
+        addStatement(statements, statement);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder statement) {
+        String text = statement.toString().trim();
+        if (!text.isEmpty()) {
+            statements.add(text);
+        }
+        statement.setLength(0);
+    }
+
+    /**
+     * Extract dependencies from a gradle.lockfile, one "group:name:version=configurations" per line.
+     */
+    static Map<String, Map> parseLockfile(String lockfile) {
+        DependencySet dependencies = new DependencySet();
+        for (String line : lockfile.split("\n")) {
+            line = line.trim();
+            int equals = line.indexOf('=');
+            if (line.isEmpty() || line.startsWith("#") || equals < 0 || line.startsWith("empty=")) {
+                continue;
+            }
+            String[] coordinates = line.substring(0, equals).split(":");
+            if (coordinates.length != 3) {
+                continue;
+            }
+            Set<String> scopes = new LinkedHashSet<String>();
+            for (String configuration : line.substring(equals + 1).split(",")) {
+                if (!configuration.trim().isEmpty()) {
+                    scopes.add(scope(configuration.trim()));
+                }
+            }
+            MavenUtils.addDependency(dependencies, coordinates[0], coordinates[1], coordinates[2], "", "", scopes);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Extract component coordinates and dependencies of all variants from Gradle Module Metadata.
+     *
+     * Variants are mapped to scopes by their org.gradle.usage attribute, java-api
+     * to compile and java-runtime to runtime; others keep the variant name.
+     * Versions are the strict ones if given, the required or preferred ones otherwise.
+     *
+     * @throws IOException when the metadata is not valid JSON
+     */
+    static Map<String, Object> parseModuleMetadata(Reader reader) throws IOException {
+        JSONObject metadata;
+        try {
+            Object parsed = new JSONParser().parse(reader);
+            if (!(parsed instanceof JSONObject)) {
+                throw new IOException("Gradle module metadata is not a JSON object");
+            }
+            metadata = (JSONObject) parsed;
+        } catch (ParseException ex) {
+            throw new IOException("Invalid Gradle module metadata: " + ex, ex);
+        }
+
+        Map<String, Object> data = new HashMap<String, Object>();
+        Object component = metadata.get("component");
+        if (component instanceof JSONObject) {
+            putString(data, "groupId", (JSONObject) component, "group");
+            putString(data, "artifactId", (JSONObject) component, "module");
+            putString(data, "version", (JSONObject) component, "version");
+        }
+
+        DependencySet dependencies = new DependencySet();
+        for (JSONObject variant : objects(metadata.get("variants"))) {
+            String scope = String.valueOf(variant.get("name"));
+            Object attributes = variant.get("attributes");
+            if (attributes instanceof JSONObject) {
+                Object usage = ((JSONObject) attributes).get("org.gradle.usage");
+                if ("java-api".equals(usage)) {
+                    scope = "compile";
+                } else if ("java-runtime".equals(usage)) {
+                    scope = "runtime";
+                }
+            }
+            for (JSONObject dependency : objects(variant.get("dependencies"))) {
+                String version = "";
+                Object versionConstraint = dependency.get("version");
+                if (versionConstraint instanceof JSONObject) {
+                    for (String kind : new String[]{"strictly", "requires", "prefers"}) {
+                        Object value = ((JSONObject) versionConstraint).get(kind);
+                        if (value != null) {
+                            version = value.toString();
+                            break;
+                        }
+                    }
+                }
+                String group = string(dependency, "group");
+                String module = string(dependency, "module");
+                MavenUtils.addDependency(dependencies, group, module, version, "", "", Collections.singleton(scope));
+            }
+        }
+        data.put("dependencies", dependencies);
+        return data;
+    }
+
+    private static void putString(Map<String, Object> data, String key, JSONObject object, String name) {
+        String value = string(object, name);
+        if (value != null) {
+            data.put(key, value);
+        }
+    }
+
+    private static String string(JSONObject object, String name) {
+        Object value = object.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static List<JSONObject> objects(Object array) {
+        List<JSONObject> objects = new ArrayList<JSONObject>();
+        if (array instanceof JSONArray) {
+            for (Object item : (JSONArray) array) {
+                if (item instanceof JSONObject) {
+                    objects.add((JSONObject) item);
+                }
+            }
+        }
+        return objects;
+    }
+}
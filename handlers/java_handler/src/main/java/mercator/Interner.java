@@ -0,0 +1,57 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of canonical instances of immutable values, shared by all scans in one run.
+ *
+ * Once the pool holds its maximum number of values, values not in it yet
+ * are returned as they are, so that memory stays bounded however many
+ * unrelated artifacts are scanned.
+ */
+final class Interner<T> {
+
+    private final ConcurrentMap<T, T> pool = new ConcurrentHashMap<T, T>();
+    private final int maxSize;
+
+    Interner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the canonical instance equal to the given value.
+     *
+     * @return instance from the pool, the value itself if it is the first of its kind or the pool is full
+     */
+    T intern(T value) {
+        T canonical = pool.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (pool.size() >= maxSize) {
+            return value;
+        }
+        canonical = pool.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    int size() {
+        return pool.size();
+    }
+}
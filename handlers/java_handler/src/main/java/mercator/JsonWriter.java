@@ -0,0 +1,187 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Minimal streaming JSON writer.
+ *
+ * Writes compact JSON, escaped the same way as json-simple does it, straight
+ * to the underlying writer; nothing is rendered into intermediate strings.
+ * Structure is not validated beyond keeping track of the separators.
+ */
+public class JsonWriter implements ResultWriter {
+
+    private final Writer out;
+    /** Whether the object or array at the given depth has no members yet. */
+    private boolean[] empty = new boolean[16];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Object value) throws IOException {
+        long start = Metrics.start();
+        write(value);
+        Metrics.record(Metrics.Phase.JSON_SERIALIZATION, start);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void write(Object value) throws IOException {
+        if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                write(entry.getValue());
+            }
+            endObject();
+            return;
+        }
+        if (value instanceof Collection) {
+            beginArray();
+            for (Object item : (Collection<?>) value) {
+                write(item);
+            }
+            endArray();
+            return;
+        }
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.write(value.toString());
+        } else {
+            string(value.toString());
+        }
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        depth++;
+        if (depth == empty.length) {
+            empty = Arrays.copyOf(empty, depth * 2);
+        }
+        empty[depth] = true;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        out.write(bracket);
+        depth--;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!empty[depth]) {
+                out.write(',');
+            }
+            empty[depth] = false;
+        }
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            String escape = escape(ch);
+            if (escape != null) {
+                out.write(s, start, i - start);
+                out.write(escape);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+
+    /**
+     * Same escapes as org.json.simple.JSONValue#escape.
+     */
+    private static String escape(char ch) {
+        switch (ch) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\b':
+                return "\\b";
+            case '\f':
+                return "\\f";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            case '/':
+                return "\\/";
+            default:
+                if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                    return String.format("\\u%04X", (int) ch);
+                }
+                return null;
+        }
+    }
+}
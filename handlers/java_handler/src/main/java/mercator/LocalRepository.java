@@ -0,0 +1,255 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maven local repository shared by all POM expansions in one run.
+ *
+ * The repository given by MERCATOR_JAVA_LOCAL_REPO is used as-is and never
+ * removed, so it can be pre-seeded and reused across runs. Without it,
+ * a temporary repository is created on first use and deleted when the JVM
+ * exits.
+ *
+ * Artifacts missing in the local repository can be fetched from the remote
+ * repositories listed (comma separated) in MERCATOR_JAVA_REMOTE_REPOS, Maven
+ * Central by default, unless MERCATOR_JAVA_OFFLINE is true. Downloads are
+ * written to a temporary file and atomically moved in place, so concurrent
+ * scans may share the repository. Connecting to a remote repository and
+ * waiting for its data each time out after MERCATOR_JAVA_DOWNLOAD_TIMEOUT
+ * milliseconds, 30 seconds by default.
+ *
+ * Coordinates containing path separators or ".." are never looked up, so
+ * that POMs can't make the repository read or write outside its directory.
+ */
+public class LocalRepository {
+
+    static final String CENTRAL = "https://repo.maven.apache.org/maven2";
+
+    static final int DEFAULT_TIMEOUT = 30000;
+
+    private static LocalRepository shared;
+
+    private final File directory;
+    private final List<String> remotes;
+    private final boolean offline;
+    private final int timeout;
+    private final boolean fileRemotesOnly;
+
+    /**
+     * @param directory, local repository directory
+     * @param remotes, base URLs of remote repositories
+     * @param offline, never download anything
+     */
+    public LocalRepository(File directory, List<String> remotes, boolean offline) {
+        this(directory, remotes, offline, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout, connect and read timeout of downloads, in milliseconds
+     */
+    public LocalRepository(File directory, List<String> remotes, boolean offline, int timeout) {
+        this(directory, remotes, offline, timeout, false);
+    }
+
+    private LocalRepository(File directory, List<String> remotes, boolean offline, int timeout,
+                            boolean fileRemotesOnly) {
+        this.directory = directory;
+        this.remotes = remotes;
+        this.offline = offline;
+        this.timeout = timeout;
+        this.fileRemotesOnly = fileRemotesOnly;
+    }
+
+    /**
+     * Get the repository configured by the environment.
+     *
+     * @return shared repository
+     * @throws IOException when the temporary repository can't be created
+     */
+    public static synchronized LocalRepository shared() throws IOException {
+        if (shared == null) {
+            String localRepo = System.getenv("MERCATOR_JAVA_LOCAL_REPO");
+            File directory;
+            if (localRepo != null) {
+                directory = new File(localRepo);
+            } else {
+                directory = Files.createTempDirectory("mercator-repo").toFile();
+                deleteOnExit(directory);
+            }
+
+            List<String> remotes = new ArrayList<String>();
+            String remoteRepos = System.getenv("MERCATOR_JAVA_REMOTE_REPOS");
+            if (remoteRepos == null) {
+                remotes.add(CENTRAL);
+            } else {
+                for (String remote : remoteRepos.split(",")) {
+                    if (!remote.trim().isEmpty()) {
+                        remotes.add(remote.trim());
+                    }
+                }
+            }
+            shared = new LocalRepository(directory, Collections.unmodifiableList(remotes),
+                    Boolean.parseBoolean(System.getenv("MERCATOR_JAVA_OFFLINE")),
+                    (int) ScanOptions.getenv("MERCATOR_JAVA_DOWNLOAD_TIMEOUT", DEFAULT_TIMEOUT));
+        }
+        return shared;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<String> getRemotes() {
+        return remotes;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Get the same repository, only downloading from file:// remotes, including those given to findPom.
+     */
+    public LocalRepository withFileRemotesOnly() {
+        return new LocalRepository(directory, remotes, offline, timeout, true);
+    }
+
+    /**
+     * Check if a groupId, artifactId or version can be part of a path in the repository.
+     */
+    static boolean validCoordinate(String value) {
+        return value != null && !value.isEmpty() && value.indexOf('/') < 0 && value.indexOf('\\') < 0
+                && !value.contains("..");
+    }
+
+    /**
+     * Get path of the given artifact, relative to the repository root.
+     */
+    static String artifactPath(String groupId, String artifactId, String version, String extension) {
+        return String.format("%s/%s/%s/%s-%s.%s", groupId.replace('.', '/'), artifactId, version,
+                artifactId, version, extension);
+    }
+
+    /**
+     * Find POM of the given artifact, downloading it if needed.
+     *
+     * @return POM file in the local repository, null if not available
+     */
+    public File findPom(String groupId, String artifactId, String version) {
+        return findPom(groupId, artifactId, version, Collections.<String>emptyList());
+    }
+
+    /**
+     * Find POM of the given artifact, downloading it if needed.
+     *
+     * @param extraRemotes, remote repositories to try after the configured ones
+     * @return POM file in the local repository, null if not available
+     */
+    public File findPom(String groupId, String artifactId, String version, List<String> extraRemotes) {
+        if (!validCoordinate(groupId) || !validCoordinate(artifactId) || !validCoordinate(version)) {
+            return null;
+        }
+        String path = artifactPath(groupId, artifactId, version, "pom");
+        File pom = new File(directory, path);
+        if (pom.isFile()) {
+            return pom;
+        }
+        if (offline) {
+            return null;
+        }
+        List<String> allRemotes = new ArrayList<String>(remotes);
+        allRemotes.addAll(extraRemotes);
+        for (String remote : allRemotes) {
+            if (fileRemotesOnly && !remote.startsWith("file:")) {
+                continue;
+            }
+            try {
+                download(new URL(remote.replaceAll("/+$", "") + "/" + path), pom.toPath());
+                return pom;
+            } catch (IOException ex) {
+                // try the next repository
+            }
+        }
+        return null;
+    }
+
+    private void download(URL url, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+        try {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            try (InputStream is = connection.getInputStream()) {
+                Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void deleteOnExit(final File directory) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    recursiveDelete(directory.toPath());
+                } catch (IOException e) {
+                    System.err.println(e);
+                }
+            }
+        });
+    }
+
+    static void recursiveDelete(Path dirToBeDeleted) throws IOException {
+        if (!Files.exists(dirToBeDeleted)) {
+            return;
+        }
+        Files.walkFileTree(dirToBeDeleted, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
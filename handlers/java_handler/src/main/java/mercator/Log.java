@@ -0,0 +1,37 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+/**
+ * Diagnostic output.
+ *
+ * Debug messages are printed to stderr only when MERCATOR_JAVA_DEBUG is true.
+ * The flag is a constant, so call sites guarded with {@code if (Log.DEBUG)}
+ * cost nothing when it is off, not even the varargs array.
+ */
+final class Log {
+
+    static final boolean DEBUG = Boolean.parseBoolean(System.getenv("MERCATOR_JAVA_DEBUG"));
+
+    private Log() {
+    }
+
+    static void debug(String format, Object... args) {
+        if (DEBUG) {
+            System.err.println(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+
+/**
+ * Build effective POMs by executing Maven, see {@link MavenUtils#getExpandedPom(byte[], File)}.
+ *
+ * Kept apart from {@link MavenUtils}, which is used for every file, so that
+ * maven-invoker and its dependencies are loaded only when POMs are expanded
+ * this way.
+ */
+final class MavenInvoker {
+
+    private MavenInvoker() {
+    }
+
+    /**
+     * Run "mvn help:effective-pom" on the given POM.
+     *
+     * @param pomFile, POM to expand
+     * @param resolvedPom, file to write the effective POM to
+     * @return true if Maven succeeded
+     */
+    static boolean effectivePom(File pomFile, File resolvedPom) {
+
+        if (Log.DEBUG) {
+            Log.debug("Attempting expansion of POM: %s", pomFile);
+        }
+
+        InvocationRequest request = new DefaultInvocationRequest();
+
+        LocalRepository repository;
+        try {
+            repository = LocalRepository.shared();
+        } catch (IOException ex) {
+            return false;
+        }
+        request.setLocalRepositoryDirectory(repository.getDirectory());
+        request.setOffline(repository.isOffline());
+
+        // FIXME: "-q" is a hack as support for the option is currently missing in maven-invoker
+        request.setGoals(Collections.singletonList("org.apache.maven.plugins:maven-help-plugin:3.1.0:effective-pom -q"));
+        Properties properties = new Properties();
+        properties.setProperty("output", resolvedPom.getAbsolutePath());
+        // let concurrent builds share the local repository (honoured by Maven 3.9+)
+        properties.setProperty("aether.syncContext.named.factory", "file-lock");
+        properties.setProperty("aether.syncContext.named.nameMapper", "file-gav");
+        request.setProperties(properties);
+        request.setPomFile(pomFile);
+
+        Invoker invoker = new DefaultInvoker();
+        invoker.setMavenHome(MavenUtils.getMavenHome());
+        long start = Metrics.start();
+        try {
+            return invoker.execute(request).getExitCode() == 0;
+        } catch (MavenInvocationException ex) {
+            return false;
+        } finally {
+            Metrics.record(Metrics.Phase.INVOKER, start);
+        }
+    }
+}
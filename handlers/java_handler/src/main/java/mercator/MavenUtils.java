@@ -14,16 +14,18 @@ package mercator;
  * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,27 +33,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.Scanner;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
-import org.apache.maven.shared.invoker.DefaultInvocationRequest;
-import org.apache.maven.shared.invoker.DefaultInvoker;
-import org.apache.maven.shared.invoker.InvocationRequest;
-import org.apache.maven.shared.invoker.Invoker;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 //TODO: !!! improve error handling/error reporting !!!
 
@@ -64,67 +55,98 @@ public class MavenUtils {
      * Expand given POM file.
      * 
      * This method builds an effective version of the given POM.
+     * All expansions share one local repository, see {@link LocalRepository}.
      * 
      * @param pomFile, POM files to expand
      * @return parsed effective version of the given POM, null when error occurred.
      */
     public static Document getParsedExpandedPom(File pomFile) {
-
-        System.err.println(String.format("Attempting expansion of POM: %s", pomFile));
-
-        File resolvedPom;
-        try {
-            resolvedPom = File.createTempFile("resolvedpom", ".xml");
-        } catch (java.io.IOException ex) {
+        byte[] expandedPom = getExpandedPom(null, pomFile);
+        if (expandedPom == null) {
             return null;
         }
-        resolvedPom.deleteOnExit();
-        InvocationRequest request = new DefaultInvocationRequest();
-        request.setPomFile(new File("pom.xml"));
-        File tempRepoDir = null;
+        return readStreamAsDocument(new ByteArrayInputStream(expandedPom));
+    }
 
+    /**
+     * Expand given POM with Maven.
+     *
+     * Maven needs the POM on disk; embedded POMs are written to a temporary
+     * file, which is removed, together with the Maven output, right after the
+     * expansion.
+     *
+     * @param pom, POM content, used only when pomFile is null
+     * @param pomFile, POM file to expand, may be null
+     * @return effective version of the given POM, null when error occurred.
+     */
+    static byte[] getExpandedPom(byte[] pom, File pomFile) {
+        File tmpPom = null;
+        File resolvedPom = null;
         try {
-            String localRepo = System.getenv("MERCATOR_JAVA_LOCAL_REPO");
-            if (localRepo != null) {
-                tempRepoDir = new File(localRepo);
-            } else {
-                tempRepoDir = Files.createTempDirectory(null).toFile();
+            if (pomFile == null) {
+                tmpPom = File.createTempFile("pom", ".xml");
+                Files.write(tmpPom.toPath(), pom);
+                pomFile = tmpPom;
+            }
+            resolvedPom = File.createTempFile("resolvedpom", ".xml");
+            if (!MavenInvoker.effectivePom(pomFile, resolvedPom)) {
+                return null;
+            }
+            try (InputStream is = new FileInputStream(resolvedPom)) {
+                return removeDuplicateXMLTag(is);
             }
-            request.setLocalRepositoryDirectory(tempRepoDir);
         } catch (java.io.IOException ex) {
             return null;
+        } finally {
+            deleteQuietly(tmpPom);
+            deleteQuietly(resolvedPom);
         }
+    }
 
-        // FIXME: "-q" is a hack as support for the option is currently missing in maven-invoker
-        request.setGoals(Collections.singletonList("org.apache.maven.plugins:maven-help-plugin:3.1.0:effective-pom -q"));
-        Properties properties = new Properties();
-        properties.setProperty("output", resolvedPom.getAbsolutePath());
-        request.setProperties(properties);
-        request.setPomFile(pomFile);
+    private static void deleteQuietly(File file) {
+        if (file != null && !file.delete() && file.exists()) {
+            System.err.println(String.format("Unable to delete temporary file: %s", file));
+        }
+    }
 
-        Invoker invoker = new DefaultInvoker();
-        // TODO: try to be smarter here
-        invoker.setMavenHome(new File("/usr/share/maven"));
+    /**
+     * Build effective version of the given POM.
+     *
+     * In-process with {@link PomModelBuilder}, unless MERCATOR_JAVA_POM_EXPANDER is
+     * set to "invoker", in which case Maven is executed.
+     *
+     * @param pom, POM content
+     * @param pomFile, POM file the content was read from, null for embedded POMs
+     * @return effective version of the given POM, null when error occurred.
+     */
+    static byte[] expandPom(byte[] pom, File pomFile) {
+        long start = Metrics.start();
         try {
-            invoker.execute(request);
-        } catch (org.apache.maven.shared.invoker.MavenInvocationException ex) {
+            if (!PomModelBuilder.enabled()) {
+                return getExpandedPom(pom, pomFile);
+            }
+            return PomModelBuilder.shared().getExpandedPom(pom, pomFile);
+        } catch (IOException ex) {
+            ex.printStackTrace();
             return null;
         } finally {
-            try {
-                recursiveDeleteOnExit(tempRepoDir);
-            } catch (IOException e) {
-                System.err.println(e);
-            }
+            Metrics.record(Metrics.Phase.POM_EXPANSION, start);
         }
+    }
 
-        try {
-            File resolvedPomFixed = removeDuplicateXMLTag(resolvedPom);
-            Document parsedPom = readFileAsDocument(resolvedPomFixed);
-            return parsedPom;
-        } catch (java.io.IOException ex) {
-            return null;
+    /**
+     * Find Maven installation to use for building effective POMs.
+     *
+     * @return MERCATOR_JAVA_MAVEN_HOME, MAVEN_HOME or /usr/share/maven, in this order
+     */
+    static File getMavenHome() {
+        for (String env : Arrays.asList("MERCATOR_JAVA_MAVEN_HOME", "MAVEN_HOME")) {
+            String mavenHome = System.getenv(env);
+            if (mavenHome != null && new File(mavenHome).isDirectory()) {
+                return new File(mavenHome);
+            }
         }
-
+        return new File("/usr/share/maven");
     }
 
     /**
@@ -138,34 +160,58 @@ public class MavenUtils {
         resolvedPomFixed = File.createTempFile("resolvedpom-fixed", ".xml");
         resolvedPomFixed.deleteOnExit();
 
-        Scanner sc = new Scanner(new FileInputStream(resolvedPom), StandardCharsets.UTF_8.name());
+        try (InputStream is = new FileInputStream(resolvedPom)) {
+            Files.write(resolvedPomFixed.toPath(), removeDuplicateXMLTag(is));
+        }
+        return resolvedPomFixed;
+    }
+
+    /**
+     * Remove duplicate XML start tag, and lines with detected OS release, from the given XML.
+     * @param resolvedPom, XML to read
+     * @return the XML with only one XML start tag
+     * @throws IOException
+     */
+    static byte[] removeDuplicateXMLTag(InputStream resolvedPom) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(resolvedPom, StandardCharsets.UTF_8));
         String xmlTag = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
         int xmlTagCount = 0;
 
-        PrintWriter pw = new PrintWriter(resolvedPomFixed);
-        while(sc.hasNextLine()) {
-            String line = sc.nextLine();
-            if(line.equals(xmlTag)) {
-                xmlTagCount ++;
-                if(xmlTagCount > 1) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bos, StandardCharsets.UTF_8);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals(xmlTag)) {
+                xmlTagCount++;
+                if (xmlTagCount > 1) {
                     continue;
                 }
             }
-            if(line.contains("os.detected.release")) {
+            if (line.contains("os.detected.release")) {
                 continue; // skip lines with detected os release as they might break the parser
             }
-            pw.println(line);
+            writer.write(line);
+            writer.write('\n');
         }
-        pw.close();
-        return resolvedPomFixed;
+        writer.flush();
+        return bos.toByteArray();
     }
 
     public static Document readFileAsDocument(File inputFile) {
+        try (InputStream is = new FileInputStream(inputFile)) {
+            return readStreamAsDocument(is);
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    public static Document readStreamAsDocument(InputStream input) {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         DocumentBuilder docBuilder;
         try {
             docBuilder = dbf.newDocumentBuilder();
-            return docBuilder.parse(inputFile);
+            return docBuilder.parse(input);
         } catch (javax.xml.parsers.ParserConfigurationException ex) {
             ex.printStackTrace();
             return null;
@@ -179,59 +225,71 @@ public class MavenUtils {
     }
 
     public static Map<String, Map> getPomXmlDependencies(Document parsedPom) {
-        Map<String, Map> depMap = new HashMap<String, Map>();
-        XPathFactory xpf = XPathFactory.newInstance();
-        XPath xpath = xpf.newXPath();
-        XPathExpression xpe = null;
-        NodeList dependencies = null;
-        try {
-            xpe = xpath.compile("/project/dependencies/dependency");
-            dependencies = (NodeList) xpe.evaluate(parsedPom, XPathConstants.NODESET);
-            System.err.println(String.format("Dependencies: %s", dependencies));
-        } catch (javax.xml.xpath.XPathExpressionException ex) {
-            ex.printStackTrace();
+        DependencySet depMap = new DependencySet();
+        Element project = parsedPom.getDocumentElement();
+        if (!"project".equals(project.getNodeName())) {
             return depMap;
         }
-        for (int i = 0; i < dependencies.getLength(); i++) {
-            Element e = (Element) dependencies.item(i);
-            System.err.println(String.format("Element: %s", e));
-            String groupId = e.getElementsByTagName("groupId").item(0).getTextContent();
-            String artifactId = e.getElementsByTagName("artifactId").item(0).getTextContent();
-
-            NodeList versions = e.getElementsByTagName("version");
-            String version = "";
-            if (versions.getLength() > 0) {
-                version = versions.item(0).getTextContent();
-            }
-            String classifier = "", type = "";
-            if (e.getElementsByTagName("classifier").getLength() > 0) {
-                classifier = e.getElementsByTagName("classifier").item(0).getTextContent();
-            }
-            if (e.getElementsByTagName("type").getLength() > 0) {
-                type = e.getElementsByTagName("type").item(0).getTextContent();
+        for (Element dependencies : childElements(project, "dependencies")) {
+            for (Element e : childElements(dependencies, "dependency")) {
+                if (Log.DEBUG) {
+                    Log.debug("Element: %s", e);
+                }
+                // only direct children, <exclusions> have coordinates too
+                Set<String> scopes = new HashSet<>();
+                for (Element scope : childElements(e, "scope")) {
+                    scopes.add(scope.getTextContent());
+                }
+                addDependency(depMap, childContent(e, "groupId", null), childContent(e, "artifactId", null),
+                        childContent(e, "version", ""), childContent(e, "type", ""),
+                        childContent(e, "classifier", ""), scopes);
             }
-            NodeList scopes = e.getElementsByTagName("scope");
+        }
+        return depMap;
+    }
 
-            Set<String> dependencyScopes = new HashSet<>();
+    /**
+     * Add dependency to the map of dependencies by scope.
+     *
+     * @param scopes, scopes of the dependency, compile if empty
+     */
+    static void addDependency(DependencySet depMap, String groupId, String artifactId, String version,
+            String type, String classifier, Set<String> scopes) {
+        if (groupId == null || artifactId == null) {
+            return;
+        }
+        if (scopes.isEmpty()) {
+            String scopeName = "compile";
+            if (Log.DEBUG) {
+                Log.debug("Defaulting to scope: %s", scopeName);
+            }
+            scopes = Collections.singleton(scopeName);
+        }
+        depMap.add(DeclaredDependency.of(Coordinate.of(groupId, artifactId, type, classifier), version, scopes));
+    }
 
-            if (scopes.getLength() == 0) {
-                String scopeName = "compile";
-                System.err.println(String.format("Defaulting to scope: %s", scopeName));
-                dependencyScopes.add(scopeName);
-            } else {
-                for (int j = 0; j < scopes.getLength(); j++) {
-                    dependencyScopes.add(scopes.item(j).getTextContent());
-                }
+    static List<Element> childElements(Element parent, String name) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                children.add((Element) child);
             }
+        }
+        return children;
+    }
 
-            for (String scopeName : dependencyScopes) {
-                if (!depMap.containsKey(scopeName)) {
-                    depMap.put(scopeName, new HashMap<String, Map>());
-                }
-                depMap.get(scopeName).put(String.format("%s:%s:%s:%s", groupId, artifactId, type, classifier), version);
+    static Element childElement(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return (Element) child;
             }
         }
-        return depMap;
+        return null;
+    }
+
+    private static String childContent(Element parent, String name, String defaultValue) {
+        Element child = childElement(parent, name);
+        return child == null ? defaultValue : child.getTextContent();
     }
 
     /**
@@ -253,73 +311,150 @@ public class MavenUtils {
      * @return true/false
      */
     private static Boolean ignoreDescription(Document pomDocument) {
-        XPathFactory xpf = XPathFactory.newInstance();
-        XPath xpath = xpf.newXPath();
-        XPathExpression xpe = null;
-        Node nd = null;
-
-        try {
-            xpe = xpath.compile("/project/description");
-            nd = (Node) xpe.evaluate(pomDocument, XPathConstants.NODE);
-        } catch (javax.xml.xpath.XPathExpressionException e) {
-            e.printStackTrace();
+        if (pomDocument == null) {
             return false;
         }
+        Element project = pomDocument.getDocumentElement();
+        return !"project".equals(project.getNodeName()) || childElement(project, "description") == null;
+    }
 
-        if (nd == null) {
-            return true;
-        }
-        return false;
+    public static Map<String, Map> getPomXmlEntries(final File pomFile) {
+        return getPomXmlEntries(pomFile, resolvePomsEnabled());
     }
 
-    public static Map<String, Map> getPomXmlEntries(File pomFile) {
+    /**
+     * Extract data from the given POM file.
+     *
+     * @param pomFile, POM file
+     * @param resolve, whether to extract data from the effective POM
+     * @return extracted data
+     */
+    static Map<String, Map> getPomXmlEntries(File pomFile, boolean resolve) {
         // TODO: improve error handling/error reporting
 
-        System.err.println(String.format("Processing file: %s", pomFile));
-        Document parsedPom = readFileAsDocument(pomFile);
-        Boolean ignoreDescription = ignoreDescription(parsedPom);
+        if (Log.DEBUG) {
+            Log.debug("Processing file: %s", pomFile);
+        }
 
-        if (resolvePomsEnabled()) {
-            System.err.println("NOTICE: Resolving POMs is enabled.");
+        if (!resolve && PomStreamExtractor.enabled()) {
+            long start = Metrics.start();
+            try (InputStream is = new FileInputStream(pomFile)) {
+                return PomStreamExtractor.extract(is, false);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return new HashMap<String, Map>();
+            } finally {
+                Metrics.record(Metrics.Phase.POM_PARSE, start);
+            }
+        }
+
+        try {
+            return getPomXmlEntries(Files.readAllBytes(pomFile.toPath()), pomFile, resolve);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return new HashMap<String, Map>();
+        }
+    }
+
+    /**
+     * Extract data from the given POM.
+     *
+     * @param pom, POM content
+     * @param pomFile, POM file the content was read from, null for POMs embedded in archives
+     * @param resolve, whether to extract data from the effective POM
+     * @return extracted data
+     */
+    static Map<String, Map> getPomXmlEntries(final byte[] pom, final File pomFile, boolean resolve) {
+        if (!resolve) {
+            return getPomXmlEntries(pom, false);
+        }
+        if (Log.DEBUG) {
+            Log.debug("Resolving POM: %s", pomFile == null ? "(embedded)" : pomFile);
+        }
+
+        Document parsedPom = readStreamAsDocument(new ByteArrayInputStream(pom));
+        final Boolean ignoreDescription = ignoreDescription(parsedPom);
+        try {
+            return EffectivePomCache.shared().get(pom, pomFile, parsedPom, new Callable<Map<String, Map>>() {
+                @Override
+                public Map<String, Map> call() {
+                    return getPomXmlEntries(expandPom(pom, pomFile), ignoreDescription);
+                }
+            });
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return new HashMap<String, Map>();
+        }
+    }
 
-            parsedPom = getParsedExpandedPom(pomFile);
+    /**
+     * Extract data from the given serialized POM.
+     *
+     * Uses {@link PomStreamExtractor} unless MERCATOR_JAVA_POM_PARSER is set to "dom".
+     *
+     * @param pom, POM content, may be null
+     * @param ignoreDescription, whether to leave out the description
+     * @return extracted data, empty if there's no POM
+     */
+    static Map<String, Map> getPomXmlEntries(byte[] pom, boolean ignoreDescription) {
+        if (pom == null) {
+            return new HashMap<String, Map>();
+        }
+        long start = Metrics.start();
+        try {
+            if (PomStreamExtractor.enabled()) {
+                return PomStreamExtractor.extract(new ByteArrayInputStream(pom), ignoreDescription);
+            }
+            return getPomXmlEntries(readStreamAsDocument(new ByteArrayInputStream(pom)), ignoreDescription);
+        } finally {
+            Metrics.record(Metrics.Phase.POM_PARSE, start);
         }
+    }
 
+    /**
+     * Extract data from the given POM.
+     *
+     * @param parsedPom, parsed POM, may be null
+     * @param ignoreDescription, whether to leave out the description
+     * @return extracted data, empty if there's no POM
+     */
+    static Map<String, Map> getPomXmlEntries(Document parsedPom, boolean ignoreDescription) {
         Map<String, Map> result = new HashMap<String, Map>();
 
         if (parsedPom == null) {
             return result;
         }
 
-        XPathFactory xpf = XPathFactory.newInstance();
-        XPath xpath = xpf.newXPath();
-        XPathExpression xpe = null;
-
-        result.put("pom.xml", new HashMap<String, Map>());
+        Map pomData = new HashMap();
+        result.put("pom.xml", pomData);
 
         // get dependencies
-        result.get("pom.xml").put("dependencies", getPomXmlDependencies(parsedPom));
+        pomData.put("dependencies", getPomXmlDependencies(parsedPom));
+
+        List<String> licenses = new ArrayList<String>();
+        pomData.put("licenses", licenses);
+
+        Element project = parsedPom.getDocumentElement();
+        if (!"project".equals(project.getNodeName())) {
+            return result;
+        }
 
         // get licenses
-        result.get("pom.xml").put("licenses", new ArrayList<String>());
-        try {
-            xpe = xpath.compile("/project/licenses/license/name");
-            NodeList nl = (NodeList) xpe.evaluate(parsedPom, XPathConstants.NODESET);
-            for (int i = 0; i < nl.getLength(); i++) {
-                ArrayList<String> licenses = (ArrayList<String>) result.get("pom.xml").get("licenses");
-                licenses.add(nl.item(i).getTextContent());
+        for (Element licensesElement : childElements(project, "licenses")) {
+            for (Element license : childElements(licensesElement, "license")) {
+                for (Element name : childElements(license, "name")) {
+                    licenses.add(name.getTextContent());
+                }
             }
-        } catch (javax.xml.xpath.XPathExpressionException ex) {
         }
 
         // get scm url
-        try {
-            xpe = xpath.compile("/project/scm/url");
-            Node nd = (Node) xpe.evaluate(parsedPom, XPathConstants.NODE);
-            if (nd != null) {
-                result.get("pom.xml").put("scm_url", nd.getTextContent());
+        for (Element scm : childElements(project, "scm")) {
+            Element url = childElement(scm, "url");
+            if (url != null) {
+                pomData.put("scm_url", url.getTextContent());
+                break;
             }
-        } catch (javax.xml.xpath.XPathExpressionException ex) {
         }
 
         // get other metadata
@@ -327,49 +462,20 @@ public class MavenUtils {
         if (!ignoreDescription) {
             keys.add("description");
         }
-        Node nd = null;
         for (String key : keys) {
-            try {
-                xpe = xpath.compile(String.format("/project/%s[1]", key));
-                nd = (Node) xpe.evaluate(parsedPom, XPathConstants.NODE);
-            } catch (javax.xml.xpath.XPathExpressionException ex) {
-                return result;
-            }
-
-            if (nd != null) {
-                result.get("pom.xml").put(key, nd.getTextContent());
+            Element element = childElement(project, key);
+            if (element != null) {
+                pomData.put(key, element.getTextContent());
             }
         }
         return result;
     }
 
     public static boolean isPomProperties(ZipEntry entry) {
-        return isMavenMetadataFile(entry, "pom.properties");
+        return EntryClassifier.classify(entry.getName()) == EntryClassifier.EntryType.POM_PROPERTIES;
     }
 
     public static boolean isPomXml(ZipEntry entry) {
-        return isMavenMetadataFile(entry, "pom.xml");
-    }
-
-    private static boolean isMavenMetadataFile(ZipEntry entry, String fname) {
-        String pattern = String.format("META-INF/maven/[^/]+/[^/]+/%s$", fname);
-        return Pattern.matches(pattern, entry.getName());
-    }
-
-    private static void recursiveDeleteOnExit(File dirToBeDeleted) throws IOException {
-
-        Files.walkFileTree(dirToBeDeleted.toPath(), new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                Files.delete(dir);
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Files.delete(file);
-                return FileVisitResult.CONTINUE;
-            }
-        });
+        return EntryClassifier.classify(entry.getName()) == EntryClassifier.EntryType.POM_XML;
     }
 }
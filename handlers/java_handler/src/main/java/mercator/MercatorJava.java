@@ -14,22 +14,20 @@ package mercator;
  * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.jar.Attributes;
-import java.util.jar.JarInputStream;
-import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
 
 import org.json.simple.JSONObject;
 
@@ -37,134 +35,202 @@ import org.json.simple.JSONObject;
 /**
  * Mercator Java/Maven handler.
  * 
- * Supports pom.xml, JAR, WAR and EAR files.
+ * Supports pom.xml, JAR, WAR and EAR files, as well as Gradle build scripts,
+ * lockfiles and module metadata.
+ *
+ * Usage:
+ *   java -jar handler.jar FILE
+ *   java -jar handler.jar --batch [FILE|DIRECTORY|@LISTFILE|-]...
+ *
+ * See {@link BatchProcessor} for details about the batch mode, and
+ * {@link ScanIndex} for incremental batch scans.
+ *
+ * Results are written as JSON, or as CBOR if MERCATOR_JAVA_OUTPUT_FORMAT is
+ * "cbor", see {@link CborWriter}.
  */
 public class MercatorJava {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            int retcode = 0;
+            try {
+                PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                        64 * 1024), false, "UTF-8");
+                Metrics.registerMBean();
+                ArchiveScanner scanner = new ArchiveScanner();
+                boolean binary = CborWriter.enabled();
+                ScanIndex index = ScanIndex.fromEnvironment(scanner.getOptions(), binary ? "cbor" : "json");
+                try {
+                    new BatchProcessor(BatchProcessor.configuredJobs(), out, scanner, index)
+                            .setBinary(binary)
+                            .run(Arrays.asList(args).subList(1, args.length));
+                } finally {
+                    if (index != null) {
+                        index.close();
+                    }
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                retcode = 1;
+            }
+            Metrics.report(System.err);
+            System.exit(retcode);
+        }
+
         // The CLI expects exactly one argument. It could be any of the supported file types.
         if (args.length != 1) {
             System.out.println("{\"error\": \"not enough arguments\"}");
             System.exit(1);
         }
 
-        String result = "{\"error\": \"No output.\"}";
         int retcode = 0;
         try {
-            if ((new File(args[0])).getName().equals("pom.xml")) {
-                // POM
-                result = handlePomFile(args[0]).toString();
+            if (CborWriter.enabled()) {
+                CborWriter cbor = new CborWriter(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+                try {
+                    handleFile(args[0], new ArchiveScanner(), cbor.namespace());
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    cbor.value(error(e));
+                    retcode = 1;
+                }
+                cbor.flush();
             } else {
-                // JAR
-                try (InputStream is = new BufferedInputStream(new FileInputStream(args[0]))) {
-                    Map<String, Object> resultMap = handleZipFile(is);
-                    if (!resultMap.isEmpty()) {
-                        resultMap.put("kind", getJarKind(args[0]));
-                    }
-                    result = new JSONObject(resultMap).toString();
+                Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                        StandardCharsets.UTF_8));
+                try {
+                    handleFile(args[0], new ArchiveScanner(), new JsonWriter(writer));
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    writer.write(errorResult(e));
+                    retcode = 1;
                 }
+                writer.write('\n');
+                writer.flush();
             }
-        } catch (Throwable e) {
+        } catch (IOException e) {
             e.printStackTrace();
-            result = "{\"error\": \"Error processing the input file: " + e.getMessage() + "\"}";
             retcode = 1;
         }
-
-        System.out.println(result);
+        Metrics.report(System.err);
         System.exit(retcode);
     }
 
-    private static Map<String, Object> handleZipFile(InputStream is) throws IOException {
-        Map<String, Object> resultMap = new HashMap<String, Object>();
-
-        JarInputStream jis = new JarInputStream(is);
-
-        // fetch data from jar manifest
-        Manifest manifest = jis.getManifest();
-        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
-            resultMap.put(entry.getKey(), new JSONObject(entry.getValue()));
-        }
-        Attributes attributes = manifest.getMainAttributes();
-        resultMap.put("manifest", new JSONObject(attributes));
-
-        boolean foundPomProperties = false;
-        boolean foundPomXml = false;
-        ZipEntry entry = null;
-        while ((entry = jis.getNextEntry()) != null) {
+    /**
+     * Process one file, never failing.
+     *
+     * @return result serialized as UTF-8 JSON, an error object if processing failed
+     */
+    static byte[] handleFileSafely(String path, ArchiveScanner scanner) {
+        return handleFileSafely(path, scanner, false);
+    }
 
-            if (entry.isDirectory()) {
-                continue;
-            }
+    /**
+     * Process one file, never failing.
+     *
+     * @param binary, whether to serialize the result as CBOR, without string references
+     * @return serialized result, an error object if processing failed
+     */
+    static byte[] handleFileSafely(String path, ArchiveScanner scanner, boolean binary) {
+        return processSafely(path, scanner, binary).bytes;
+    }
 
-            if (MavenUtils.isPomProperties(entry)) {
-                String result_key = "maven_id";
-                if (!foundPomProperties) {
-                    foundPomProperties = true;
-                    Properties props = new Properties();
-                    props.load(jis);
-                    resultMap.put(result_key, new JSONObject(props));
-                } else {
-                    // we don't know how to handle multiple pom.properties files
-                    resultMap.remove(result_key);
-                }
-                continue;
+    /**
+     * Process one file, never failing, telling whether the result is complete.
+     *
+     * @param binary, whether to serialize the result as CBOR, without string references
+     * @return serialized result, an error object if processing failed
+     */
+    static Result processSafely(String path, ArchiveScanner scanner, boolean binary) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            boolean complete;
+            if (binary) {
+                complete = handleFile(path, scanner, new CborWriter(bos));
+            } else {
+                Writer writer = new OutputStreamWriter(bos, StandardCharsets.UTF_8);
+                complete = handleFile(path, scanner, new JsonWriter(writer));
+                writer.flush();
             }
+            return new Result(bos.toByteArray(), complete);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return new Result(errorResult(e, binary), false);
+        }
+    }
 
-            if (MavenUtils.resolvePomsEnabled()) {
-                String result_key = "pom.xml";
-                // fetch data from pom.xml
-                if (MavenUtils.isPomXml(entry)) {
-                    if (!foundPomXml) {
-                        foundPomXml = true;
-                        File tmpPom;
-                        tmpPom = File.createTempFile("pom", ".xml");
-                        tmpPom.deleteOnExit();
-                        Files.copy(jis, tmpPom.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                        Map pomData = MavenUtils.getPomXmlEntries(tmpPom);
-                        resultMap.putAll(new JSONObject(pomData));
-                    } else {
-                        // we don't know how to handle multiple pom.xml files
-                        resultMap.remove(result_key);
-                    }
-                }
-                continue;
-            }
+    static String errorResult(Throwable e) {
+        return new JSONObject(error(e)).toString();
+    }
 
-            // look for bundled JAR files
-            try {
-                Map<String, Object> bundledResultMap = handleZipFile(jis);
-                if (bundledResultMap != null && !bundledResultMap.isEmpty()) {
-                    bundledResultMap.put("kind", getJarKind(entry.getName()));
-                    if (!resultMap.containsKey("bundled")) {
-                        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
-                        resultMap.put("bundled", list);
-                    }
-                    ((List<Map<String, Object>>) resultMap.get("bundled")).add(bundledResultMap);
-                }
-            } catch (Exception e) {
-                // ok, not a JAR file
-            }
+    /**
+     * Serialize error object.
+     *
+     * @param binary, whether to serialize as CBOR, otherwise as UTF-8 JSON
+     */
+    static byte[] errorResult(Throwable e, boolean binary) {
+        if (!binary) {
+            return errorResult(e).getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            new CborWriter(bos).value(error(e));
+        } catch (IOException ex) {
+            // writing to memory
+            throw new IllegalStateException(ex);
         }
+        return bos.toByteArray();
+    }
 
-        return resultMap;
+    private static Map<String, Object> error(Throwable e) {
+        Map<String, Object> error = new HashMap<String, Object>();
+        error.put("error", errorMessage(e));
+        return error;
     }
 
-    private static JSONObject handlePomFile(String pomPath) {
-        JSONObject output = new JSONObject(MavenUtils.getPomXmlEntries(new File(pomPath)));
-        return output;
+    static String errorMessage(Throwable e) {
+        return "Error processing the input file: " + e.getMessage();
     }
 
-    private static String getJarKind(String name) {
-        String lcName = name.toLowerCase();
+    /**
+     * Process one file: a pom.xml, a Gradle file or a JAR/WAR/EAR.
+     *
+     * @param path, path to the file
+     * @param scanner, scanner to use for archives
+     * @param out, where to write the result
+     * @return whether the result is complete, false if the scan ran out of budget or ended with an error
+     * @throws IOException
+     */
+    static boolean handleFile(String path, ArchiveScanner scanner, ResultWriter out) throws IOException {
+        String name = new File(path).getName();
+        if (name.equals("pom.xml")) {
+            // POM
+            Map<String, Map> entries = MavenUtils.getPomXmlEntries(new File(path), scanner.getOptions().isResolvePoms());
+            if (DependencyResolver.enabled()) {
+                DependencyResolver.addGraph(entries, new File(path));
+            }
+            out.value(entries);
+            return true;
+        }
+        if (GradleParser.isGradleFile(name)) {
+            out.value(GradleParser.getGradleEntries(new File(path)));
+            return true;
+        }
+        // JAR
+        return scanner.scan(new File(path), out);
+    }
 
-        // TODO: this is a very naive approach, it can be improved
-        if (lcName.endsWith(".jar")) {
-            return "JAR";
-        } else if (lcName.endsWith(".war")) {
-            return "WAR";
-        } else if (lcName.endsWith(".ear")) {
-            return "EAR";
+    /**
+     * Serialized result of one file.
+     */
+    static class Result {
+        final byte[] bytes;
+        /** False if the scan failed or ran out of budget. */
+        final boolean complete;
+
+        Result(byte[] bytes, boolean complete) {
+            this.bytes = bytes;
+            this.complete = complete;
         }
-        return "UNKNOWN";
     }
 }
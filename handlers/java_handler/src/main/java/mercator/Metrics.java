@@ -0,0 +1,259 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Counters and latency histograms of the handler phases.
+ *
+ * Collected only when MERCATOR_JAVA_METRICS is set, to a comma separated
+ * list of:
+ *   json - print a JSON summary to stderr at the end of the run
+ *   jmx - expose the metrics as the "mercator:type=Metrics" MXBean
+ *
+ * When disabled, {@link #start()} and {@link #record(Phase, long)} do nothing
+ * but read a static field. Phases nest: entry iteration of an archive
+ * includes the nested descents done from it, POM expansion includes the
+ * invoker time.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    public enum Phase {
+        MANIFEST_READ, ENTRY_ITERATION, NESTED_DESCENT, POM_PARSE, POM_EXPANSION, INVOKER, JSON_SERIALIZATION,
+        CBOR_SERIALIZATION, FINGERPRINT_LOOKUP
+    }
+
+    public enum Counter {
+        ARTIFACTS_SCANNED, ENTRIES_VISITED, BYTES_INFLATED
+    }
+
+    static final String OBJECT_NAME = "mercator:type=Metrics";
+
+    private static final String CONFIG = System.getenv("MERCATOR_JAVA_METRICS");
+
+    private static final Metrics SHARED = new Metrics();
+
+    private static boolean enabled = configured("json") || configured("jmx");
+
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+
+    Metrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    private static boolean configured(String output) {
+        if (CONFIG == null) {
+            return false;
+        }
+        for (String value : CONFIG.split(",")) {
+            if (value.trim().equalsIgnoreCase(output)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn collection on or off, regardless of the environment.
+     */
+    static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @return start time to pass to {@link #record(Phase, long)}, 0 when disabled
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record time spent in a phase.
+     *
+     * @param start, value returned by {@link #start()} when the phase started
+     */
+    static void record(Phase phase, long start) {
+        if (enabled && start != 0) {
+            SHARED.histograms[phase.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    static void count(Counter counter, long delta) {
+        if (enabled) {
+            SHARED.counters.addAndGet(counter.ordinal(), delta);
+        }
+    }
+
+    /**
+     * Register the shared instance with the platform MBean server, if enabled by MERCATOR_JAVA_METRICS.
+     */
+    static void registerMBean() {
+        if (!configured("jmx")) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(SHARED, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            System.err.println(String.format("Unable to register metrics MBean: %s", ex));
+        }
+    }
+
+    /**
+     * Print summary of the shared instance as one JSON line, if enabled by MERCATOR_JAVA_METRICS.
+     */
+    static void report(PrintStream err) {
+        if (configured("json")) {
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put("metrics", SHARED.summary());
+            err.println(new JSONObject(metrics).toString());
+        }
+    }
+
+    /**
+     * Get all metrics: counters, and count, total and percentiles of each phase.
+     */
+    Map<String, Object> summary() {
+        Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Phase phase : Phase.values()) {
+            phases.put(key(phase), histograms[phase.ordinal()].summary());
+        }
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("counters", getCounters());
+        summary.put("phases", phases);
+        return summary;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Counter counter : Counter.values()) {
+            result.put(key(counter), counters.get(counter.ordinal()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            for (Map.Entry<String, Long> entry : histograms[phase.ordinal()].summary().entrySet()) {
+                result.put(key(phase) + "." + entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    Histogram histogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    private static String key(Enum<?> value) {
+        return value.name().toLowerCase();
+    }
+
+    /**
+     * Latency histogram with power of two buckets, good to a factor of two.
+     */
+    static class Histogram {
+        /** Bucket i counts durations from 2^i to 2^(i+1) - 1 nanoseconds. */
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 1);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long current;
+            while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+                // retry
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Get upper bound of the given percentile.
+         *
+         * @param percentile, 0 to 100
+         * @return duration in nanoseconds, 0 when nothing was recorded
+         */
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(count.get() * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    long upper = i == 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                    return Math.min(upper, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        Map<String, Long> summary() {
+            long n = count.get();
+            Map<String, Long> summary = new LinkedHashMap<String, Long>();
+            summary.put("count", n);
+            summary.put("total_ms", TimeUnit.NANOSECONDS.toMillis(total.get()));
+            summary.put("mean_us", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(total.get() / n));
+            summary.put("p50_us", TimeUnit.NANOSECONDS.toMicros(percentile(50)));
+            summary.put("p90_us", TimeUnit.NANOSECONDS.toMicros(percentile(90)));
+            summary.put("p99_us", TimeUnit.NANOSECONDS.toMicros(percentile(99)));
+            summary.put("max_us", TimeUnit.NANOSECONDS.toMicros(max.get()));
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return value of each counter
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return count, total and percentiles of each phase, keyed like "pom_parse.p99_us"
+     */
+    Map<String, Long> getLatencies();
+
+    void reset();
+}
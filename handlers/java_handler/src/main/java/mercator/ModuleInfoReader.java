@@ -0,0 +1,231 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read module declarations from module-info.class.
+ *
+ * Only the constant pool and the Module attribute are looked at, the class
+ * is never loaded. Reading stops as soon as the Module attribute was found.
+ */
+public final class ModuleInfoReader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_OPEN = 0x0020;
+    private static final int ACC_TRANSITIVE = 0x0020;
+    private static final int ACC_STATIC_PHASE = 0x0040;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private ModuleInfoReader() {
+    }
+
+    /**
+     * Read module declaration.
+     *
+     * Package, class and service names are returned in their dotted form.
+     *
+     * @param input, content of module-info.class
+     * @return name, version (if recorded), open, requires, exports, opens, uses and provides
+     * @throws IOException when the class file is malformed or has no Module attribute
+     */
+    public static Map<String, Object> read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        int count = in.readUnsignedShort();
+        // UTF-8 constants, and for module, package and class constants the index of their name
+        Object[] pool = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    pool[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    pool[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                    skip(in, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(in, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(in, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(in, 8);
+                    i++; // takes two slots
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+
+        skip(in, 6); // access flags, this class, super class
+        skip(in, 2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String name = utf8(pool, in.readUnsignedShort());
+            long length = in.readInt() & 0xFFFFFFFFL;
+            if ("Module".equals(name)) {
+                return readModule(in, pool);
+            }
+            skip(in, length);
+        }
+        throw new IOException("Module attribute not found");
+    }
+
+    private static Map<String, Object> readModule(DataInputStream in, Object[] pool) throws IOException {
+        Map<String, Object> module = new LinkedHashMap<String, Object>();
+        module.put("name", name(pool, in.readUnsignedShort()));
+        module.put("open", (in.readUnsignedShort() & ACC_OPEN) != 0);
+        int version = in.readUnsignedShort();
+        if (version != 0) {
+            module.put("version", utf8(pool, version));
+        }
+
+        List<Map<String, Object>> requires = new ArrayList<Map<String, Object>>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            Map<String, Object> require = new LinkedHashMap<String, Object>();
+            require.put("name", name(pool, in.readUnsignedShort()));
+            int flags = in.readUnsignedShort();
+            require.put("transitive", (flags & ACC_TRANSITIVE) != 0);
+            require.put("static", (flags & ACC_STATIC_PHASE) != 0);
+            int requiredVersion = in.readUnsignedShort();
+            if (requiredVersion != 0) {
+                require.put("version", utf8(pool, requiredVersion));
+            }
+            requires.add(require);
+        }
+        module.put("requires", requires);
+        module.put("exports", readPackages(in, pool));
+        module.put("opens", readPackages(in, pool));
+
+        List<String> uses = new ArrayList<String>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            uses.add(name(pool, in.readUnsignedShort()));
+        }
+        module.put("uses", uses);
+
+        Map<String, List<String>> provides = new HashMap<String, List<String>>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            String service = name(pool, in.readUnsignedShort());
+            List<String> implementations = new ArrayList<String>();
+            for (int j = in.readUnsignedShort(); j > 0; j--) {
+                implementations.add(name(pool, in.readUnsignedShort()));
+            }
+            provides.put(service, implementations);
+        }
+        module.put("provides", provides);
+        return module;
+    }
+
+    /**
+     * Read exports or opens, qualified ones included.
+     */
+    private static List<String> readPackages(DataInputStream in, Object[] pool) throws IOException {
+        List<String> packages = new ArrayList<String>();
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            packages.add(name(pool, in.readUnsignedShort()));
+            in.readUnsignedShort(); // flags
+            skip(in, 2 * in.readUnsignedShort()); // target modules
+        }
+        return packages;
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        for (int i = in.readUnsignedShort(); i > 0; i--) {
+            skip(in, 6); // access flags, name, descriptor
+            for (int j = in.readUnsignedShort(); j > 0; j--) {
+                skip(in, 2);
+                skip(in, in.readInt() & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static void skip(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                in.readByte(); // fails at the end of the stream
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static String utf8(Object[] pool, int index) throws IOException {
+        if (index <= 0 || index >= pool.length || !(pool[index] instanceof String)) {
+            throw new IOException("bad constant pool index " + index);
+        }
+        return (String) pool[index];
+    }
+
+    /**
+     * Resolve module, package or class constant to its dotted name.
+     */
+    private static String name(Object[] pool, int index) throws IOException {
+        if (index <= 0 || index >= pool.length || !(pool[index] instanceof Integer)) {
+            throw new IOException("bad constant pool index " + index);
+        }
+        return utf8(pool, (Integer) pool[index]).replace('/', '.');
+    }
+}
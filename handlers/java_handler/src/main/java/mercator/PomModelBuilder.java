@@ -0,0 +1,323 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Repository;
+import org.apache.maven.model.building.DefaultModelBuilderFactory;
+import org.apache.maven.model.building.DefaultModelBuildingRequest;
+import org.apache.maven.model.building.FileModelSource;
+import org.apache.maven.model.building.ModelBuilder;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.model.building.ModelCache;
+import org.apache.maven.model.building.ModelSource2;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.model.resolution.ModelResolver;
+import org.apache.maven.model.resolution.UnresolvableModelException;
+import org.w3c.dom.Document;
+
+/**
+ * Build effective POMs in-process, with maven-model-builder.
+ *
+ * Parent POMs and imported BOMs are looked up in the {@link LocalRepository}.
+ * The effective model is serialized the same way maven-help-plugin does it,
+ * so the data extracted from it match the output of "mvn help:effective-pom".
+ * Raw and imported models are cached, every parent is read only once per run.
+ * Like {@link EffectivePomCache}, the cache keeps at most
+ * MERCATOR_JAVA_POM_CACHE_SIZE models, the least recently used are dropped.
+ */
+public class PomModelBuilder {
+
+    static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static PomModelBuilder shared;
+
+    private final LocalRepository repository;
+    private final ModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
+    private final ModelCache modelCache;
+
+    public PomModelBuilder(LocalRepository repository) {
+        this(repository, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param maxCachedModels, maximum number of raw and imported models kept
+     */
+    public PomModelBuilder(LocalRepository repository, int maxCachedModels) {
+        this.repository = repository;
+        this.modelCache = new SharedModelCache(maxCachedModels);
+    }
+
+    /**
+     * Get builder using the shared local repository.
+     *
+     * @return shared builder
+     * @throws IOException when the local repository can't be set up
+     */
+    public static synchronized PomModelBuilder shared() throws IOException {
+        if (shared == null) {
+            shared = new PomModelBuilder(LocalRepository.shared(),
+                    (int) ScanOptions.getenv("MERCATOR_JAVA_POM_CACHE_SIZE", DEFAULT_CACHE_SIZE));
+        }
+        return shared;
+    }
+
+    /**
+     * Check if effective POMs should be built in-process.
+     *
+     * @return false if MERCATOR_JAVA_POM_EXPANDER is "invoker", true otherwise
+     */
+    public static boolean enabled() {
+        return !"invoker".equalsIgnoreCase(System.getenv("MERCATOR_JAVA_POM_EXPANDER"));
+    }
+
+    /**
+     * Build effective model of the given POM.
+     *
+     * @param pomFile, POM to expand
+     * @return effective model
+     * @throws ModelBuildingException when the model can't be built
+     */
+    public Model buildModel(File pomFile) throws ModelBuildingException {
+        return buildModel(new FileModelSource(pomFile), pomFile);
+    }
+
+    /**
+     * Build effective model of an artifact in the repository.
+     *
+     * @return effective model, null if the POM is not available
+     * @throws ModelBuildingException when the model can't be built
+     */
+    public Model buildModel(String groupId, String artifactId, String version) throws ModelBuildingException {
+        File pom = repository.findPom(groupId, artifactId, version);
+        if (pom == null) {
+            return null;
+        }
+        return buildModel(new FileModelSource(pom), null);
+    }
+
+    Model buildModel(ModelSource2 source, File pomFile) throws ModelBuildingException {
+        DefaultModelBuildingRequest request = new DefaultModelBuildingRequest();
+        if (pomFile != null) {
+            // allows looking up parents by their relative path
+            request.setPomFile(pomFile);
+        }
+        request.setModelSource(source);
+        request.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+        request.setProcessPlugins(false);
+        request.setTwoPhaseBuilding(false);
+        request.setLocationTracking(false);
+        request.setSystemProperties(System.getProperties());
+        request.setModelResolver(new RepositoryModelResolver(repository));
+        request.setModelCache(modelCache);
+        return modelBuilder.build(request).getEffectiveModel();
+    }
+
+    /**
+     * Expand given POM file.
+     *
+     * @param pomFile, POM file to expand
+     * @return parsed effective version of the given POM, null when error occurred.
+     */
+    public Document getParsedExpandedPom(File pomFile) {
+        byte[] expandedPom = getExpandedPom(pomFile);
+        if (expandedPom == null) {
+            return null;
+        }
+        return MavenUtils.readStreamAsDocument(new ByteArrayInputStream(expandedPom));
+    }
+
+    /**
+     * Expand given POM file.
+     *
+     * @param pomFile, POM file to expand
+     * @return serialized effective version of the given POM, null when error occurred.
+     */
+    public byte[] getExpandedPom(File pomFile) {
+        return getExpandedPom(null, pomFile);
+    }
+
+    /**
+     * Expand given POM.
+     *
+     * @param pom, POM content, used only when pomFile is null
+     * @param pomFile, POM file to expand, may be null
+     * @return serialized effective version of the given POM, null when error occurred.
+     */
+    byte[] getExpandedPom(byte[] pom, File pomFile) {
+        if (Log.DEBUG) {
+            Log.debug("Attempting in-process expansion of POM: %s", pomFile == null ? "(embedded)" : pomFile);
+        }
+        try {
+            if (pomFile == null) {
+                return toBytes(buildModel(new ByteArrayModelSource(pom), null));
+            }
+            return toBytes(buildModel(pomFile));
+        } catch (ModelBuildingException ex) {
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    static byte[] toBytes(Model model) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            new MavenXpp3Writer().write(bos, model);
+        } catch (IOException ex) {
+            // writing to memory
+            throw new IllegalStateException(ex);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * POM read from memory, e.g. from an archive entry.
+     */
+    private static class ByteArrayModelSource implements ModelSource2 {
+        private final byte[] pom;
+
+        ByteArrayModelSource(byte[] pom) {
+            this.pom = pom;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(pom);
+        }
+
+        @Override
+        public String getLocation() {
+            return "(embedded pom.xml)";
+        }
+
+        /**
+         * Parents of embedded POMs are looked up in the repository only.
+         */
+        @Override
+        public ModelSource2 getRelatedSource(String relPath) {
+            return null;
+        }
+
+        @Override
+        public URI getLocationURI() {
+            return null;
+        }
+    }
+
+    /**
+     * Resolve POMs from the local repository.
+     */
+    private static class RepositoryModelResolver implements ModelResolver {
+        private final LocalRepository repository;
+        /** Repositories declared in the POMs being built. */
+        private final List<String> remotes;
+
+        RepositoryModelResolver(LocalRepository repository) {
+            this(repository, new ArrayList<String>());
+        }
+
+        private RepositoryModelResolver(LocalRepository repository, List<String> remotes) {
+            this.repository = repository;
+            this.remotes = remotes;
+        }
+
+        @Override
+        public ModelSource2 resolveModel(String groupId, String artifactId, String version) throws UnresolvableModelException {
+            if (version == null || version.startsWith("[") || version.startsWith("(")) {
+                throw new UnresolvableModelException("Version ranges are not supported", groupId, artifactId, version);
+            }
+            File pom = repository.findPom(groupId, artifactId, version, remotes);
+            if (pom == null) {
+                throw new UnresolvableModelException(String.format("POM not found in %s or remote repositories",
+                        repository.getDirectory()), groupId, artifactId, version);
+            }
+            return new FileModelSource(pom);
+        }
+
+        @Override
+        public ModelSource2 resolveModel(Parent parent) throws UnresolvableModelException {
+            return resolveModel(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+        }
+
+        @Override
+        public ModelSource2 resolveModel(Dependency dependency) throws UnresolvableModelException {
+            return resolveModel(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+        }
+
+        @Override
+        public void addRepository(Repository repository) {
+            addRepository(repository, false);
+        }
+
+        @Override
+        public void addRepository(Repository repository, boolean replace) {
+            String url = repository.getUrl();
+            if (url != null && !remotes.contains(url) && (repository.getReleases() == null
+                    || repository.getReleases().isEnabled())) {
+                remotes.add(url);
+            }
+        }
+
+        @Override
+        public ModelResolver newCopy() {
+            return new RepositoryModelResolver(repository, new ArrayList<String>(remotes));
+        }
+    }
+
+    /**
+     * Model cache shared by all builds, least recently used entries are dropped.
+     */
+    private static class SharedModelCache implements ModelCache {
+        private final Map<List<String>, Object> cache;
+
+        SharedModelCache(final int maxEntries) {
+            cache = new LinkedHashMap<List<String>, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, Object> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        @Override
+        public void put(String groupId, String artifactId, String version, String tag, Object data) {
+            synchronized (cache) {
+                cache.put(Arrays.asList(groupId, artifactId, version, tag), data);
+            }
+        }
+
+        @Override
+        public Object get(String groupId, String artifactId, String version, String tag) {
+            synchronized (cache) {
+                return cache.get(Arrays.asList(groupId, artifactId, version, tag));
+            }
+        }
+    }
+}
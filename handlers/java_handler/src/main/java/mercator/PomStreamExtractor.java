@@ -0,0 +1,243 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extract data from a POM in a single pass with StAX.
+ *
+ * Produces the same result as {@link MavenUtils#getPomXmlEntries(org.w3c.dom.Document, boolean)},
+ * without building a DOM: only the extracted values are kept in memory, every
+ * other element is skipped as it is read.
+ */
+public class PomStreamExtractor {
+
+    private static final List<String> KEYS = Arrays.asList("groupId", "artifactId", "version", "name", "url",
+            "description");
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private PomStreamExtractor() {
+    }
+
+    /**
+     * Check if POMs should be read with this extractor.
+     *
+     * @return false if MERCATOR_JAVA_POM_PARSER is "dom", true otherwise
+     */
+    public static boolean enabled() {
+        return !"dom".equalsIgnoreCase(System.getenv("MERCATOR_JAVA_POM_PARSER"));
+    }
+
+    /**
+     * Extract data from the given POM.
+     *
+     * @param input, POM to read
+     * @param ignoreDescription, whether to leave out the description
+     * @return extracted data, empty if the POM can't be parsed
+     */
+    public static Map<String, Map> extract(InputStream input, boolean ignoreDescription) {
+        Map<String, Map> result = new HashMap<String, Map>();
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(input);
+            Map pomData = readProject(reader, ignoreDescription);
+            result.put("pom.xml", pomData);
+        } catch (XMLStreamException ex) {
+            ex.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    // nothing left to read
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map readProject(XMLStreamReader reader, boolean ignoreDescription) throws XMLStreamException {
+        Map pomData = new HashMap();
+        DependencySet dependencies = new DependencySet();
+        List<String> licenses = new ArrayList<String>();
+        pomData.put("dependencies", dependencies);
+        pomData.put("licenses", licenses);
+
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        if (!reader.isStartElement() || !"project".equals(name(reader))) {
+            return pomData;
+        }
+
+        while (nextChild(reader)) {
+            String name = name(reader);
+            if ("dependencies".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("dependency".equals(name(reader))) {
+                        readDependency(reader, dependencies);
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if ("licenses".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("license".equals(name(reader))) {
+                        while (nextChild(reader)) {
+                            if ("name".equals(name(reader))) {
+                                licenses.add(text(reader));
+                            } else {
+                                skip(reader);
+                            }
+                        }
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if ("scm".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("url".equals(name(reader)) && !pomData.containsKey("scm_url")) {
+                        pomData.put("scm_url", text(reader));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if (KEYS.contains(name) && !pomData.containsKey(name)
+                    && !(ignoreDescription && "description".equals(name))) {
+                pomData.put(name, text(reader));
+            } else {
+                skip(reader);
+            }
+        }
+        return pomData;
+    }
+
+    private static void readDependency(XMLStreamReader reader, DependencySet dependencies) throws XMLStreamException {
+        String groupId = null, artifactId = null, version = "", classifier = "", type = "";
+        boolean versionSeen = false, classifierSeen = false, typeSeen = false;
+        Set<String> scopes = new LinkedHashSet<String>();
+        while (nextChild(reader)) {
+            String name = name(reader);
+            if ("groupId".equals(name) && groupId == null) {
+                groupId = text(reader);
+            } else if ("artifactId".equals(name) && artifactId == null) {
+                artifactId = text(reader);
+            } else if ("version".equals(name) && !versionSeen) {
+                version = text(reader);
+                versionSeen = true;
+            } else if ("classifier".equals(name) && !classifierSeen) {
+                classifier = text(reader);
+                classifierSeen = true;
+            } else if ("type".equals(name) && !typeSeen) {
+                type = text(reader);
+                typeSeen = true;
+            } else if ("scope".equals(name)) {
+                scopes.add(text(reader));
+            } else {
+                // exclusions and anything else
+                skip(reader);
+            }
+        }
+        MavenUtils.addDependency(dependencies, groupId, artifactId, version, type, classifier, scopes);
+    }
+
+    /**
+     * Move to the next child element of the current element.
+     *
+     * @return false when the end of the current element was reached instead
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skip the current element, including all its content.
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Read text content of the current element, like {@link org.w3c.dom.Node#getTextContent()}.
+     */
+    private static String text(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get qualified name of the current element, as seen by a DOM parser that is not namespace aware.
+     */
+    private static String name(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        if (prefix == null || prefix.isEmpty()) {
+            return reader.getLocalName();
+        }
+        return prefix + ":" + reader.getLocalName();
+    }
+}
@@ -0,0 +1,303 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * On-disk cache of archive scan results.
+ *
+ * Results are stored as JSON files named by the SHA-256 of the cache key.
+ * Keys always include {@link #CACHE_VERSION} and the scan settings, so results
+ * produced by older versions of the handler are never returned; they simply
+ * age out. The total size of the cache is bounded, least recently used
+ * entries are evicted first.
+ */
+public class ResultCache {
+
+    /**
+     * Bump whenever the shape or content of scan results changes.
+     */
+    static final int CACHE_VERSION = 2;
+
+    private final Path directory;
+    private final long maxSize;
+    private final String settings;
+
+    /** Cached files by name, in access order. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory, where to store the results
+     * @param maxSize, maximum total size of stored results, in bytes
+     * @param settings, description of settings affecting the results
+     * @throws IOException
+     */
+    public ResultCache(File directory, long maxSize, String settings) throws IOException {
+        this.directory = directory.toPath();
+        this.maxSize = maxSize;
+        this.settings = settings;
+        Files.createDirectories(this.directory);
+        loadIndex();
+    }
+
+    /**
+     * Open cache configured by MERCATOR_JAVA_CACHE_DIR and MERCATOR_JAVA_CACHE_MAX_SIZE.
+     *
+     * @param options, scan options the cached results depend on
+     * @return cache, or null when caching is disabled or the cache can't be opened
+     */
+    public static ResultCache fromEnvironment(ScanOptions options) {
+        String dir = System.getenv("MERCATOR_JAVA_CACHE_DIR");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        long maxSize = ScanOptions.getenv("MERCATOR_JAVA_CACHE_MAX_SIZE", 256L * 1024 * 1024);
+        try {
+            return new ResultCache(new File(dir), maxSize, options.toString());
+        } catch (IOException ex) {
+            System.err.println(String.format("Result cache disabled: %s", ex));
+            return null;
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(".json")) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        final Map<Path, Long> modified = new LinkedHashMap<Path, Long>();
+        for (Path file : files) {
+            modified.put(file, file.toFile().lastModified());
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(modified.get(a), modified.get(b));
+            }
+        });
+        synchronized (this) {
+            for (Path file : files) {
+                long length = file.toFile().length();
+                index.put(directory.relativize(file).toString(), length);
+                size += length;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Compute key of a file from its content.
+     *
+     * @param file, file to digest
+     * @return cache key
+     * @throws IOException
+     */
+    public static String fileKey(File file) throws IOException {
+        return "file:" + toHex(digest(file));
+    }
+
+    /**
+     * Compute SHA-256 of a file.
+     */
+    static byte[] digest(File file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Compute key of a bundled archive from its archive entry.
+     *
+     * @param crc, CRC-32 of the uncompressed entry
+     * @param size, uncompressed size of the entry
+     * @param depth, nesting depth of the entry
+     * @return cache key
+     */
+    public static String entryKey(long crc, long size, int depth) {
+        return String.format("entry:%08x:%d:%d", crc, size, depth);
+    }
+
+    /**
+     * Get cached result.
+     *
+     * @param key, cache key
+     * @return result, null if not cached
+     */
+    public Map<String, Object> get(String key) {
+        String name = fileName(key);
+        synchronized (this) {
+            // get() rather than containsKey(), to bump the entry in the access order
+            if (index.get(name) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        Path file = directory.resolve(name);
+        try {
+            String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Map<String, Object> result = (Map<String, Object>) new JSONParser().parse(json);
+            // remember the access for the next run
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException | ParseException | ClassCastException ex) {
+            // evicted by another process or damaged, forget about it
+            synchronized (this) {
+                Long length = index.remove(name);
+                if (length != null) {
+                    size -= length;
+                }
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store result.
+     *
+     * @param key, cache key
+     * @param result, result to store
+     */
+    public void put(String key, Map<String, Object> result) {
+        String name = fileName(key);
+        byte[] json = JSONObject.toJSONString(result).getBytes(StandardCharsets.UTF_8);
+        if (json.length > maxSize) {
+            return;
+        }
+        Path file = directory.resolve(name);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), "result", ".tmp");
+            Files.write(tmp, json);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.err.println(String.format("Unable to cache result: %s", ex));
+            return;
+        }
+        synchronized (this) {
+            Long previous = index.put(name, (long) json.length);
+            size += json.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException ex) {
+                System.err.println(String.format("Unable to evict cached result: %s", ex));
+            }
+            size -= eldest.getValue();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private String fileName(String key) {
+        MessageDigest digest = sha256();
+        digest.update(String.format("%d\n%s\n%s", CACHE_VERSION, settings, key).getBytes(StandardCharsets.UTF_8));
+        String hex = toHex(digest.digest());
+        return hex.substring(0, 2) + File.separator + hex + ".json";
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d, evictions: %d, size: %d", getHits(), getMisses(), getEvictions(), getSize());
+    }
+}
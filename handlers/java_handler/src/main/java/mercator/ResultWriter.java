@@ -0,0 +1,44 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Streaming writer of results, in JSON or CBOR.
+ */
+public interface ResultWriter extends Flushable {
+
+    ResultWriter beginObject() throws IOException;
+
+    ResultWriter endObject() throws IOException;
+
+    ResultWriter beginArray() throws IOException;
+
+    ResultWriter endArray() throws IOException;
+
+    /**
+     * Write name of the next object member.
+     */
+    ResultWriter name(String name) throws IOException;
+
+    /**
+     * Write a value: null, string, number, boolean, map or collection; maps and
+     * collections are written recursively, anything else as its string value.
+     */
+    ResultWriter value(Object value) throws IOException;
+}
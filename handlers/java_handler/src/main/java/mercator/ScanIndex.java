@@ -0,0 +1,600 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of batch results, for incremental rescans of the same files.
+ *
+ * The index directory holds two append-only files: "results", with the JSON
+ * results one after the other, and "index", with a record per analysed file:
+ * path, size, modification time, SHA-256 of the content and location of the
+ * result. Later records for a path supersede earlier ones, deletions are
+ * recorded with a size of -1.
+ *
+ * Files whose size and modification time match their record are not opened
+ * at all; when only the modification time differs, the content hash decides.
+ * The index is memory-mapped when loaded and only a table of record offsets
+ * is kept on the heap, so that large indexes load quickly. Lookups see the
+ * index as it was loaded, records appended during a run are for the next one.
+ *
+ * The index is only valid for the settings and output format it was created
+ * with, otherwise it starts over. When closed, both files are rewritten
+ * without superseded records if those make up most of the index.
+ */
+public class ScanIndex implements Closeable {
+
+    private static final int MAGIC = 0x4d494458;
+
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 32;
+    /** Record size without the path: size, mtime, flags, hash, result offset and length. */
+    private static final int RECORD_SIZE = 8 + 8 + 1 + 32 + 8 + 4;
+    private static final long DELETED = -1;
+    /** Modification time too close to the time of recording to notice changes made right after. */
+    private static final byte RACY = 1;
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private final File directory;
+    private final byte[] settingsDigest;
+    private FileChannel indexChannel;
+    private FileChannel resultsChannel;
+    private long indexSize;
+    private volatile long resultsSize;
+
+    /** Records as loaded. */
+    private MappedByteBuffer records;
+    /** Open addressing table of record offsets plus one, latest record per path; 0 for empty slots. */
+    private int[] table = new int[1024];
+    private int paths = 0;
+    private int live = 0;
+    private long recordCount = 0;
+
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong analysed = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    /**
+     * @param directory, where to keep the index, created if needed
+     * @param settings, description of settings affecting the results
+     * @throws IOException
+     */
+    public ScanIndex(File directory, String settings) throws IOException {
+        this.directory = directory;
+        MessageDigest digest = ResultCache.sha256();
+        digest.update(String.format("%d\n%s", ResultCache.CACHE_VERSION, settings).getBytes(StandardCharsets.UTF_8));
+        this.settingsDigest = digest.digest();
+        Files.createDirectories(directory.toPath());
+        open();
+    }
+
+    /**
+     * Open index configured by MERCATOR_JAVA_INDEX_DIR.
+     *
+     * @param options, scan options the results depend on
+     * @param format, output format of the results
+     * @return index, or null when incremental scans are disabled or the index can't be opened
+     */
+    public static ScanIndex fromEnvironment(ScanOptions options, String format) {
+        String dir = System.getenv("MERCATOR_JAVA_INDEX_DIR");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try {
+            return new ScanIndex(new File(dir), String.format("%s, format=%s", options, format));
+        } catch (IOException ex) {
+            System.err.println(String.format("Incremental scans disabled: %s", ex));
+            return null;
+        }
+    }
+
+    private void open() throws IOException {
+        indexChannel = new RandomAccessFile(new File(directory, "index"), "rw").getChannel();
+        resultsChannel = new RandomAccessFile(new File(directory, "results"), "rw").getChannel();
+        indexSize = indexChannel.size();
+        resultsSize = resultsChannel.size();
+        if (indexSize > Integer.MAX_VALUE || !validHeader()) {
+            // different settings or format, start over
+            indexChannel.truncate(0);
+            resultsChannel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).put(settingsDigest).flip();
+            writeFully(indexChannel, header, 0);
+            indexSize = HEADER_SIZE;
+            resultsSize = 0;
+        }
+        records = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+        long end = load();
+        if (end < indexSize) {
+            // incomplete record left by an interrupted run
+            indexChannel.truncate(end);
+            indexSize = end;
+        }
+    }
+
+    private boolean validHeader() throws IOException {
+        if (indexSize < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(indexChannel, header, 0);
+        header.flip();
+        byte[] digest = new byte[32];
+        boolean valid = header.getInt() == MAGIC && header.getInt() == FORMAT;
+        header.get(digest);
+        return valid && Arrays.equals(digest, settingsDigest);
+    }
+
+    /**
+     * Fill the table with the mapped records.
+     *
+     * @return end of the last complete record
+     */
+    private long load() {
+        int pos = HEADER_SIZE;
+        int limit = records.limit();
+        while (pos + 4 <= limit) {
+            int length = records.getInt(pos);
+            if (length < 0 || (long) pos + 4 + length + RECORD_SIZE > limit) {
+                break;
+            }
+            insert(pos);
+            recordCount++;
+            pos += 4 + length + RECORD_SIZE;
+        }
+        for (int slot : table) {
+            if (slot != 0 && size(slot - 1) != DELETED) {
+                live++;
+            }
+        }
+        return pos;
+    }
+
+    private void insert(int record) {
+        if (2 * (paths + 1) > table.length) {
+            int[] old = table;
+            table = new int[old.length * 2];
+            for (int slot : old) {
+                if (slot != 0) {
+                    table[free(slot - 1)] = slot;
+                }
+            }
+        }
+        int index = hash(record) & (table.length - 1);
+        while (table[index] != 0) {
+            if (samePath(table[index] - 1, record)) {
+                table[index] = record + 1;
+                return;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        table[index] = record + 1;
+        paths++;
+    }
+
+    private int free(int record) {
+        int index = hash(record) & (table.length - 1);
+        while (table[index] != 0) {
+            index = (index + 1) & (table.length - 1);
+        }
+        return index;
+    }
+
+    private int hash(int record) {
+        int length = records.getInt(record);
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + records.get(record + 4 + i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(byte[] path) {
+        int h = 0;
+        for (byte b : path) {
+            h = 31 * h + b;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean samePath(int a, int b) {
+        int length = records.getInt(a);
+        if (records.getInt(b) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (records.get(a + 4 + i) != records.get(b + 4 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find latest record of a path.
+     *
+     * @return record offset, -1 if the path was never recorded
+     */
+    private int find(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int index = hash(bytes) & (table.length - 1);
+        while (table[index] != 0) {
+            int record = table[index] - 1;
+            if (records.getInt(record) == bytes.length && pathEquals(record, bytes)) {
+                return record;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    private boolean pathEquals(int record, byte[] path) {
+        for (int i = 0; i < path.length; i++) {
+            if (records.get(record + 4 + i) != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String path(int record) {
+        byte[] bytes = new byte[records.getInt(record)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = records.get(record + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int fields(int record) {
+        return record + 4 + records.getInt(record);
+    }
+
+    private long size(int record) {
+        return records.getLong(fields(record));
+    }
+
+    private long mtime(int record) {
+        return records.getLong(fields(record) + 8);
+    }
+
+    private byte flags(int record) {
+        return records.get(fields(record) + 16);
+    }
+
+    private byte[] digest(int record) {
+        byte[] digest = new byte[32];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = records.get(fields(record) + 17 + i);
+        }
+        return digest;
+    }
+
+    private long resultOffset(int record) {
+        return records.getLong(fields(record) + 49);
+    }
+
+    private int resultLength(int record) {
+        return records.getInt(fields(record) + 57);
+    }
+
+    /**
+     * Look a file up, reusing its result if it didn't change since it was recorded.
+     *
+     * @param file, file to look up
+     * @return lookup, with the recorded result if still valid
+     * @throws IOException when the file can't be read
+     */
+    public Lookup lookup(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Lookup lookup = new Lookup(file, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        int record = find(lookup.path);
+        if (record < 0 || size(record) != lookup.size) {
+            return lookup;
+        }
+        if (mtime(record) == lookup.mtime && (flags(record) & RACY) == 0) {
+            lookup.result = readResult(resultOffset(record), resultLength(record));
+            if (lookup.result != null) {
+                unchanged.incrementAndGet();
+            }
+            return lookup;
+        }
+        // touched, or modified too soon after being recorded to tell
+        lookup.digest = ResultCache.digest(file);
+        if (Arrays.equals(lookup.digest, digest(record))) {
+            lookup.result = readResult(resultOffset(record), resultLength(record));
+            if (lookup.result != null) {
+                verified.incrementAndGet();
+                append(lookup, resultOffset(record), resultLength(record));
+            }
+        }
+        return lookup;
+    }
+
+    /**
+     * Record result of a file which had to be analysed.
+     *
+     * Results of scans which failed or ran out of budget are not recorded,
+     * so that the file is analysed again next time.
+     *
+     * @param lookup, lookup of the file made before analysing it
+     * @param result, result of the file
+     * @param complete, false if the scan failed or ran out of budget
+     */
+    public void put(Lookup lookup, byte[] result, boolean complete) {
+        analysed.incrementAndGet();
+        if (!complete) {
+            return;
+        }
+        try {
+            if (lookup.digest == null) {
+                lookup.digest = ResultCache.digest(lookup.file);
+            }
+            synchronized (this) {
+                long offset = resultsSize;
+                writeFully(resultsChannel, ByteBuffer.wrap(result), offset);
+                resultsSize += result.length;
+                append(lookup, offset, result.length);
+            }
+        } catch (IOException ex) {
+            System.err.println(String.format("Unable to index result: %s", ex));
+        }
+    }
+
+    private synchronized void append(Lookup lookup, long resultOffset, int resultLength) throws IOException {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        byte flags = now - lookup.mtime < RACY_WINDOW ? RACY : 0;
+        appendRecord(lookup.path, lookup.size, lookup.mtime, flags, lookup.digest, resultOffset, resultLength);
+    }
+
+    private void appendRecord(String path, long size, long mtime, byte flags, byte[] digest, long resultOffset,
+                              int resultLength) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length + RECORD_SIZE);
+        record.putInt(bytes.length).put(bytes).putLong(size).putLong(mtime).put(flags).put(digest)
+                .putLong(resultOffset).putInt(resultLength).flip();
+        writeFully(indexChannel, record, indexSize);
+        indexSize += record.capacity();
+        recordCount++;
+    }
+
+    /**
+     * Check if the file is recorded and not deleted.
+     */
+    public boolean contains(File file) {
+        int record = find(file.getAbsolutePath());
+        return record >= 0 && size(record) != DELETED;
+    }
+
+    /**
+     * Find recorded files in a directory which are not there anymore.
+     *
+     * @param dir, directory which was walked
+     * @param found, paths of the files found in it
+     * @return files no longer found, as children of the directory
+     */
+    public List<File> missing(File dir, Collection<String> found) {
+        String prefix = dir.getAbsolutePath();
+        if (!prefix.endsWith(File.separator)) {
+            prefix += File.separator;
+        }
+        Set<String> present = new HashSet<String>();
+        for (String path : found) {
+            present.add(new File(path).getAbsolutePath());
+        }
+        List<String> missing = new ArrayList<String>();
+        for (int slot : table) {
+            if (slot == 0 || size(slot - 1) == DELETED) {
+                continue;
+            }
+            String path = path(slot - 1);
+            if (path.startsWith(prefix) && !present.contains(path)) {
+                missing.add(path.substring(prefix.length()));
+            }
+        }
+        Collections.sort(missing);
+        List<File> files = new ArrayList<File>(missing.size());
+        for (String path : missing) {
+            files.add(new File(dir, path));
+        }
+        return files;
+    }
+
+    /**
+     * Record deletion of a file.
+     */
+    public void delete(File file) {
+        deleted.incrementAndGet();
+        try {
+            synchronized (this) {
+                appendRecord(file.getAbsolutePath(), DELETED, 0, (byte) 0, new byte[32], 0, 0);
+            }
+        } catch (IOException ex) {
+            System.err.println(String.format("Unable to index deletion: %s", ex));
+        }
+    }
+
+    private byte[] readResult(long offset, int length) throws IOException {
+        if (offset + length > resultsSize) {
+            return null;
+        }
+        ByteBuffer result = ByteBuffer.allocate(length);
+        readFully(resultsChannel, result, offset);
+        return result.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of index");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Close the index, compacting it first if most records are superseded.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (recordCount - live > live + 1024) {
+                compact();
+            }
+        } finally {
+            indexChannel.close();
+            resultsChannel.close();
+        }
+    }
+
+    /**
+     * Rewrite the index with the latest record of each file and only the results these refer to.
+     */
+    private void compact() throws IOException {
+        records = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexSize);
+        table = new int[1024];
+        paths = 0;
+        live = 0;
+        recordCount = 0;
+        load();
+
+        List<Integer> latest = new ArrayList<Integer>();
+        for (int slot : table) {
+            if (slot != 0 && size(slot - 1) != DELETED) {
+                latest.add(slot - 1);
+            }
+        }
+        // keep the order they were recorded in
+        Collections.sort(latest);
+
+        File index = new File(directory, "index.tmp");
+        File results = new File(directory, "results.tmp");
+        try (FileChannel newIndex = new RandomAccessFile(index, "rw").getChannel();
+             FileChannel newResults = new RandomAccessFile(results, "rw").getChannel()) {
+            newIndex.truncate(0);
+            newResults.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).put(settingsDigest).flip();
+            writeFully(newIndex, header, 0);
+            long indexPosition = HEADER_SIZE;
+            long resultsPosition = 0;
+            for (int record : latest) {
+                byte[] result = readResult(resultOffset(record), resultLength(record));
+                if (result == null) {
+                    continue;
+                }
+                writeFully(newResults, ByteBuffer.wrap(result), resultsPosition);
+                int length = records.getInt(record);
+                ByteBuffer copy = ByteBuffer.allocate(4 + length + RECORD_SIZE);
+                for (int i = 0; i < copy.capacity() - 12; i++) {
+                    copy.put(records.get(record + i));
+                }
+                copy.putLong(resultsPosition).putInt(result.length).flip();
+                writeFully(newIndex, copy, indexPosition);
+                indexPosition += copy.capacity();
+                resultsPosition += result.length;
+            }
+        }
+        move(results, new File(directory, "results"));
+        move(index, new File(directory, "index"));
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    public long getVerified() {
+        return verified.get();
+    }
+
+    public long getAnalysed() {
+        return analysed.get();
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("unchanged: %d, verified: %d, analysed: %d, deleted: %d", getUnchanged(), getVerified(),
+                getAnalysed(), getDeleted());
+    }
+
+    /**
+     * State of a file when it was looked up.
+     */
+    public static class Lookup {
+        final File file;
+        final String path;
+        final long size;
+        final long mtime;
+        byte[] digest;
+        byte[] result;
+
+        Lookup(File file, long size, long mtime) {
+            this.file = file;
+            this.path = file.getAbsolutePath();
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        /**
+         * @return recorded result, null if the file has to be analysed
+         */
+        public byte[] getResult() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+
+/**
+ * Settings for {@link ArchiveScanner}.
+ *
+ * Defaults can be overridden through MERCATOR_JAVA_* environment variables,
+ * see {@link #fromEnvironment()}.
+ */
+public class ScanOptions {
+
+    private boolean randomAccess = true;
+    private int maxNestingDepth = 8;
+    private long maxNestedSize = 1024L * 1024 * 1024;
+    private boolean resolvePoms = false;
+    private long maxInflatedSize = 16L * 1024 * 1024 * 1024;
+    private long maxEntries = 2000000;
+    private long maxScanTime = 10 * 60 * 1000;
+    private int nestedParallelism = 1;
+    private long nestedBufferSize = 256L * 1024 * 1024;
+    private File fingerprintIndex = null;
+
+    /**
+     * Get options with overrides from the environment.
+     *
+     * MERCATOR_JAVA_STREAM_ARCHIVES - read on-disk archives sequentially (true/false)
+     * MERCATOR_JAVA_MAX_NESTING_DEPTH - how deep to descend into bundled archives
+     * MERCATOR_JAVA_MAX_NESTED_SIZE - maximum inflated size of a bundled archive, in bytes
+     * MERCATOR_JAVA_RESOLVE_POMS - extract data from effective POMs (true/false)
+     * MERCATOR_JAVA_MAX_INFLATED_SIZE - maximum bytes inflated per artifact, bundled archives included
+     * MERCATOR_JAVA_MAX_ENTRIES - maximum entries visited per artifact, bundled archives included
+     * MERCATOR_JAVA_MAX_SCAN_TIME - maximum time spent on one artifact, in milliseconds, 0 for no limit
+     * MERCATOR_JAVA_NESTED_PARALLELISM - threads scanning archives bundled in one artifact, 1 to scan them in order
+     * MERCATOR_JAVA_NESTED_BUFFER_SIZE - memory for bundled archives waiting to be scanned in parallel, in bytes
+     * MERCATOR_JAVA_FINGERPRINT_INDEX - {@link FingerprintIndex} identifying archives without pom.properties
+     *
+     * @return options
+     */
+    public static ScanOptions fromEnvironment() {
+        ScanOptions options = new ScanOptions();
+        options.randomAccess = !Boolean.parseBoolean(System.getenv("MERCATOR_JAVA_STREAM_ARCHIVES"));
+        options.maxNestingDepth = (int) getenv("MERCATOR_JAVA_MAX_NESTING_DEPTH", options.maxNestingDepth);
+        options.maxNestedSize = getenv("MERCATOR_JAVA_MAX_NESTED_SIZE", options.maxNestedSize);
+        options.resolvePoms = MavenUtils.resolvePomsEnabled();
+        options.maxInflatedSize = getenv("MERCATOR_JAVA_MAX_INFLATED_SIZE", options.maxInflatedSize);
+        options.maxEntries = getenv("MERCATOR_JAVA_MAX_ENTRIES", options.maxEntries);
+        options.maxScanTime = getenv("MERCATOR_JAVA_MAX_SCAN_TIME", options.maxScanTime);
+        options.nestedParallelism = (int) getenv("MERCATOR_JAVA_NESTED_PARALLELISM", options.nestedParallelism);
+        options.nestedBufferSize = getenv("MERCATOR_JAVA_NESTED_BUFFER_SIZE", options.nestedBufferSize);
+        String fingerprintIndex = System.getenv("MERCATOR_JAVA_FINGERPRINT_INDEX");
+        if (fingerprintIndex != null && !fingerprintIndex.isEmpty()) {
+            options.fingerprintIndex = new File(fingerprintIndex);
+        }
+        return options;
+    }
+
+    static long getenv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            System.err.println(String.format("Ignoring invalid %s value: %s", name, value));
+            return defaultValue;
+        }
+    }
+
+    public boolean isRandomAccess() {
+        return randomAccess;
+    }
+
+    public ScanOptions setRandomAccess(boolean randomAccess) {
+        this.randomAccess = randomAccess;
+        return this;
+    }
+
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    public ScanOptions setMaxNestingDepth(int maxNestingDepth) {
+        this.maxNestingDepth = maxNestingDepth;
+        return this;
+    }
+
+    public long getMaxNestedSize() {
+        return maxNestedSize;
+    }
+
+    public ScanOptions setMaxNestedSize(long maxNestedSize) {
+        this.maxNestedSize = maxNestedSize;
+        return this;
+    }
+
+    public boolean isResolvePoms() {
+        return resolvePoms;
+    }
+
+    public ScanOptions setResolvePoms(boolean resolvePoms) {
+        this.resolvePoms = resolvePoms;
+        return this;
+    }
+
+    public long getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    public ScanOptions setMaxInflatedSize(long maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+        return this;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public ScanOptions setMaxEntries(long maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    public long getMaxScanTime() {
+        return maxScanTime;
+    }
+
+    public ScanOptions setMaxScanTime(long maxScanTime) {
+        this.maxScanTime = maxScanTime;
+        return this;
+    }
+
+    public int getNestedParallelism() {
+        return nestedParallelism;
+    }
+
+    public ScanOptions setNestedParallelism(int nestedParallelism) {
+        this.nestedParallelism = nestedParallelism;
+        return this;
+    }
+
+    public long getNestedBufferSize() {
+        return nestedBufferSize;
+    }
+
+    public ScanOptions setNestedBufferSize(long nestedBufferSize) {
+        this.nestedBufferSize = nestedBufferSize;
+        return this;
+    }
+
+    public File getFingerprintIndex() {
+        return fingerprintIndex;
+    }
+
+    /**
+     * @param fingerprintIndex, index identifying archives by their classes, null to leave them unidentified
+     */
+    public ScanOptions setFingerprintIndex(File fingerprintIndex) {
+        this.fingerprintIndex = fingerprintIndex;
+        return this;
+    }
+
+    /**
+     * Describe the settings results depend on; parallelism doesn't change them.
+     */
+    @Override
+    public String toString() {
+        return String.format("randomAccess=%s, maxNestingDepth=%d, maxNestedSize=%d, maxInflatedSize=%d, "
+                + "maxEntries=%d, maxScanTime=%d, resolvePoms=%s, inProcessPoms=%s, fingerprintIndex=%s",
+                randomAccess, maxNestingDepth, maxNestedSize, maxInflatedSize, maxEntries, maxScanTime, resolvePoms,
+                PomModelBuilder.enabled(),
+                fingerprintIndex == null ? "none" : fingerprintIndex + "@" + fingerprintIndex.lastModified());
+    }
+}
@@ -0,0 +1,69 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters collected while scanning archives.
+ *
+ * One instance can be shared by scanners running on several threads.
+ */
+public class ScanStats {
+
+    /** Archive entries seen, directories excluded. */
+    final AtomicLong entriesVisited = new AtomicLong();
+    /** Entries which were not looked at further. */
+    final AtomicLong entriesSkipped = new AtomicLong();
+    /** Bundled archives scanned. */
+    final AtomicLong archivesDescended = new AtomicLong();
+    /** Bundled archives not scanned because of the nesting depth limit. */
+    final AtomicLong tooDeep = new AtomicLong();
+    /** Bundled archives not scanned because of the size limit. */
+    final AtomicLong tooLarge = new AtomicLong();
+    /** Artifacts only partially scanned because of the per-artifact limits. */
+    final AtomicLong truncated = new AtomicLong();
+
+    public long getEntriesVisited() {
+        return entriesVisited.get();
+    }
+
+    public long getEntriesSkipped() {
+        return entriesSkipped.get();
+    }
+
+    public long getArchivesDescended() {
+        return archivesDescended.get();
+    }
+
+    public long getTooDeep() {
+        return tooDeep.get();
+    }
+
+    public long getTooLarge() {
+        return tooLarge.get();
+    }
+
+    public long getTruncated() {
+        return truncated.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entries visited: %d, skipped: %d, archives descended: %d, too deep: %d, too large: %d, "
+                + "truncated: %d", getEntriesVisited(), getEntriesSkipped(), getArchivesDescended(), getTooDeep(),
+                getTooLarge(), getTruncated());
+    }
+}
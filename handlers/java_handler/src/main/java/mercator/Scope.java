@@ -0,0 +1,53 @@
+package mercator;
+/*
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Mercator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mercator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Mercator. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maven dependency scopes.
+ */
+public enum Scope {
+    COMPILE, PROVIDED, RUNTIME, TEST, SYSTEM, IMPORT;
+
+    private static final Map<String, Scope> BY_ID = new HashMap<String, Scope>();
+
+    static {
+        for (Scope scope : values()) {
+            BY_ID.put(scope.id, scope);
+        }
+    }
+
+    private final String id = name().toLowerCase(Locale.ROOT);
+
+    /**
+     * @return name of the scope as written in POMs
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * Get the scope with the given name, as written in POMs.
+     *
+     * @return scope, null if the name is not that of a Maven scope
+     */
+    public static Scope of(Object id) {
+        return BY_ID.get(id);
+    }
+}
@@ -0,0 +1,390 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveScannerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ArchiveScanner scanner(ScanOptions options) {
+        return new ArchiveScanner(options, new ScanStats());
+    }
+
+    private static TestArchives war() throws IOException {
+        return new TestArchives("war")
+                .pomProperties("org.example", "webapp", "1.0")
+                .classes(200)
+                .entry("WEB-INF/lib/first.jar", new TestArchives("first")
+                        .pomProperties("org.example", "first", "1.1").classes(10).toBytes())
+                .entry("WEB-INF/lib/second.jar", new TestArchives("second")
+                        .pomProperties("org.example", "second", "1.2").toBytes())
+                .entry("WEB-INF/web.xml", "<web-app/>");
+    }
+
+    @Test
+    public void testRandomAccessMatchesStreaming() throws IOException {
+        File file = war().writeTo(tmp.newFile("webapp.war"));
+
+        Map<String, Object> randomAccess = scanner(new ScanOptions().setRandomAccess(true)).scan(file);
+        Map<String, Object> streaming = scanner(new ScanOptions().setRandomAccess(false)).scan(file);
+
+        assertEquals(new JSONObject(streaming).toString(), new JSONObject(randomAccess).toString());
+        assertEquals("WAR", randomAccess.get("kind"));
+        List<Map<String, Object>> bundled = (List<Map<String, Object>>) randomAccess.get("bundled");
+        assertEquals(2, bundled.size());
+        assertEquals("first", ((Map) bundled.get(0).get("maven_id")).get("artifactId"));
+        assertEquals("JAR", bundled.get(1).get("kind"));
+    }
+
+    @Test
+    public void testFallbackToStreaming() throws IOException {
+        // garbage after the archive hides the central directory from ZipFile
+        byte[] archive = war().toBytes();
+        byte[] padded = new byte[archive.length + 70000];
+        System.arraycopy(archive, 0, padded, 0, archive.length);
+        File file = tmp.newFile("padded.jar");
+        Files.write(file.toPath(), padded);
+
+        Map<String, Object> result = scanner(new ScanOptions().setRandomAccess(true)).scan(file);
+        assertNotNull(result.get("maven_id"));
+        assertEquals(new JSONObject(scanner(new ScanOptions()).scanStream(new ByteArrayInputStream(archive))).get("maven_id"),
+                result.get("maven_id"));
+    }
+
+    /**
+     * EAR containing a WAR containing a JAR, plus resources which are not archives.
+     */
+    private File ear() throws IOException {
+        byte[] jar = new TestArchives("jar")
+                .pomProperties("org.example", "library", "3.0")
+                .classes(20)
+                .entry("org/example/logo.png", new byte[]{(byte) 0x89, 'P', 'N', 'G'})
+                .toBytes();
+        byte[] war = new TestArchives("war")
+                .pomProperties("org.example", "webapp", "2.0")
+                .classes(20)
+                .entry("WEB-INF/lib/library.jar", jar)
+                .entry("WEB-INF/web.xml", "<web-app/>")
+                .toBytes();
+        return new TestArchives("ear")
+                .pomProperties("org.example", "application", "1.0")
+                .entry("META-INF/application.xml", "<application/>")
+                .entry("webapp.war", war)
+                // misnamed archive, found by its magic bytes when streaming
+                .entry("lib/library.bin", jar)
+                .entry("empty.jar", new byte[0])
+                .writeTo(tmp.newFile("application.ear"));
+    }
+
+    private static Map<String, Object> bundled(Map<String, Object> result, int index) {
+        return ((List<Map<String, Object>>) result.get("bundled")).get(index);
+    }
+
+    private static Object artifactId(Map<String, Object> result) {
+        return ((Map) result.get("maven_id")).get("artifactId");
+    }
+
+    @Test
+    public void testNestedArchives() throws IOException {
+        ScanStats stats = new ScanStats();
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions().setRandomAccess(false), stats).scan(ear());
+
+        assertEquals("EAR", result.get("kind"));
+        assertEquals("application", artifactId(result));
+        assertEquals(2, ((List) result.get("bundled")).size());
+        Map<String, Object> war = bundled(result, 0);
+        assertEquals("WAR", war.get("kind"));
+        assertEquals("webapp", artifactId(war));
+        Map<String, Object> jar = bundled(war, 0);
+        assertEquals("JAR", jar.get("kind"));
+        assertEquals("library", artifactId(jar));
+        assertEquals("UNKNOWN", bundled(result, 1).get("kind"));
+
+        // webapp.war, library.jar in it and library.bin
+        assertEquals(3, stats.getArchivesDescended());
+        // 3 * 20 classes, 2 * logo.png, application.xml, web.xml and empty.jar
+        assertEquals(65, stats.getEntriesSkipped());
+    }
+
+    private static Object scanToJson(ArchiveScanner scanner, File file) throws IOException {
+        StringWriter sw = new StringWriter();
+        scanner.scan(file, new JsonWriter(sw));
+        return JSONValue.parse(sw.toString());
+    }
+
+    @Test
+    public void testStreamingOutputMatchesResult() throws IOException {
+        File ear = ear();
+        for (boolean randomAccess : new boolean[]{true, false}) {
+            ScanOptions options = new ScanOptions().setRandomAccess(randomAccess);
+            Object expected = JSONValue.parse(new JSONObject(scanner(options).scan(ear)).toString());
+            assertEquals(expected, scanToJson(scanner(options), ear));
+        }
+        File jar = new TestArchives("plain").pomProperties("org.example", "plain", "1").writeTo(tmp.newFile("plain.jar"));
+        assertEquals(JSONValue.parse(new JSONObject(scanner(new ScanOptions()).scan(jar)).toString()),
+                scanToJson(scanner(new ScanOptions()), jar));
+    }
+
+    /**
+     * Failures after bundled archives have been written complete the output with an error.
+     */
+    @Test
+    public void testStreamingFailure() throws IOException {
+        byte[] noise = new byte[64 * 1024];
+        new Random(0).nextBytes(noise);
+        byte[] archive = new TestArchives("war")
+                .entry("WEB-INF/lib/first.jar", new TestArchives("first").toBytes())
+                .entry("WEB-INF/lib/second.jar", new TestArchives("second").toBytes())
+                .entry("WEB-INF/noise.bin", noise)
+                .toBytes();
+        // cut the archive in the middle of the last entry, after the bundled JARs
+        byte[] truncated = Arrays.copyOf(archive, archive.length - noise.length / 2);
+        File file = tmp.newFile("truncated.war");
+        Files.write(file.toPath(), truncated);
+
+        Map<String, Object> result = (Map<String, Object>) scanToJson(scanner(new ScanOptions().setRandomAccess(false)), file);
+        assertNotNull(result.get("error"));
+        assertEquals(2, ((List) result.get("bundled")).size());
+    }
+
+    @Test
+    public void testNestedArchivesRandomAccess() throws IOException {
+        ScanStats stats = new ScanStats();
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions(), stats).scan(ear());
+
+        // library.bin is not named like an archive, so it's never inflated
+        assertEquals(1, ((List) result.get("bundled")).size());
+        assertEquals("library", artifactId(bundled(bundled(result, 0), 0)));
+        assertEquals(2, stats.getArchivesDescended());
+    }
+
+    @Test
+    public void testNestingDepthLimit() throws IOException {
+        ScanStats stats = new ScanStats();
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions().setMaxNestingDepth(1), stats).scan(ear());
+
+        Map<String, Object> war = bundled(result, 0);
+        assertEquals("webapp", artifactId(war));
+        assertNull(war.get("bundled"));
+        assertEquals(1, stats.getTooDeep());
+    }
+
+    @Test
+    public void testNestedSizeLimit() throws IOException {
+        ScanStats stats = new ScanStats();
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions().setMaxNestedSize(100), stats).scan(ear());
+
+        assertNull(result.get("bundled"));
+        assertEquals("application", artifactId(result));
+        assertEquals(1, stats.getTooLarge());
+    }
+
+    /**
+     * WAR bundling many JARs, some of them bundling JARs too.
+     */
+    private File libraries() throws IOException {
+        TestArchives war = new TestArchives("war").pomProperties("org.example", "webapp", "1.0");
+        for (int i = 0; i < 20; i++) {
+            TestArchives jar = new TestArchives("lib" + i).pomProperties("org.example", "lib" + i, "1." + i).classes(i * 10);
+            if (i % 3 == 0) {
+                jar.entry("lib/inner.jar", new TestArchives("inner" + i)
+                        .pomProperties("org.example", "inner" + i, "2." + i).toBytes());
+            }
+            war.entry("WEB-INF/lib/lib" + i + ".jar", jar.toBytes());
+            war.entry("WEB-INF/classes/Class" + i + ".class", new byte[]{(byte) 0xCA, (byte) 0xFE});
+        }
+        war.entry("WEB-INF/lib/broken.jar", "not an archive");
+        return war.writeTo(tmp.newFile("libraries.war"));
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws IOException {
+        for (File file : Arrays.asList(ear(), libraries())) {
+            for (boolean randomAccess : new boolean[]{true, false}) {
+                ScanOptions options = new ScanOptions().setRandomAccess(randomAccess);
+                ScanStats stats = new ScanStats();
+                String expected = new JSONObject(new ArchiveScanner(options, stats).scan(file)).toString();
+
+                ScanOptions parallel = new ScanOptions().setRandomAccess(randomAccess).setNestedParallelism(4);
+                ScanStats parallelStats = new ScanStats();
+                assertEquals(expected, new JSONObject(new ArchiveScanner(parallel, parallelStats).scan(file)).toString());
+                assertEquals(stats.getArchivesDescended(), parallelStats.getArchivesDescended());
+                assertEquals(JSONValue.parse(expected), scanToJson(scanner(parallel), file));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBufferLimit() throws IOException {
+        File file = libraries();
+        String expected = new JSONObject(scanner(new ScanOptions()).scan(file)).toString();
+        for (long bufferSize : new long[]{0, 100, 2000}) {
+            for (boolean randomAccess : new boolean[]{true, false}) {
+                ScanOptions options = new ScanOptions().setRandomAccess(randomAccess)
+                        .setNestedParallelism(4).setNestedBufferSize(bufferSize);
+                ArchiveScanner scanner = scanner(options);
+                assertEquals(expected, new JSONObject(scanner.scan(file)).toString());
+                // budget is given back once bundled archives are scanned
+                assertEquals(expected, new JSONObject(scanner.scan(file)).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelLimits() throws IOException {
+        ScanStats stats = new ScanStats();
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions().setMaxNestedSize(100)
+                .setNestedParallelism(4), stats).scan(ear());
+        assertNull(result.get("bundled"));
+        assertEquals(1, stats.getTooLarge());
+
+        result = scanner(new ScanOptions().setMaxEntries(30).setNestedParallelism(4)).scan(libraries());
+        assertEquals("entry count limit exceeded", result.get("truncated"));
+    }
+
+    /**
+     * WAR bundling a JAR with an entry of zeros, which inflates about a thousand times.
+     */
+    private File bomb(int size) throws IOException {
+        byte[] bomb = new TestArchives("bomb")
+                .pomProperties("org.example", "bomb", "1.0")
+                .entry("zeros.bin", new byte[size])
+                .toBytes();
+        return new TestArchives("war")
+                .pomProperties("org.example", "webapp", "1.0")
+                .entry("WEB-INF/lib/bomb.jar", bomb)
+                .entry("WEB-INF/lib/after.jar", new TestArchives("after").toBytes())
+                .writeTo(tmp.newFile());
+    }
+
+    @Test
+    public void testInflatedSizeLimit() throws IOException {
+        File file = bomb(32 * 1024 * 1024);
+        for (boolean randomAccess : new boolean[]{true, false}) {
+            ScanStats stats = new ScanStats();
+            ScanOptions options = new ScanOptions().setRandomAccess(randomAccess).setMaxInflatedSize(4 * 1024 * 1024);
+            Map<String, Object> result = new ArchiveScanner(options, stats).scan(file);
+
+            assertEquals("inflated size limit exceeded", result.get("truncated"));
+            assertEquals("webapp", artifactId(result));
+            // the bomb itself is kept with what was found before it went off
+            assertEquals(1, ((List) result.get("bundled")).size());
+            assertEquals("bomb", artifactId(bundled(result, 0)));
+            assertEquals("inflated size limit exceeded", bundled(result, 0).get("truncated"));
+            assertEquals(1, stats.getTruncated());
+        }
+    }
+
+    @Test
+    public void testEntryCountLimit() throws IOException {
+        File file = new TestArchives("many")
+                .pomProperties("org.example", "many", "1.0")
+                .classes(5000)
+                .writeTo(tmp.newFile("many.jar"));
+        for (boolean randomAccess : new boolean[]{true, false}) {
+            ScanStats stats = new ScanStats();
+            ScanOptions options = new ScanOptions().setRandomAccess(randomAccess).setMaxEntries(1000);
+            Map<String, Object> result = new ArchiveScanner(options, stats).scan(file);
+
+            assertEquals("entry count limit exceeded", result.get("truncated"));
+            assertEquals("many", artifactId(result));
+            assertEquals(1001, stats.getEntriesVisited());
+        }
+    }
+
+    @Test
+    public void testEntryCountLimitIsShared() throws IOException {
+        // the EAR, the WAR and the JAR in it together have more than 20 entries
+        ScanOptions options = new ScanOptions().setRandomAccess(false).setMaxEntries(30);
+        Map<String, Object> result = (Map<String, Object>) scanToJson(scanner(options), ear());
+
+        assertEquals("entry count limit exceeded", result.get("truncated"));
+        Map<String, Object> war = bundled(result, 0);
+        assertEquals("entry count limit exceeded", war.get("truncated"));
+        assertEquals("library", artifactId(bundled(war, 0)));
+    }
+
+    @Test
+    public void testTimeLimit() throws IOException {
+        File file = bomb(128 * 1024 * 1024);
+        ScanOptions options = new ScanOptions().setRandomAccess(false).setMaxScanTime(1);
+        Map<String, Object> result = (Map<String, Object>) scanToJson(scanner(options), file);
+
+        assertEquals("time limit exceeded", result.get("truncated"));
+        assertNull(result.get("error"));
+    }
+
+    @Test
+    public void testTruncatedResultsNotCached() throws IOException {
+        File file = bomb(8 * 1024 * 1024);
+        ResultCache cache = new ResultCache(tmp.newFolder("cache"), 1024 * 1024, "settings");
+        ScanOptions options = new ScanOptions().setMaxInflatedSize(1024 * 1024);
+        assertNotNull(new ArchiveScanner(options, new ScanStats(), cache).scan(file).get("truncated"));
+
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions(), new ScanStats(), cache).scan(file);
+        assertNull(result.get("truncated"));
+        assertEquals(2, ((List) result.get("bundled")).size());
+    }
+
+    @Test
+    public void testModuleAndBundleMetadata() throws IOException {
+        byte[] moduleInfo = ModuleInfoReaderTest.compileModuleInfo(tmp.newFolder("module"));
+        File file = new TestArchives("modular")
+                .attribute("Multi-Release", "true")
+                .attribute("Bundle-SymbolicName", "org.example.app;singleton:=true")
+                .attribute("Export-Package", "org.example.api;version=\"1.0\"")
+                .pomProperties("org.example", "app", "1.0")
+                .classes(5)
+                // unreadable declaration for a later release, the root one wins
+                .entry("META-INF/versions/11/module-info.class", "broken")
+                .entry("module-info.class", moduleInfo)
+                .entry("META-INF/versions/17/org/example/Impl.class", new byte[0])
+                .entry("META-INF/services/org.example.api.Service",
+                        "# providers\norg.example.impl.ServiceImpl\n\norg.example.impl.Other # fallback\n")
+                .entry("OSGI-INF/component.xml", "<component/>")
+                .writeTo(tmp.newFile("modular.jar"));
+
+        for (boolean randomAccess : new boolean[]{true, false}) {
+            Map<String, Object> result = scanner(new ScanOptions().setRandomAccess(randomAccess)).scan(file);
+
+            assertEquals("org.example.app", ((Map) result.get("module_info")).get("name"));
+            Map multiRelease = (Map) result.get("multi_release");
+            assertEquals(true, multiRelease.get("enabled"));
+            assertEquals(Arrays.asList(11, 17), multiRelease.get("releases"));
+            assertEquals(Arrays.asList("org.example.impl.ServiceImpl", "org.example.impl.Other"),
+                    ((Map) result.get("services")).get("org.example.api.Service"));
+            Map osgi = (Map) result.get("osgi");
+            assertEquals("org.example.app", osgi.get("symbolic_name"));
+            assertEquals(Arrays.asList("org.example.api"), osgi.get("export_package"));
+            assertEquals(Arrays.asList("OSGI-INF/component.xml"), osgi.get("osgi_inf"));
+            assertEquals("app", artifactId(result));
+        }
+    }
+
+    @Test
+    public void testNoModuleOrBundleMetadata() throws IOException {
+        Map<String, Object> result = scanner(new ScanOptions()).scan(war().writeTo(tmp.newFile("plain.war")));
+        for (String key : Arrays.asList("module_info", "multi_release", "osgi", "services")) {
+            assertNull(key, result.get(key));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchProcessorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String runBatch(int jobs, String source) throws IOException {
+        return runBatch(jobs, source, new ScanOptions());
+    }
+
+    private String runBatch(int jobs, String source, ScanOptions options) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bos, false, "UTF-8");
+        new BatchProcessor(jobs, out, new ArchiveScanner(options, new ScanStats())).run(Collections.singletonList(source));
+        out.flush();
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testParallelOutputMatchesSerial() throws IOException {
+        File dir = tmp.newFolder("artifacts");
+        for (int i = 0; i < 40; i++) {
+            byte[] nested = new TestArchives("nested-" + i)
+                    .pomProperties("org.example", "nested" + i, "1." + i)
+                    .classes(5)
+                    .toBytes();
+            new TestArchives("artifact-" + i)
+                    .pomProperties("org.example", "artifact" + i, "2." + i)
+                    .classes(i)
+                    .entry("lib/nested" + i + ".jar", nested)
+                    .writeTo(new File(dir, String.format("artifact-%02d.%s", i, i % 3 == 0 ? "war" : "jar")));
+        }
+        // not an archive, reported inline
+        new File(dir, "broken.jar").createNewFile();
+
+        String serial = runBatch(1, dir.getPath());
+        String parallel = runBatch(8, dir.getPath());
+
+        assertEquals(41, serial.split("\n").length);
+        assertTrue(serial.contains("\"artifactId\":\"nested39\""));
+        assertTrue(serial.contains("broken.jar\": {\"error\""));
+        assertEquals(serial, parallel);
+    }
+
+    /**
+     * Paths from a list are used as given, only line terminators are removed.
+     */
+    @Test
+    public void testPathListKeepsWhitespace() throws IOException {
+        File dir = tmp.newFolder("artifacts");
+        File padded = new TestArchives("padded").pomProperties("org.example", "padded", "1.0")
+                .writeTo(new File(dir, " padded.jar "));
+        File list = tmp.newFile("paths.txt");
+        Files.write(list.toPath(), (padded.getPath() + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+        String output = runBatch(1, "@" + list.getPath());
+
+        assertTrue(output, output.startsWith("{" + JSONValue.toJSONString(padded.getPath()) + ": {"));
+        assertTrue(output.contains("\"artifactId\":\"padded\""));
+    }
+
+    /**
+     * Embedded POMs are expanded from memory, nothing is left behind in the temporary directory.
+     */
+    @Test
+    public void testNoTemporaryFilesLeft() throws IOException {
+        File dir = tmp.newFolder("poms");
+        for (int i = 0; i < 5; i++) {
+            String pom = "<project><modelVersion>4.0.0</modelVersion>"
+                    + "<groupId>org.example</groupId><artifactId>artifact" + i + "</artifactId><version>1</version>"
+                    + "<properties><junit.version>4.1" + i + "</junit.version></properties>"
+                    + "<dependencies><dependency><groupId>junit</groupId><artifactId>junit</artifactId>"
+                    + "<version>${junit.version}</version><scope>test</scope></dependency></dependencies>"
+                    + "</project>";
+            new TestArchives("artifact-" + i)
+                    .pomProperties("org.example", "artifact" + i, "1")
+                    .entry("META-INF/maven/org.example/artifact" + i + "/pom.xml", pom)
+                    .classes(3)
+                    .writeTo(new File(dir, "artifact-" + i + ".jar"));
+        }
+        // the shared local repository lives for the whole run
+        LocalRepository.shared();
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        Set<String> before = new HashSet<String>(Arrays.asList(tmpDir.list()));
+
+        String output = runBatch(4, dir.getPath(), new ScanOptions().setResolvePoms(true));
+
+        assertTrue(output, output.contains("\"junit:junit::\":\"4.14\""));
+        Set<String> after = new HashSet<String>(Arrays.asList(tmpDir.list()));
+        after.removeAll(before);
+        // created concurrently by the test runner itself
+        for (Iterator<String> it = after.iterator(); it.hasNext();) {
+            if (it.next().startsWith("surefire")) {
+                it.remove();
+            }
+        }
+        assertEquals(Collections.emptySet(), after);
+    }
+
+    /**
+     * A failing output fails the batch, rather than leaving the inputs waiting for a queue nobody takes from.
+     */
+    @Test(timeout = 60000)
+    public void testOutputFailure() throws IOException {
+        File dir = tmp.newFolder("artifacts");
+        for (int i = 0; i < 20; i++) {
+            new TestArchives("artifact-" + i).classes(1).writeTo(new File(dir, "artifact-" + i + ".jar"));
+        }
+        PrintStream out = new PrintStream(new ByteArrayOutputStream()) {
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                throw new IllegalStateException("broken output");
+            }
+        };
+        try {
+            new BatchProcessor(1, out, new ArchiveScanner()).run(Collections.singletonList(dir.getPath()));
+            fail("Output failure not reported");
+        } catch (IllegalStateException ex) {
+            assertEquals("broken output", ex.getCause().getMessage());
+        }
+    }
+}
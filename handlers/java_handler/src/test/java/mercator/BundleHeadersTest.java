@@ -0,0 +1,40 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+import org.junit.Test;
+
+public class BundleHeadersTest {
+
+    @Test
+    public void testClauseNames() {
+        assertEquals(Collections.emptyList(), BundleHeaders.clauseNames(null));
+        assertEquals(Collections.singletonList("org.example"), BundleHeaders.clauseNames("org.example"));
+        assertEquals(Arrays.asList("a.b", "c.d", "e.f"),
+                BundleHeaders.clauseNames("a.b;c.d;version=\"1.0\",e.f;uses:=\"a.b,c.d\";version=\"[1,2)\""));
+        assertEquals(Arrays.asList("a", "b"), BundleHeaders.clauseNames(" a ; resolution:=optional , b,"));
+    }
+
+    @Test
+    public void testRead() {
+        Attributes attributes = new Attributes();
+        assertNull(BundleHeaders.read(attributes));
+
+        attributes.putValue("Bundle-SymbolicName", "org.example.bundle; singleton:=true");
+        attributes.putValue("Bundle-Version", "1.2.3");
+        attributes.putValue("Export-Package", "org.example.api;version=\"1.2.3\";uses:=\"org.example.spi,org.slf4j\","
+                + "org.example.spi;version=\"1.2.3\"");
+        attributes.putValue("Import-Package", "org.slf4j;version=\"[1.7,2)\"");
+        Map<String, Object> bundle = BundleHeaders.read(attributes);
+        assertEquals("org.example.bundle", bundle.get("symbolic_name"));
+        assertEquals("1.2.3", bundle.get("version"));
+        assertEquals(Arrays.asList("org.example.api", "org.example.spi"), bundle.get("export_package"));
+        assertEquals(Collections.singletonList("org.slf4j"), bundle.get("import_package"));
+    }
+}
@@ -0,0 +1,171 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CborWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String json(Object value) throws IOException {
+        StringWriter sw = new StringWriter();
+        new JsonWriter(sw).value(value).flush();
+        return sw.toString();
+    }
+
+    private static byte[] cbor(Object value, boolean namespace) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CborWriter writer = new CborWriter(bos);
+        if (namespace) {
+            writer.namespace();
+        }
+        writer.value(value).flush();
+        return bos.toByteArray();
+    }
+
+    private static Object decode(byte[] cbor) throws IOException {
+        return new CborReader(new ByteArrayInputStream(cbor)).read();
+    }
+
+    private static Map<String, Object> sample() {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("Implementation-Title", "quotes \" and \\ and / and \t\n\r\b\f");
+        nested.put("control", "\u0001\u001f\u007f\u0085\u2028 caf\u00e9 \u4e2d \ud83d\ude00");
+        nested.put("empty", new HashMap<String, Object>());
+        nested.put("none", null);
+
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 30; i++) {
+            list.add(nested);
+        }
+        list.add(Collections.emptyList());
+        list.add(Arrays.asList(0, 23, 24, 255, 256, 65535, 65536, -1, -24, -25, -257, Long.MAX_VALUE, Long.MIN_VALUE));
+        list.add(Arrays.asList(true, false, 1.5, 0.1, -2.5f, 1e300));
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("bundled", list);
+        result.put("kind", "JAR");
+        result.put("licenses", Arrays.asList("Apache-2.0", "MIT", "Apache-2.0", "MIT"));
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> value = sample();
+        assertEquals(json(value), json(decode(cbor(value, false))));
+        assertEquals(json(value), json(decode(cbor(value, true))));
+    }
+
+    @Test
+    public void testStringReferences() throws IOException {
+        Map<String, Object> value = sample();
+        byte[] plain = cbor(value, false);
+        byte[] referenced = cbor(value, true);
+        assertTrue(referenced.length < plain.length / 3);
+        assertEquals(decode(plain), decode(referenced));
+
+        // references are only used where they are shorter than the string
+        assertFalse(CborWriter.referenced(2, 0));
+        assertTrue(CborWriter.referenced(3, 0));
+        assertFalse(CborWriter.referenced(3, 24));
+        assertTrue(CborWriter.referenced(4, 24));
+        assertFalse(CborWriter.referenced(4, 256));
+        assertTrue(CborWriter.referenced(5, 256));
+        assertFalse(CborWriter.referenced(6, 65536));
+        assertTrue(CborWriter.referenced(7, 65536));
+    }
+
+    /**
+     * Archives written as CBOR decode to the same result as written as JSON.
+     */
+    @Test
+    public void testScanRoundTrip() throws IOException {
+        byte[] jar = new TestArchives("library")
+                .pomProperties("org.example", "library", "1.0")
+                .entry("META-INF/maven/org.example/library/pom.xml",
+                        "<project><groupId>org.example</groupId><artifactId>library</artifactId>"
+                        + "<version>1.0</version><licenses><license><name>MIT</name></license></licenses>"
+                        + "<dependencies><dependency><groupId>junit</groupId><artifactId>junit</artifactId>"
+                        + "<version>4.12</version><scope>test</scope></dependency></dependencies></project>")
+                .classes(3)
+                .toBytes();
+        File war = new TestArchives("application")
+                .attribute("Bundle-SymbolicName", "org.example.application")
+                .pomProperties("org.example", "application", "2.0")
+                .entry("WEB-INF/lib/library.jar", jar)
+                .entry("WEB-INF/lib/library-copy.jar", jar)
+                .writeTo(tmp.newFile("application.war"));
+        ArchiveScanner scanner = new ArchiveScanner(new ScanOptions(), new ScanStats());
+
+        StringWriter sw = new StringWriter();
+        scanner.scan(war, new JsonWriter(sw));
+        sw.flush();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CborWriter writer = new CborWriter(bos).namespace();
+        scanner.scan(war, writer);
+        writer.flush();
+
+        assertTrue(sw.toString().contains("\"symbolic_name\":\"org.example.application\""));
+        assertEquals(sw.toString(), json(decode(bos.toByteArray())));
+        // keys of the scan result are in hash order, unlike those streamed
+        assertEquals(JSONValue.parse(sw.toString()), decode(cbor(scanner.scan(war), true)));
+    }
+
+    /**
+     * Batch output decodes to the same records as the JSON lines.
+     */
+    @Test
+    public void testBatchRoundTrip() throws IOException {
+        File dir = tmp.newFolder("artifacts");
+        for (int i = 0; i < 30; i++) {
+            new TestArchives("artifact-" + i)
+                    .pomProperties("org.example", "artifact" + i, "1." + i)
+                    .classes(i)
+                    .writeTo(new File(dir, String.format("artifact-%02d.jar", i)));
+        }
+        new File(dir, "broken.jar").createNewFile();
+
+        List<Object> expected = new ArrayList<Object>();
+        for (String line : new String(runBatch(dir, false), StandardCharsets.UTF_8).split("\n")) {
+            expected.add(JSONValue.parse(line));
+        }
+        List<Object> actual = new ArrayList<Object>();
+        CborReader reader = new CborReader(new ByteArrayInputStream(runBatch(dir, true)));
+        while (reader.hasNext()) {
+            actual.add(reader.next());
+        }
+        assertEquals(31, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    private static byte[] runBatch(File dir, boolean binary) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bos, false, "UTF-8");
+        new BatchProcessor(4, out, new ArchiveScanner(new ScanOptions(), new ScanStats()))
+                .setBinary(binary)
+                .run(Collections.singletonList(dir.getPath()));
+        out.flush();
+        return bos.toByteArray();
+    }
+}
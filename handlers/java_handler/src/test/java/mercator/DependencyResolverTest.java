@@ -0,0 +1,255 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.model.building.ModelBuildingException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyResolverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File mirror;
+
+    /**
+     * Write POM of org.example:artifactId:version to the mirror.
+     *
+     * @param dependencies, "artifactId:version[:scope][:optional]" of org.example dependencies, or XML
+     */
+    private File writePom(File dir, String artifactId, String version, String extra, String... dependencies)
+            throws IOException {
+        StringBuilder sb = new StringBuilder("<project><modelVersion>4.0.0</modelVersion>"
+                + "<groupId>org.example</groupId><artifactId>" + artifactId + "</artifactId>"
+                + "<version>" + version + "</version>" + extra + "<dependencies>");
+        for (String dependency : dependencies) {
+            if (dependency.startsWith("<")) {
+                sb.append(dependency);
+                continue;
+            }
+            String[] parts = dependency.split(":");
+            sb.append("<dependency><groupId>org.example</groupId><artifactId>").append(parts[0])
+                    .append("</artifactId><version>").append(parts[1]).append("</version>");
+            if (parts.length > 2) {
+                sb.append("<scope>").append(parts[2]).append("</scope>");
+            }
+            if (parts.length > 3) {
+                sb.append("<optional>true</optional>");
+            }
+            sb.append("</dependency>");
+        }
+        sb.append("</dependencies></project>");
+        File file = dir == null
+                ? new File(mirror, LocalRepository.artifactPath("org.example", artifactId, version, "pom"))
+                : new File(dir, "pom.xml");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private File pom(String artifactId, String version, String... dependencies) throws IOException {
+        return writePom(null, artifactId, version, "", dependencies);
+    }
+
+    private DependencyResolver resolver() {
+        return new DependencyResolver(new PomModelBuilder(
+                new LocalRepository(mirror, Collections.<String>emptyList(), true)));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mirror = tmp.newFolder("mirror");
+    }
+
+    /**
+     * Get nodes of the graph as "artifactId:version:scope", edges as "from>to" artifactIds.
+     */
+    private static Map<String, Object> summary(Map<String, Object> graph) {
+        List<Map<String, Object>> nodes = (List<Map<String, Object>>) graph.get("nodes");
+        List<String> nodeList = new ArrayList<String>();
+        List<String> ids = new ArrayList<String>();
+        for (Map<String, Object> node : nodes) {
+            String artifactId = ((String) node.get("id")).split(":")[1];
+            ids.add(artifactId);
+            nodeList.add(artifactId + ":" + node.get("version") + ":" + node.get("scope")
+                    + (node.containsKey("optional") ? ":optional" : ""));
+        }
+        List<String> edgeList = new ArrayList<String>();
+        for (List<Integer> edge : (List<List<Integer>>) graph.get("edges")) {
+            edgeList.add(ids.get(edge.get(0)) + ">" + ids.get(edge.get(1)));
+        }
+        Collections.sort(edgeList);
+        Map<String, Object> summary = new HashMap<String, Object>();
+        summary.put("nodes", nodeList);
+        summary.put("edges", edgeList);
+        summary.put("unresolved", graph.get("unresolved"));
+        return summary;
+    }
+
+    private Map<String, Object> resolve(String... dependencies) throws IOException, ModelBuildingException {
+        File pom = writePom(tmp.newFolder(), "root", "1", "", dependencies);
+        return summary(resolver().resolve(pom));
+    }
+
+    @Test
+    public void testNearestWins() throws IOException, ModelBuildingException {
+        pom("a", "1", "c:1");
+        pom("b", "1", "d:1");
+        pom("d", "1", "c:2", "e:1");
+        pom("c", "1");
+        pom("c", "2");
+        pom("e", "1");
+        pom("e", "2");
+        Map<String, Object> graph = resolve("a:1", "b:1", "e:2");
+
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "b:1:compile", "e:2:compile", "c:1:compile",
+                "d:1:compile"), graph.get("nodes"));
+        // edges point to the selected versions
+        assertEquals(Arrays.asList("a>c", "b>d", "d>c", "d>e", "root>a", "root>b", "root>e"), graph.get("edges"));
+        assertEquals(Collections.emptyList(), graph.get("unresolved"));
+    }
+
+    @Test
+    public void testFirstDeclarationWinsAtSameDepth() throws IOException, ModelBuildingException {
+        pom("a", "1", "c:1");
+        pom("b", "1", "c:2");
+        pom("c", "1");
+        pom("c", "2");
+        assertEquals(Arrays.asList("root:1:null", "b:1:compile", "a:1:compile", "c:2:compile"),
+                resolve("b:1", "a:1").get("nodes"));
+    }
+
+    @Test
+    public void testExclusions() throws IOException, ModelBuildingException {
+        pom("a", "1", "b:1");
+        pom("b", "1", "c:1", "d:1");
+        pom("c", "1");
+        pom("d", "1");
+        pom("e", "1", "c:1");
+        String exclusion = "<dependency><groupId>org.example</groupId><artifactId>a</artifactId><version>1</version>"
+                + "<exclusions><exclusion><groupId>org.example</groupId><artifactId>c</artifactId></exclusion>"
+                + "</exclusions></dependency>";
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "b:1:compile", "d:1:compile"),
+                resolve(exclusion).get("nodes"));
+        // only below the dependency declaring the exclusion
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "e:1:compile", "b:1:compile", "c:1:compile",
+                "d:1:compile"), resolve(exclusion, "e:1").get("nodes"));
+
+        String wildcard = exclusion.replace("<artifactId>c</artifactId></exclusion>", "<artifactId>*</artifactId></exclusion>");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile"), resolve(wildcard).get("nodes"));
+    }
+
+    @Test
+    public void testOptional() throws IOException, ModelBuildingException {
+        pom("a", "1", "b:1:compile:optional");
+        pom("b", "1");
+        pom("c", "1", "d:1");
+        pom("d", "1");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "c:1:compile:optional", "d:1:compile"),
+                resolve("a:1", "c:1:compile:optional").get("nodes"));
+    }
+
+    @Test
+    public void testScopePropagation() throws IOException, ModelBuildingException {
+        pom("a", "1", "r:1:runtime", "t:1:test", "p:1:provided", "c:1");
+        pom("test-lib", "1", "x:1", "y:1:runtime");
+        pom("provided-lib", "1", "z:1:runtime");
+        pom("runtime-lib", "1", "w:1");
+        for (String leaf : Arrays.asList("r", "t", "p", "c", "x", "y", "z", "w")) {
+            pom(leaf, "1");
+        }
+        Map<String, Object> graph = resolve("a:1", "test-lib:1:test", "provided-lib:1:provided", "runtime-lib:1:runtime");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "test-lib:1:test", "provided-lib:1:provided",
+                "runtime-lib:1:runtime", "r:1:runtime", "c:1:compile", "x:1:test", "y:1:test", "z:1:provided",
+                "w:1:runtime"), graph.get("nodes"));
+    }
+
+    @Test
+    public void testScopeWidening() throws IOException, ModelBuildingException {
+        pom("test-lib", "1", "shared:1");
+        pom("a", "1", "b:1");
+        pom("b", "1", "shared:1");
+        pom("shared", "1", "leaf:1");
+        pom("leaf", "1");
+        // shared is nearest through test-lib, but also needed at compile time through a and b
+        assertEquals(Arrays.asList("root:1:null", "test-lib:1:test", "a:1:compile", "shared:1:compile",
+                "b:1:compile", "leaf:1:compile"), resolve("test-lib:1:test", "a:1").get("nodes"));
+    }
+
+    @Test
+    public void testDependencyManagement() throws IOException, ModelBuildingException {
+        pom("a", "1", "c:1");
+        pom("c", "1");
+        pom("c", "3");
+        String managed = "<dependencyManagement><dependencies><dependency><groupId>org.example</groupId>"
+                + "<artifactId>c</artifactId><version>3</version><scope>runtime</scope></dependency>"
+                + "</dependencies></dependencyManagement>";
+        File root = writePom(tmp.newFolder(), "root", "1", managed, "a:1");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "c:3:runtime"),
+                summary(resolver().resolve(root)).get("nodes"));
+    }
+
+    @Test
+    public void testInheritedDependenciesAndProperties() throws IOException, ModelBuildingException {
+        writePom(null, "parent", "1", "<packaging>pom</packaging><properties><c.version>2</c.version></properties>",
+                "d:1");
+        writePom(null, "a", "1", "<parent><groupId>org.example</groupId><artifactId>parent</artifactId>"
+                + "<version>1</version></parent>", "c:${c.version}");
+        pom("c", "2");
+        pom("d", "1");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "c:2:compile", "d:1:compile"),
+                resolve("a:1").get("nodes"));
+    }
+
+    @Test
+    public void testMissingPoms() throws IOException, ModelBuildingException {
+        pom("a", "1", "missing:1");
+        Map<String, Object> graph = resolve("a:1");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "missing:1:compile"), graph.get("nodes"));
+        assertEquals(Collections.singletonList("org.example:missing:jar::1"), graph.get("unresolved"));
+    }
+
+    @Test
+    public void testDependenciesSharedAcrossResolutions() throws IOException, ModelBuildingException {
+        pom("a", "1", "b:1");
+        pom("b", "1");
+        DependencyResolver resolver = resolver();
+        File first = writePom(tmp.newFolder(), "first", "1", "", "a:1");
+        assertEquals(2, ((List) resolver.resolve(first).get("edges")).size());
+
+        // read only once per run
+        LocalRepository.recursiveDelete(mirror.toPath());
+        File second = writePom(tmp.newFolder(), "second", "1", "", "a:1");
+        Map<String, Object> graph = summary(resolver.resolve(second));
+        assertEquals(Arrays.asList("second:1:null", "a:1:compile", "b:1:compile"), graph.get("nodes"));
+        assertEquals(Collections.emptyList(), graph.get("unresolved"));
+    }
+
+    @Test
+    public void testFileMirror() throws IOException, ModelBuildingException {
+        pom("a", "1", "b:1");
+        pom("b", "1");
+        File local = tmp.newFolder("local");
+        DependencyResolver resolver = new DependencyResolver(new PomModelBuilder(new LocalRepository(local,
+                Collections.singletonList(mirror.toURI().toString()), false)));
+        File root = writePom(tmp.newFolder(), "root", "1", "", "a:1");
+        assertEquals(Arrays.asList("root:1:null", "a:1:compile", "b:1:compile"),
+                summary(resolver.resolve(root)).get("nodes"));
+        assertTrue(new File(local, LocalRepository.artifactPath("org.example", "b", "1", "pom")).isFile());
+    }
+}
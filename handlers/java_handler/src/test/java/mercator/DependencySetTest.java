@@ -0,0 +1,169 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class DependencySetTest {
+
+    /**
+     * Dependencies by scope as they were built before, with formatted keys in hash maps.
+     */
+    private static void addToMaps(Map<String, Map> depMap, String groupId, String artifactId, String version,
+                                  String type, String classifier, Set<String> scopes) {
+        for (String scopeName : scopes) {
+            if (!depMap.containsKey(scopeName)) {
+                depMap.put(scopeName, new HashMap<String, Map>());
+            }
+            depMap.get(scopeName).put(String.format("%s:%s:%s:%s", groupId, artifactId, type, classifier), version);
+        }
+    }
+
+    @Test
+    public void testSameAsMaps() {
+        Map<String, Map> expected = new HashMap<String, Map>();
+        DependencySet actual = new DependencySet();
+        Object[][] declarations = {
+            {"junit", "junit", "4.12", "", "", Collections.singleton("test")},
+            {"org.slf4j", "slf4j-api", "1.7.25", "", "", Collections.singleton("compile")},
+            {"d", "f", "1", "test-jar", "tests", new LinkedHashSet<String>(Arrays.asList("test", "provided"))},
+            {"g", "a", "1", "", "", Collections.singleton("testImplementation-like")},
+            // later declarations win
+            {"org.slf4j", "slf4j-api", "1.7.30", "", "", Collections.singleton("compile")},
+        };
+        for (Object[] d : declarations) {
+            @SuppressWarnings("unchecked")
+            Set<String> scopes = (Set<String>) d[5];
+            addToMaps(expected, (String) d[0], (String) d[1], (String) d[2], (String) d[3], (String) d[4], scopes);
+            MavenUtils.addDependency(actual, (String) d[0], (String) d[1], (String) d[2], (String) d[3],
+                    (String) d[4], scopes);
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(JSONValue.parse(JSONValue.toJSONString(expected)), JSONValue.parse(JSONValue.toJSONString(actual)));
+        assertEquals(Collections.singletonMap("org.slf4j:slf4j-api::", "1.7.30"), actual.get("compile"));
+        assertTrue(actual.containsKey("provided"));
+        assertFalse(actual.containsKey("runtime"));
+        assertNull(actual.get("runtime"));
+        assertEquals(5, actual.getDependencies().size());
+    }
+
+    @Test
+    public void testInterned() {
+        Coordinate coordinate = Coordinate.of(new String("junit"), new String("junit"), "", "");
+        assertSame(coordinate, Coordinate.of("junit", "junit", null, null));
+        assertEquals("junit:junit::", coordinate.toString());
+        assertNotEquals(coordinate, Coordinate.of("junit", "junit", "jar", ""));
+        // fields are kept apart
+        assertNotEquals(Coordinate.of("a:b", "c", "", ""), Coordinate.of("a", "b:c", "", ""));
+        assertNotEquals(Coordinate.of("a:b", "c", "", "").fingerprint(), Coordinate.of("a", "b:c", "", "").fingerprint());
+
+        DeclaredDependency dependency = DeclaredDependency.of(coordinate, "4.12", Arrays.asList("test", "provided"));
+        assertSame(dependency, DeclaredDependency.of(coordinate, "4.12", Arrays.asList("provided", "test")));
+        assertNotEquals(dependency, DeclaredDependency.of(coordinate, "4.12", Arrays.asList("test")));
+        assertEquals(EnumSet.of(Scope.TEST, Scope.PROVIDED), dependency.getScopes());
+        assertEquals(Arrays.asList("provided", "test"), dependency.getScopeNames());
+
+        DeclaredDependency gradle = DeclaredDependency.of(coordinate, "4.12", Arrays.asList("test", "apiElements"));
+        assertEquals(EnumSet.of(Scope.TEST), gradle.getScopes());
+        assertTrue(gradle.hasScope("apiElements"));
+        assertFalse(gradle.hasScope("Test"));
+        assertNull(Scope.of("apiElements"));
+        assertEquals(Scope.IMPORT, Scope.of("import"));
+    }
+
+    /**
+     * Dependencies of a large synthetic batch take a fraction of the memory they took as maps.
+     *
+     * Counts the bytes the current thread allocates building them, which
+     * doesn't depend on garbage collection timing. The parsed strings are
+     * made beforehand, as they are garbage either way. Lookups of interned
+     * instances allocate too, what stays on the heap is smaller still.
+     */
+    @Test
+    public void testHeapFootprint() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int poms = 5000;
+        int perPom = 30;
+        List<String[]> common = new ArrayList<String[]>();
+        for (int i = 0; i < 300; i++) {
+            common.add(new String[]{"org.example.group" + (i % 40), "artifact-" + i, "1." + (i % 7) + ".0",
+                i % 4 == 0 ? "test" : "compile"});
+        }
+        // interned dependencies of the first POMs are looked up afterwards
+        fill(parse(common, poms, perPom), true);
+
+        long threadId = Thread.currentThread().getId();
+        String[][][] parsed = parse(common, poms, perPom);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        List<Map<String, Map>> maps = fill(parsed, false);
+        long asMaps = threads.getThreadAllocatedBytes(threadId) - before;
+
+        parsed = parse(common, poms, perPom);
+        before = threads.getThreadAllocatedBytes(threadId);
+        List<Map<String, Map>> sets = fill(parsed, true);
+        long asSets = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(poms, maps.size());
+        assertEquals(poms, sets.size());
+        assertTrue(String.format("%d vs %d", asSets, asMaps), asSets * 2 < asMaps);
+    }
+
+    /**
+     * Dependencies of each POM, parsed into strings of its own.
+     */
+    private static String[][][] parse(List<String[]> common, int poms, int perPom) {
+        Random random = new Random(42);
+        String[][][] parsed = new String[poms][perPom][];
+        for (int i = 0; i < poms; i++) {
+            for (int j = 0; j < perPom; j++) {
+                String[] d = common.get(random.nextInt(common.size()));
+                parsed[i][j] = new String[]{new String(d[0]), new String(d[1]), new String(d[2]), new String(d[3])};
+            }
+        }
+        return parsed;
+    }
+
+    private static List<Map<String, Map>> fill(String[][][] parsed, boolean interned) {
+        List<Map<String, Map>> results = new ArrayList<Map<String, Map>>();
+        for (String[][] pom : parsed) {
+            Map<String, Map> dependencies = interned ? new DependencySet() : new HashMap<String, Map>();
+            for (String[] d : pom) {
+                Set<String> scopes = Collections.singleton(d[3]);
+                if (interned) {
+                    MavenUtils.addDependency((DependencySet) dependencies, d[0], d[1], d[2], "", "", scopes);
+                } else {
+                    addToMaps(dependencies, d[0], d[1], d[2], "", "", scopes);
+                }
+            }
+            results.add(dependencies);
+        }
+        return results;
+    }
+}
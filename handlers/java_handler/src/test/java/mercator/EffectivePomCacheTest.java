@@ -0,0 +1,135 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EffectivePomCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File remote;
+    private File local;
+
+    static String pom(String groupId, String artifactId, String version, String parent) {
+        return String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n<project>%n%s"
+                + "  <groupId>%s</groupId>%n  <artifactId>%s</artifactId>%n  <version>%s</version>%n</project>%n",
+                parent == null ? "" : String.format("  <parent>%n%s  </parent>%n", parent), groupId, artifactId, version);
+    }
+
+    static String parent(String groupId, String artifactId, String version) {
+        return String.format("    <groupId>%s</groupId>%n    <artifactId>%s</artifactId>%n    <version>%s</version>%n",
+                groupId, artifactId, version);
+    }
+
+    static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static void deploy(File repository, String groupId, String artifactId, String version, String content) throws IOException {
+        write(new File(repository, LocalRepository.artifactPath(groupId, artifactId, version, "pom")), content);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        remote = tmp.newFolder("remote");
+        local = tmp.newFolder("local");
+        deploy(remote, "org.example", "grandparent", "1", pom("org.example", "grandparent", "1", null));
+        deploy(remote, "org.example", "parent", "1",
+                pom("org.example", "parent", "1", parent("org.example", "grandparent", "1")));
+    }
+
+    private LocalRepository repository(boolean offline) {
+        return new LocalRepository(local, Collections.singletonList(remote.toURI().toString()), offline);
+    }
+
+    private static Callable<Map<String, Map>> counting(final AtomicInteger counter) {
+        return new Callable<Map<String, Map>>() {
+            @Override
+            public Map<String, Map> call() {
+                counter.incrementAndGet();
+                Map<String, Map> result = new HashMap<String, Map>();
+                result.put("pom.xml", new HashMap<String, String>());
+                return result;
+            }
+        };
+    }
+
+    private static Map<String, Map> get(EffectivePomCache cache, File pom, Callable<Map<String, Map>> expansion) throws IOException {
+        return cache.get(pom, MavenUtils.readFileAsDocument(pom), expansion);
+    }
+
+    @Test
+    public void testIdenticalPomsExpandedOnce() throws IOException {
+        String content = pom("org.example", "child", "1", parent("org.example", "parent", "1"));
+        File first = write(new File(tmp.newFolder("first"), "pom.xml"), content);
+        File second = write(new File(tmp.newFolder("second"), "pom.xml"), content);
+
+        EffectivePomCache cache = new EffectivePomCache(repository(false), 100);
+        AtomicInteger expansions = new AtomicInteger();
+        assertNotNull(get(cache, first, counting(expansions)).get("pom.xml"));
+        assertNotNull(get(cache, second, counting(expansions)).get("pom.xml"));
+
+        assertEquals(1, expansions.get());
+        assertEquals(1, cache.getHits());
+        // the whole parent chain was fetched from the stand-in repository
+        assertTrue(new File(local, LocalRepository.artifactPath("org.example", "grandparent", "1", "pom")).isFile());
+    }
+
+    @Test
+    public void testParentChangeInvalidates() throws IOException {
+        File child = write(new File(tmp.newFolder("child"), "pom.xml"),
+                pom("org.example", "child", "1", parent("org.example", "parent", "1")));
+        String before = new EffectivePomCache(repository(false), 100).key(child, MavenUtils.readFileAsDocument(child));
+
+        deploy(local, "org.example", "grandparent", "1",
+                pom("org.example", "grandparent", "1", null).replace("</project>", "<name>changed</name></project>"));
+        String after = new EffectivePomCache(repository(false), 100).key(child, MavenUtils.readFileAsDocument(child));
+
+        assertNotEquals(before, after);
+    }
+
+    @Test
+    public void testRelativeParent() throws IOException {
+        File root = tmp.newFolder("project");
+        write(new File(root, "pom.xml"), pom("org.example", "reactor", "2", null));
+        File module = write(new File(root, "module/pom.xml"),
+                pom("org.example", "module", "2", parent("org.example", "reactor", "2")));
+
+        String key = new EffectivePomCache(repository(true), 100).key(module, MavenUtils.readFileAsDocument(module));
+        assertTrue(key.contains("org.example:reactor:2="));
+        assertFalse(key.endsWith("=missing"));
+    }
+
+    @Test
+    public void testOfflineRepository() throws IOException {
+        LocalRepository offline = repository(true);
+        assertNull(offline.findPom("org.example", "parent", "1"));
+
+        // pre-seeded repository works offline
+        deploy(local, "org.example", "parent", "1", pom("org.example", "parent", "1", null));
+        assertNotNull(offline.findPom("org.example", "parent", "1"));
+        assertNull(offline.findPom("org.example", "grandparent", "1"));
+    }
+}
@@ -0,0 +1,99 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import mercator.EntryClassifier.EntryType;
+
+public class EntryClassifierTest {
+
+    @Test
+    public void testClassify() {
+        assertEquals(EntryType.MANIFEST, EntryClassifier.classify("META-INF/MANIFEST.MF"));
+        assertEquals(EntryType.MANIFEST, EntryClassifier.classify("META-INF/manifest.mf"));
+        assertEquals(EntryType.POM_PROPERTIES, EntryClassifier.classify("META-INF/maven/org.example/a/pom.properties"));
+        assertEquals(EntryType.POM_XML, EntryClassifier.classify("META-INF/maven/org.example/a/pom.xml"));
+        assertEquals(EntryType.NESTED_ARCHIVE, EntryClassifier.classify("lib/a.jar"));
+        assertEquals(EntryType.NESTED_ARCHIVE, EntryClassifier.classify("APP.WAR"));
+        assertEquals(EntryType.NESTED_ARCHIVE, EntryClassifier.classify("dist/a.Zip"));
+        assertEquals(EntryType.NESTED_ARCHIVE, EntryClassifier.classify("a.ear"));
+        assertEquals(EntryType.MODULE_INFO, EntryClassifier.classify("module-info.class"));
+        assertEquals(EntryType.MODULE_INFO, EntryClassifier.classify("META-INF/versions/11/module-info.class"));
+        assertEquals(EntryType.OSGI, EntryClassifier.classify("OSGI-INF/component.xml"));
+        assertEquals(EntryType.SERVICE, EntryClassifier.classify("META-INF/services/java.sql.Driver"));
+        assertEquals(EntryType.CLASS, EntryClassifier.classify("org/example/A.class"));
+        assertEquals(EntryType.CLASS, EntryClassifier.classify("META-INF/versions/9/org/example/A.class"));
+        assertEquals(EntryType.CLASS, EntryClassifier.classify("org/example/module-info.class"));
+        assertEquals(EntryType.CLASS, EntryClassifier.classify("META-INF/versions/x/module-info.class"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/LICENSE"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/services/"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/services/a/b"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("OSGI-INF/"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("jar"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify(""));
+    }
+
+    /**
+     * Same as the META-INF/maven/[^/]+/[^/]+/pom.xml pattern used before.
+     */
+    @Test
+    public void testMavenMetadataLayout() {
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven/a/pom.xml"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven//a/pom.xml"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven/g//pom.xml"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven/g/a/b/pom.xml"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven/g/a/pom.xml.bak"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("META-INF/maven/g/a/my-pom.xml"));
+        assertEquals(EntryType.OTHER, EntryClassifier.classify("WEB-INF/classes/META-INF/maven/g/a/pom.xml"));
+        // still a bundled archive, not metadata
+        assertEquals(EntryType.NESTED_ARCHIVE, EntryClassifier.classify("META-INF/maven/g/a/a.jar"));
+    }
+
+    @Test
+    public void testNoAllocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // mostly non-matching entries, as in real archives
+        String[] names = {
+            "org/example/internal/SomeClass.class",
+            "org/example/internal/SomeClass$Inner.class",
+            "org/example/messages.properties",
+            "META-INF/LICENSE.txt",
+            "META-INF/maven/org.example/artifact/pom.xml",
+            "META-INF/services/java.sql.Driver",
+            "WEB-INF/lib/library.JAR",
+            "static/index.html",
+        };
+        int iterations = 100000;
+        // warm up, so that nothing is loaded or compiled while measuring
+        int checksum = classifyAll(names, iterations);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += classifyAll(names, iterations);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum > 0);
+        // less than a byte per call means none at all, the rest is measurement noise
+        assertTrue(String.format("%d bytes allocated", allocated), allocated < iterations);
+    }
+
+    private static int classifyAll(String[] names, int iterations) {
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < names.length; j++) {
+                checksum += EntryClassifier.classify(names[j]).ordinal();
+            }
+        }
+        return checksum;
+    }
+}
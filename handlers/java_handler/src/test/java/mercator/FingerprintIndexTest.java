@@ -0,0 +1,153 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FingerprintIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File repository;
+    private File index;
+
+    /**
+     * Add classes with distinct content to an archive.
+     *
+     * @param prefix, package directory of the classes
+     * @param version, changes the content of every other class
+     */
+    private static TestArchives classes(TestArchives archive, String prefix, int count, String version) {
+        String name = prefix.substring(prefix.lastIndexOf('/') + 1);
+        for (int i = 0; i < count; i++) {
+            // shading rewrites the relocated classes
+            String content = String.format("%s/%s%d %s", prefix, name, i, i % 2 == 0 ? "" : version);
+            archive.entry(String.format("%s/%s%d.class", prefix, name, i), content.getBytes(StandardCharsets.UTF_8));
+        }
+        return archive;
+    }
+
+    private void install(String groupId, String artifactId, String version, String classifier, TestArchives archive)
+            throws IOException {
+        File dir = new File(repository, String.format("%s/%s/%s", groupId.replace('.', '/'), artifactId, version));
+        dir.mkdirs();
+        archive.writeTo(new File(dir, String.format("%s-%s%s.jar", artifactId, version,
+                classifier == null ? "" : "-" + classifier)));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        repository = tmp.newFolder("repository");
+        index = new File(tmp.getRoot(), "fingerprints/index");
+        install("org.example", "lib-a", "1.0", null, classes(new TestArchives("lib-a"), "org/example/a", 20, "1.0"));
+        install("org.example", "lib-a", "1.1", null, classes(new TestArchives("lib-a"), "org/example/a", 20, "1.1"));
+        install("org.example", "lib-a", "1.0", "sources", classes(new TestArchives("lib-a"), "org/example/x", 5, ""));
+        install("com.vendor", "lib-b", "2.0", null, classes(new TestArchives("lib-b"), "com/vendor/b", 4, "2.0"));
+        install("com.other", "unrelated", "3.0", null, classes(new TestArchives("other"), "com/other", 10, "3.0"));
+        // no classes, left out
+        install("com.other", "empty", "1", null, new TestArchives("empty"));
+        new File(repository, "broken/broken/1/broken-1.jar").getParentFile().mkdirs();
+        new File(repository, "broken/broken/1/broken-1.jar").createNewFile();
+
+        assertEquals(4, FingerprintIndex.build(repository, index, 4));
+    }
+
+    /**
+     * lib-a as-is, lib-b relocated by shading.
+     */
+    private TestArchives shaded() {
+        TestArchives shaded = classes(new TestArchives("shaded"), "org/example/a", 20, "1.0");
+        return classes(shaded, "shaded/com/vendor/b", 4, "relocated");
+    }
+
+    private List<Map<String, Object>> identify(File archive, ScanOptions options) throws IOException {
+        Map<String, Object> result = new ArchiveScanner(options.setFingerprintIndex(index), new ScanStats())
+                .scan(archive);
+        return (List<Map<String, Object>>) result.get("identified");
+    }
+
+    private static List<String> artifacts(List<Map<String, Object>> identified) {
+        List<String> artifacts = new ArrayList<String>();
+        for (Map<String, Object> artifact : identified) {
+            artifacts.add((String) artifact.get("artifact"));
+        }
+        return artifacts;
+    }
+
+    @Test
+    public void testIdentify() throws IOException {
+        File jar = shaded().writeTo(tmp.newFile("shaded.jar"));
+        List<Map<String, Object>> identified = identify(jar, new ScanOptions());
+        assertEquals(Arrays.asList("org.example:lib-a:1.0", "org.example:lib-a:1.1", "com.vendor:lib-b:2.0"),
+                artifacts(identified));
+        Map<String, Object> best = identified.get(0);
+        assertEquals(20, best.get("matched_classes"));
+        assertEquals(20, best.get("artifact_classes"));
+        assertEquals(10, identified.get(1).get("matched_classes"));
+        Map<String, Object> relocated = identified.get(2);
+        assertEquals(0, relocated.get("matched_classes"));
+        assertEquals(1, relocated.get("matched_packages"));
+        assertEquals(1, relocated.get("artifact_packages"));
+
+        // read sequentially, the CRCs come from inflating the classes
+        assertEquals(identified, identify(jar, new ScanOptions().setRandomAccess(false)));
+    }
+
+    @Test
+    public void testBundled() throws IOException {
+        File war = new TestArchives("application")
+                .pomProperties("org.example", "application", "1.0")
+                .entry("WEB-INF/lib/shaded.jar", shaded().toBytes())
+                .writeTo(tmp.newFile("application.war"));
+        Map<String, Object> result = new ArchiveScanner(new ScanOptions().setFingerprintIndex(index), new ScanStats())
+                .scan(war);
+        // labeled, not identified
+        assertFalse(result.containsKey("identified"));
+        Map<String, Object> bundled = ((List<Map<String, Object>>) result.get("bundled")).get(0);
+        List<Map<String, Object>> identified = (List<Map<String, Object>>) bundled.get("identified");
+        assertEquals("org.example:lib-a:1.0", identified.get(0).get("artifact"));
+    }
+
+    @Test
+    public void testUnknownClasses() throws IOException {
+        File jar = classes(new TestArchives("unknown"), "org/unknown", 10, "1").writeTo(tmp.newFile("unknown.jar"));
+        assertNull(identify(jar, new ScanOptions()));
+        // no index, nothing identified
+        File shaded = shaded().writeTo(tmp.newFile("shaded.jar"));
+        assertNull(new ArchiveScanner(new ScanOptions(), new ScanStats()).scan(shaded).get("identified"));
+    }
+
+    @Test
+    public void testFindArtifacts() throws IOException {
+        assertEquals(Arrays.asList("broken:broken:1", "com.other:empty:1", "com.other:unrelated:3.0",
+                "com.vendor:lib-b:2.0", "org.example:lib-a:1.0", "org.example:lib-a:1.1"),
+                new ArrayList<String>(FingerprintIndex.findArtifacts(repository.toPath()).keySet()));
+    }
+
+    @Test
+    public void testNotAnIndex() throws IOException {
+        File file = tmp.newFile("not-an-index");
+        try {
+            new FingerprintIndex(file);
+            assertTrue("expected an exception", false);
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("Not a fingerprint index"));
+        }
+        assertNull(FingerprintIndex.shared(file));
+    }
+}
@@ -0,0 +1,179 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GradleParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String GROOVY = "buildscript {\n"
+            + "    dependencies { classpath 'org.example:plugin:1.0' }\n"
+            + "}\n"
+            + "apply plugin: 'java'\n"
+            + "ext.slf4jVersion = '1.7.30'\n"
+            + "dependencies {\n"
+            + "    implementation 'com.google.guava:guava:30.1-jre' // trailing comment\n"
+            + "    api \"org.slf4j:slf4j-api:$slf4jVersion\"\n"
+            + "    /* compile 'commented:out:1' */\n"
+            + "    compileOnly group: 'org.projectlombok', name: 'lombok',\n"
+            + "        version: '1.18.20'\n"
+            + "    runtimeOnly('org.postgresql:postgresql:42.2.20') {\n"
+            + "        exclude group: 'org.checkerframework', module: 'checker-qual'\n"
+            + "    }\n"
+            + "    testImplementation 'junit:junit:4.13', 'org.mockito:mockito-core:3.9.0'\n"
+            + "    implementation 'org.example:natives:1.0:linux-x86_64@so'\n"
+            + "    implementation project(':core')\n"
+            + "    implementation files('libs/local.jar')\n"
+            + "    customConfiguration 'org.example:custom:2.0'\n"
+            + "}\n"
+            + "subprojects {\n"
+            + "    dependencies { testImplementation 'org.assertj:assertj-core:3.19.0' }\n"
+            + "}\n";
+
+    private static final String KOTLIN = "plugins { `java-library` }\n"
+            + "dependencies {\n"
+            + "    api(\"com.fasterxml.jackson.core:jackson-databind:2.12.3\")\n"
+            + "    implementation(platform(\"org.example:bom:1.0\"))\n"
+            + "    implementation(kotlin(\"stdlib\"))\n"
+            + "    implementation(group = \"org.example\", name = \"named\", version = \"3.0\")\n"
+            + "    testImplementation(\"org.junit.jupiter:junit-jupiter:5.7.2\") { because(\"tests\") }\n"
+            + "}\n";
+
+    private static Map scope(Map<String, Map> dependencies, String scope) {
+        Map result = dependencies.get(scope);
+        return result == null ? new HashMap() : result;
+    }
+
+    @Test
+    public void testGroovyBuildScript() {
+        Map<String, Map> dependencies = GradleParser.parseBuildScript(GROOVY);
+
+        assertEquals("30.1-jre", scope(dependencies, "compile").get("com.google.guava:guava::"));
+        assertEquals("$slf4jVersion", scope(dependencies, "compile").get("org.slf4j:slf4j-api::"));
+        assertEquals("1.0", scope(dependencies, "compile").get("org.example:natives:so:linux-x86_64"));
+        assertEquals(3, scope(dependencies, "compile").size());
+        assertEquals("1.18.20", scope(dependencies, "provided").get("org.projectlombok:lombok::"));
+        assertEquals("42.2.20", scope(dependencies, "runtime").get("org.postgresql:postgresql::"));
+        assertEquals(1, scope(dependencies, "runtime").size());
+        assertEquals("4.13", scope(dependencies, "test").get("junit:junit::"));
+        assertEquals("3.9.0", scope(dependencies, "test").get("org.mockito:mockito-core::"));
+        assertEquals("3.19.0", scope(dependencies, "test").get("org.assertj:assertj-core::"));
+        assertEquals("2.0", scope(dependencies, "customConfiguration").get("org.example:custom::"));
+        assertEquals(5, dependencies.size());
+    }
+
+    @Test
+    public void testKotlinBuildScript() {
+        Map<String, Map> dependencies = GradleParser.parseBuildScript(KOTLIN);
+
+        Map compile = scope(dependencies, "compile");
+        assertEquals("2.12.3", compile.get("com.fasterxml.jackson.core:jackson-databind::"));
+        assertEquals("1.0", compile.get("org.example:bom::"));
+        assertEquals("3.0", compile.get("org.example:named::"));
+        assertEquals(3, compile.size());
+        assertEquals("5.7.2", scope(dependencies, "test").get("org.junit.jupiter:junit-jupiter::"));
+    }
+
+    @Test
+    public void testLockfile() {
+        String lockfile = "# This is a Gradle generated file for dependency locking.\n"
+                + "com.google.guava:guava:30.1-jre=compileClasspath,runtimeClasspath\n"
+                + "junit:junit:4.13=testCompileClasspath,testRuntimeClasspath\n"
+                + "empty=annotationProcessor\n";
+        Map<String, Map> dependencies = GradleParser.parseLockfile(lockfile);
+
+        assertEquals("30.1-jre", scope(dependencies, "compile").get("com.google.guava:guava::"));
+        assertEquals("30.1-jre", scope(dependencies, "runtime").get("com.google.guava:guava::"));
+        assertEquals("4.13", scope(dependencies, "test").get("junit:junit::"));
+        assertEquals(3, dependencies.size());
+    }
+
+    @Test
+    public void testModuleMetadata() throws IOException {
+        String metadata = "{\"formatVersion\": \"1.1\",\n"
+                + " \"component\": {\"group\": \"org.example\", \"module\": \"library\", \"version\": \"1.0\"},\n"
+                + " \"variants\": [\n"
+                + "  {\"name\": \"apiElements\", \"attributes\": {\"org.gradle.usage\": \"java-api\"},\n"
+                + "   \"dependencies\": [{\"group\": \"org.slf4j\", \"module\": \"slf4j-api\",\n"
+                + "     \"version\": {\"requires\": \"1.7.30\"}}]},\n"
+                + "  {\"name\": \"runtimeElements\", \"attributes\": {\"org.gradle.usage\": \"java-runtime\"},\n"
+                + "   \"dependencies\": [{\"group\": \"org.slf4j\", \"module\": \"slf4j-api\",\n"
+                + "     \"version\": {\"strictly\": \"1.7.32\", \"requires\": \"1.7.30\"}},\n"
+                + "    {\"group\": \"org.example\", \"module\": \"unversioned\"}]},\n"
+                + "  {\"name\": \"javadocElements\", \"attributes\": {\"org.gradle.docstype\": \"javadoc\"}}\n"
+                + " ]}";
+        Map<String, Object> data = GradleParser.parseModuleMetadata(new StringReader(metadata));
+
+        assertEquals("org.example", data.get("groupId"));
+        assertEquals("library", data.get("artifactId"));
+        assertEquals("1.0", data.get("version"));
+        Map<String, Map> dependencies = (Map<String, Map>) data.get("dependencies");
+        assertEquals("1.7.30", scope(dependencies, "compile").get("org.slf4j:slf4j-api::"));
+        assertEquals("1.7.32", scope(dependencies, "runtime").get("org.slf4j:slf4j-api::"));
+        assertEquals("", scope(dependencies, "runtime").get("org.example:unversioned::"));
+        assertNull(dependencies.get("javadocElements"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidModuleMetadata() throws IOException {
+        GradleParser.parseModuleMetadata(new StringReader("{\"component\": "));
+    }
+
+    @Test
+    public void testIsGradleFile() {
+        assertTrue(GradleParser.isGradleFile("build.gradle"));
+        assertTrue(GradleParser.isGradleFile("build.gradle.kts"));
+        assertTrue(GradleParser.isGradleFile("gradle.lockfile"));
+        assertTrue(GradleParser.isGradleFile("library-1.0.module"));
+        assertFalse(GradleParser.isGradleFile(".module"));
+        assertFalse(GradleParser.isGradleFile("settings.gradle"));
+        assertFalse(GradleParser.isGradleFile("pom.xml"));
+    }
+
+    /**
+     * Only .module files looking like Gradle module metadata are claimed, not PHP modules of Drupal.
+     */
+    @Test
+    public void testIsGradleFileByContent() throws IOException {
+        File dir = tmp.newFolder("modules");
+        File gradle = new File(dir, "library-1.0.module");
+        Files.write(gradle.toPath(), ("{\n  \"formatVersion\": \"1.1\",\n  \"component\": {\"group\": \"org.example\"}\n}")
+                .getBytes(StandardCharsets.UTF_8));
+        File drupal = new File(dir, "views.module");
+        Files.write(drupal.toPath(), "<?php\n/**\n * Implements hook_help().\n */\nfunction views_help() {}\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(GradleParser.isGradleFile(gradle));
+        assertFalse(GradleParser.isGradleFile(drupal));
+        assertEquals(Collections.singletonList(gradle.getPath()), BatchProcessor.findSupportedFiles(dir.toPath()));
+    }
+
+    @Test
+    public void testHandleFile() throws IOException {
+        File script = new File(tmp.newFolder("project"), "build.gradle.kts");
+        Files.write(script.toPath(), KOTLIN.getBytes(StandardCharsets.UTF_8));
+        byte[] output = MercatorJava.handleFileSafely(script.getPath(), new ArchiveScanner(new ScanOptions(), new ScanStats()));
+
+        Map result = (Map) JSONValue.parse(new String(output, StandardCharsets.UTF_8));
+        Map dependencies = (Map) ((Map) result.get("build.gradle.kts")).get("dependencies");
+        assertEquals("5.7.2", ((Map) dependencies.get("test")).get("org.junit.jupiter:junit-jupiter::"));
+    }
+}
@@ -0,0 +1,73 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    private static String write(Object value) throws IOException {
+        StringWriter sw = new StringWriter();
+        new JsonWriter(sw).value(value).flush();
+        return sw.toString();
+    }
+
+    /**
+     * Output is the same as the one of json-simple, which the handler used before.
+     */
+    @Test
+    public void testMatchesJsonSimple() throws IOException {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("Implementation-Title", "quotes \" and \\ and / and \t\n\r\b\f");
+        nested.put("control", "\u0001\u001f\u007f\u0085  café 中");
+        nested.put("empty", new HashMap<String, Object>());
+        nested.put("none", null);
+
+        List<Object> list = new ArrayList<Object>();
+        list.add(nested);
+        list.add(Collections.emptyList());
+        list.add(42);
+        list.add(true);
+        list.add(1.5);
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("bundled", list);
+        result.put("kind", "JAR");
+        result.put("licenses", Arrays.asList("Apache-2.0", "MIT"));
+
+        assertEquals(new JSONObject(result).toString(), write(result));
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        StringWriter sw = new StringWriter();
+        JsonWriter writer = new JsonWriter(sw);
+        writer.beginObject().name("bundled").beginArray();
+        for (int i = 0; i < 3; i++) {
+            writer.value(Collections.singletonMap("kind", "JAR"));
+        }
+        writer.endArray().name("kind").value("EAR").endObject();
+
+        assertEquals("{\"bundled\":[{\"kind\":\"JAR\"},{\"kind\":\"JAR\"},{\"kind\":\"JAR\"}],\"kind\":\"EAR\"}",
+                sw.toString());
+    }
+
+    @Test
+    public void testDeepNesting() throws IOException {
+        Object value = "leaf";
+        for (int i = 0; i < 100; i++) {
+            value = Collections.singletonList(value);
+        }
+        assertEquals(write(value).length(), 2 * 100 + "\"leaf\"".length());
+    }
+}
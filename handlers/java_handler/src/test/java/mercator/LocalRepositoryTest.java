@@ -0,0 +1,84 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalRepositoryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * A remote accepting connections and never answering doesn't stall the scan.
+     */
+    @Test(timeout = 30000)
+    public void testDownloadTimeout() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            String remote = String.format("http://127.0.0.1:%d/maven2", server.getLocalPort());
+            LocalRepository repository = new LocalRepository(tmp.newFolder("local"),
+                    Collections.singletonList(remote), false, 500);
+            long start = System.currentTimeMillis();
+            assertNull(repository.findPom("org.example", "silent", "1"));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    /**
+     * Coordinates from POMs can't point outside of the repositories.
+     */
+    @Test
+    public void testPathTraversalRejected() throws IOException {
+        File remote = tmp.newFolder("remote");
+        File outside = new File(remote, "secret/1/secret-1.pom");
+        Files.createDirectories(outside.getParentFile().toPath());
+        Files.write(outside.toPath(), "<project/>".getBytes(StandardCharsets.UTF_8));
+        File local = tmp.newFolder("local");
+        LocalRepository repository = new LocalRepository(local,
+                Collections.singletonList(tmp.newFolder("remote", "maven2").toURI().toString()), false);
+
+        assertNull(repository.findPom("org.example", "../secret", "1"));
+        assertNull(repository.findPom("..", "secret", "1"));
+        assertNull(repository.findPom("org.example", "secret", "..\\1"));
+        assertFalse(new File(local, "secret").exists());
+        assertFalse(LocalRepository.validCoordinate(null));
+        assertFalse(LocalRepository.validCoordinate(""));
+        assertTrue(LocalRepository.validCoordinate("1.0-SNAPSHOT"));
+    }
+
+    /**
+     * Only file:// remotes are used when restricted to them.
+     */
+    @Test(timeout = 30000)
+    public void testFileRemotesOnly() throws IOException {
+        File remote = tmp.newFolder("remote");
+        File pom = new File(remote, LocalRepository.artifactPath("org.example", "local", "1", "pom"));
+        Files.createDirectories(pom.getParentFile().toPath());
+        Files.write(pom.toPath(), "<project/>".getBytes(StandardCharsets.UTF_8));
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            String silent = String.format("http://127.0.0.1:%d/maven2", server.getLocalPort());
+            LocalRepository repository = new LocalRepository(tmp.newFolder("local"),
+                    Arrays.asList(silent, remote.toURI().toString()), false, 60000).withFileRemotesOnly();
+            long start = System.currentTimeMillis();
+            assertNull(repository.findPom("org.example", "missing", "1"));
+            File found = repository.findPom("org.example", "local", "1",
+                    Collections.singletonList(silent));
+            assertEquals("<project/>", new String(Files.readAllBytes(found.toPath()), StandardCharsets.UTF_8));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private boolean wasEnabled;
+
+    @Before
+    public void setUp() {
+        wasEnabled = Metrics.isEnabled();
+        Metrics.shared().reset();
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(wasEnabled);
+        Metrics.shared().reset();
+    }
+
+    private File war() throws IOException {
+        return new TestArchives("war")
+                .pomProperties("org.example", "webapp", "1.0")
+                .classes(50)
+                .entry("WEB-INF/lib/library.jar", new TestArchives("library")
+                        .pomProperties("org.example", "library", "1.1").classes(10).toBytes())
+                .writeTo(tmp.newFile("webapp.war"));
+    }
+
+    private static long count(Metrics.Phase phase) {
+        return Metrics.shared().histogram(phase).getCount();
+    }
+
+    @Test
+    public void testScanMetrics() throws IOException {
+        Metrics.setEnabled(true);
+        File war = war();
+        new ArchiveScanner(new ScanOptions().setRandomAccess(false), new ScanStats())
+                .scan(war, new JsonWriter(new StringWriter()));
+
+        Map<String, Long> counters = Metrics.shared().getCounters();
+        assertEquals(Long.valueOf(1), counters.get("artifacts_scanned"));
+        // manifests excluded, 52 entries in the WAR and 11 in the JAR
+        assertEquals(Long.valueOf(63), counters.get("entries_visited"));
+        assertTrue(counters.get("bytes_inflated") > 0);
+        assertEquals(2, count(Metrics.Phase.MANIFEST_READ));
+        assertEquals(2, count(Metrics.Phase.ENTRY_ITERATION));
+        assertEquals(1, count(Metrics.Phase.NESTED_DESCENT));
+        assertTrue(count(Metrics.Phase.JSON_SERIALIZATION) > 0);
+        assertEquals(0, count(Metrics.Phase.POM_EXPANSION));
+    }
+
+    @Test
+    public void testPomMetrics() throws IOException {
+        Metrics.setEnabled(true);
+        File pom = EffectivePomCacheTest.write(tmp.newFile("pom.xml"),
+                EffectivePomCacheTest.pom("org.example", "project", "1", null));
+        MavenUtils.getPomXmlEntries(pom, false);
+        assertEquals(1, count(Metrics.Phase.POM_PARSE));
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        Metrics.setEnabled(false);
+        new ArchiveScanner(new ScanOptions(), new ScanStats()).scan(war());
+        assertEquals(Long.valueOf(0), Metrics.shared().getCounters().get("entries_visited"));
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            assertEquals(0, count(phase));
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        assertEquals(0, histogram.percentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        // bounds are good to a factor of two
+        long p50 = histogram.percentile(50);
+        assertTrue(String.valueOf(p50), p50 >= 50000 && p50 < 100000);
+        assertEquals(100000, histogram.percentile(99));
+        assertEquals(100000, histogram.percentile(100));
+
+        Map<String, Long> summary = histogram.summary();
+        assertEquals(Long.valueOf(100), summary.get("count"));
+        assertEquals(Long.valueOf(50), summary.get("mean_us"));
+        assertEquals(Long.valueOf(100), summary.get("max_us"));
+    }
+
+    @Test
+    public void testSummaryIsJson() {
+        Metrics.setEnabled(true);
+        Metrics.count(Metrics.Counter.BYTES_INFLATED, 42);
+        Metrics.record(Metrics.Phase.POM_PARSE, Metrics.start());
+
+        Map summary = (Map) JSONValue.parse(JSONValue.toJSONString(Metrics.shared().summary()));
+        assertEquals(42L, ((Map) summary.get("counters")).get("bytes_inflated"));
+        assertEquals(1L, ((Map) ((Map) summary.get("phases")).get("pom_parse")).get("count"));
+        assertEquals(Long.valueOf(1), Metrics.shared().getLatencies().get("pom_parse.count"));
+    }
+
+    @Test
+    public void testMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("mercator.test:type=Metrics");
+        server.registerMBean(Metrics.shared(), name);
+        try {
+            Metrics.setEnabled(true);
+            Metrics.count(Metrics.Counter.ENTRIES_VISITED, 7);
+            assertTrue(server.getAttribute(name, "Counters").toString().contains("entries_visited"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(Long.valueOf(0), Metrics.shared().getCounters().get("entries_visited"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModuleInfoReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String[][] SOURCES = {
+        {"module-info.java", "open module org.example.app {\n"
+            + "    requires transitive java.logging;\n"
+            + "    requires static java.compiler;\n"
+            + "    exports org.example.api;\n"
+            + "    exports org.example.impl to java.logging;\n"
+            + "    uses org.example.api.Service;\n"
+            + "    provides org.example.api.Service with org.example.impl.ServiceImpl;\n"
+            + "}\n"},
+        {"org/example/api/Service.java", "package org.example.api; public interface Service { long ID = 1L; }"},
+        {"org/example/impl/ServiceImpl.java",
+            "package org.example.impl; public class ServiceImpl implements org.example.api.Service {}"},
+    };
+
+    /**
+     * Compile module-info.class of a module using most of what a module declaration can hold.
+     */
+    static byte[] compileModuleInfo(File dir) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File src = new File(dir, "src");
+        File classes = new File(dir, "classes");
+        classes.mkdirs();
+        String[] args = new String[SOURCES.length + 4];
+        args[0] = "--release";
+        args[1] = "9";
+        args[2] = "-d";
+        args[3] = classes.getPath();
+        for (int i = 0; i < SOURCES.length; i++) {
+            File file = new File(src, SOURCES[i][0]);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), SOURCES[i][1].getBytes(StandardCharsets.UTF_8));
+            args[i + 4] = file.getPath();
+        }
+        Assume.assumeTrue(compiler.run(null, null, null, args) == 0);
+        return Files.readAllBytes(new File(classes, "module-info.class").toPath());
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        Map<String, Object> module = ModuleInfoReader.read(new ByteArrayInputStream(compileModuleInfo(tmp.getRoot())));
+
+        assertEquals("org.example.app", module.get("name"));
+        assertEquals(true, module.get("open"));
+        List<Map<String, Object>> requires = (List<Map<String, Object>>) module.get("requires");
+        assertEquals(3, requires.size());
+        for (Map<String, Object> require : requires) {
+            if ("java.logging".equals(require.get("name"))) {
+                assertEquals(true, require.get("transitive"));
+            } else if ("java.compiler".equals(require.get("name"))) {
+                assertEquals(true, require.get("static"));
+            } else {
+                assertEquals("java.base", require.get("name"));
+                assertFalse((Boolean) require.get("static"));
+            }
+        }
+        assertEquals(Arrays.asList("org.example.api", "org.example.impl"), module.get("exports"));
+        assertEquals(Collections.emptyList(), module.get("opens"));
+        assertEquals(Collections.singletonList("org.example.api.Service"), module.get("uses"));
+        assertEquals(Collections.singletonMap("org.example.api.Service", Collections.singletonList("org.example.impl.ServiceImpl")),
+                module.get("provides"));
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        byte[] moduleInfo = compileModuleInfo(tmp.getRoot());
+        for (byte[] content : Arrays.asList(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 51},
+                Arrays.copyOf(moduleInfo, moduleInfo.length / 2), "not a class".getBytes(StandardCharsets.UTF_8))) {
+            try {
+                ModuleInfoReader.read(new ByteArrayInputStream(content));
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+public class PomModelBuilderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private PomModelBuilder builder(File remote) throws IOException {
+        return new PomModelBuilder(new LocalRepository(tmp.newFolder("local"),
+                Collections.singletonList(remote.toURI().toString()), false));
+    }
+
+    /**
+     * The in-process builder extracts the same data as maven-help-plugin did.
+     *
+     * The fixture is the output of "mvn help:effective-pom", which is already
+     * fully inherited and interpolated; building it again against an empty parent
+     * must not change anything.
+     */
+    @Test
+    public void testMatchesInvokerOutput() throws IOException, URISyntaxException {
+        File expanded = new File(getClass().getResource("/mercator/osio_3182_pom-expanded.xml").toURI());
+        File fixed = MavenUtils.removeDuplicateXMLTag(expanded);
+        Map<String, Map> expected = MavenUtils.getPomXmlEntries(MavenUtils.readFileAsDocument(fixed), false);
+
+        File remote = tmp.newFolder("remote");
+        EffectivePomCacheTest.deploy(remote, "io.vertx", "vertx-web-parent", "3.5.1",
+                EffectivePomCacheTest.pom("io.vertx", "vertx-web-parent", "3.5.1", null)
+                        .replace("</project>", "<packaging>pom</packaging></project>"));
+        Document document = builder(remote).getParsedExpandedPom(fixed);
+        assertNotNull(document);
+        Map<String, Map> actual = MavenUtils.getPomXmlEntries(document, false);
+
+        assertFalse(((Map) expected.get("pom.xml").get("dependencies")).isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testInheritanceAndImports() throws IOException {
+        File remote = tmp.newFolder("remote");
+        EffectivePomCacheTest.deploy(remote, "org.example", "parent", "1", "<project>"
+                + "<modelVersion>4.0.0</modelVersion>"
+                + "<groupId>org.example</groupId><artifactId>parent</artifactId><version>1</version>"
+                + "<packaging>pom</packaging>"
+                + "<properties><junit.version>4.12</junit.version></properties>"
+                + "<licenses><license><name>MIT</name></license></licenses>"
+                + "<scm><url>https://example.org/scm</url></scm>"
+                + "<dependencyManagement><dependencies>"
+                + "<dependency><groupId>org.example</groupId><artifactId>bom</artifactId><version>2</version>"
+                + "<type>pom</type><scope>import</scope></dependency>"
+                + "<dependency><groupId>junit</groupId><artifactId>junit</artifactId><version>${junit.version}</version>"
+                + "<scope>test</scope></dependency>"
+                + "</dependencies></dependencyManagement>"
+                + "</project>");
+        EffectivePomCacheTest.deploy(remote, "org.example", "bom", "2", "<project>"
+                + "<modelVersion>4.0.0</modelVersion>"
+                + "<groupId>org.example</groupId><artifactId>bom</artifactId><version>2</version>"
+                + "<packaging>pom</packaging>"
+                + "<dependencyManagement><dependencies>"
+                + "<dependency><groupId>org.example</groupId><artifactId>lib</artifactId><version>2.1</version></dependency>"
+                + "</dependencies></dependencyManagement>"
+                + "</project>");
+        File pom = EffectivePomCacheTest.write(new File(tmp.newFolder("project"), "pom.xml"), "<project>"
+                + "<modelVersion>4.0.0</modelVersion>"
+                + "<parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+                + "<artifactId>child</artifactId>"
+                + "<dependencies>"
+                + "<dependency><groupId>junit</groupId><artifactId>junit</artifactId></dependency>"
+                + "<dependency><groupId>org.example</groupId><artifactId>lib</artifactId></dependency>"
+                + "</dependencies>"
+                + "</project>");
+
+        Map<String, Object> result = MavenUtils.getPomXmlEntries(builder(remote).getParsedExpandedPom(pom), true)
+                .get("pom.xml");
+
+        assertEquals("org.example", result.get("groupId"));
+        assertEquals("1", result.get("version"));
+        assertEquals(Collections.singletonList("MIT"), result.get("licenses"));
+        assertEquals("https://example.org/scm/child", result.get("scm_url"));
+        Map<String, Map> dependencies = (Map<String, Map>) result.get("dependencies");
+        assertEquals("4.12", dependencies.get("test").get("junit:junit::"));
+        assertEquals("2.1", dependencies.get("compile").get("org.example:lib::"));
+    }
+}
@@ -0,0 +1,132 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PomStreamExtractorTest {
+
+    /** POMs exercising the corners of both extractors. */
+    private static final String[] POMS = {
+        "<project><groupId>g</groupId><artifactId>a</artifactId><version>1</version></project>",
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">"
+            + "<!-- comment --><groupId>g</groupId><artifactId>a</artifactId>"
+            + "<name><![CDATA[Name & <more>]]></name><url>http://example.org/?a=1&amp;b=2</url>"
+            + "<description>\n  multi\n  line\n</description>"
+            + "<scm><connection>scm:git:x</connection><url>https://github.com/example/a</url></scm>"
+            + "<scm><url>second</url></scm>"
+            + "<licenses><license><name>Apache-2.0</name></license><license><name>MIT</name></license></licenses>"
+            + "<licenses><license><url>http://example.org</url><name>BSD</name></license></licenses>"
+            + "</project>",
+        "<project><groupId>g</groupId><artifactId>a</artifactId>"
+            + "<dependencies>"
+            + "<dependency><exclusions><exclusion><groupId>x</groupId><artifactId>y</artifactId>"
+            + "<classifier>deep</classifier></exclusion></exclusions>"
+            + "<groupId>d</groupId><artifactId>e</artifactId><version>2</version></dependency>"
+            + "<dependency><groupId>d</groupId><artifactId>f</artifactId><type>test-jar</type>"
+            + "<classifier>tests</classifier><scope>test</scope><scope>provided</scope></dependency>"
+            + "<dependency><groupId>d</groupId><artifactId>no-version</artifactId></dependency>"
+            + "<dependency><artifactId>no-group</artifactId></dependency>"
+            + "<notADependency><groupId>n</groupId><artifactId>n</artifactId></notADependency>"
+            + "</dependencies>"
+            + "<dependencyManagement><dependencies><dependency><groupId>m</groupId><artifactId>m</artifactId>"
+            + "<version>3</version></dependency></dependencies></dependencyManagement>"
+            + "<build><plugins><plugin><dependencies><dependency><groupId>p</groupId><artifactId>p</artifactId>"
+            + "</dependency></dependencies></plugin></plugins></build>"
+            + "<profiles><profile><groupId>wrong</groupId><name>wrong</name></profile></profiles>"
+            + "</project>",
+        "<project><parent><groupId>parent</groupId><version>0</version></parent><artifactId>a</artifactId>"
+            + "<version>1</version><version>2</version><description/></project>",
+        "<notAProject><groupId>g</groupId></notAProject>",
+        "<project><groupId>broken",
+    };
+
+    private static List<byte[]> corpus() throws IOException, URISyntaxException {
+        List<byte[]> corpus = new ArrayList<byte[]>();
+        for (String pom : POMS) {
+            corpus.add(pom.getBytes(StandardCharsets.UTF_8));
+        }
+        File expanded = new File(PomStreamExtractorTest.class.getResource("/mercator/osio_3182_pom-expanded.xml").toURI());
+        corpus.add(Files.readAllBytes(MavenUtils.removeDuplicateXMLTag(expanded).toPath()));
+        corpus.add(Files.readAllBytes(new File("pom.xml").toPath()));
+
+        // real-world POMs, whatever the build has downloaded so far
+        File repository = new File(System.getProperty("user.home"), ".m2/repository");
+        List<File> poms = new ArrayList<File>();
+        findPoms(repository, poms, 500);
+        for (File pom : poms) {
+            corpus.add(Files.readAllBytes(pom.toPath()));
+        }
+        return corpus;
+    }
+
+    private static void findPoms(File dir, List<File> poms, int max) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (poms.size() >= max) {
+                return;
+            }
+            if (child.isDirectory()) {
+                findPoms(child, poms, max);
+            } else if (child.getName().endsWith(".pom")) {
+                poms.add(child);
+            }
+        }
+    }
+
+    @Test
+    public void testParityWithDom() throws IOException, URISyntaxException {
+        for (byte[] pom : corpus()) {
+            for (boolean ignoreDescription : Arrays.asList(false, true)) {
+                Map<String, Map> expected = MavenUtils.getPomXmlEntries(
+                        MavenUtils.readStreamAsDocument(new ByteArrayInputStream(pom)), ignoreDescription);
+                Map<String, Map> actual = PomStreamExtractor.extract(new ByteArrayInputStream(pom), ignoreDescription);
+                assertEquals(new String(pom, StandardCharsets.UTF_8), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testDirectChildrenOnly() {
+        Map<String, Map> result = PomStreamExtractor.extract(new ByteArrayInputStream(POMS[2].getBytes(StandardCharsets.UTF_8)), false);
+        Map pomData = result.get("pom.xml");
+        assertEquals("g", pomData.get("groupId"));
+        assertNull(pomData.get("name"));
+
+        Map<String, Object> compile = new LinkedHashMap<String, Object>();
+        compile.put("d:e::", "2");
+        compile.put("d:no-version::", "");
+        Map dependencies = (Map) pomData.get("dependencies");
+        assertEquals(compile, dependencies.get("compile"));
+        assertEquals(Collections.singletonMap("d:f:test-jar:tests", ""), dependencies.get("test"));
+        assertEquals(Collections.singletonMap("d:f:test-jar:tests", ""), dependencies.get("provided"));
+        assertEquals(3, dependencies.size());
+    }
+
+    @Test
+    public void testUnparseable() {
+        assertTrue(PomStreamExtractor.extract(new ByteArrayInputStream(POMS[5].getBytes(StandardCharsets.UTF_8)), false).isEmpty());
+        assertFalse(PomStreamExtractor.extract(new ByteArrayInputStream(POMS[4].getBytes(StandardCharsets.UTF_8)), false).isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package mercator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Map<String, Object> result(String value) {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("value", value);
+        return result;
+    }
+
+    @Test
+    public void testGetPut() throws IOException {
+        File dir = tmp.newFolder();
+        ResultCache cache = new ResultCache(dir, 1024 * 1024, "settings");
+        assertNull(cache.get("key"));
+        cache.put("key", result("cached"));
+        assertEquals("cached", cache.get("key").get("value"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // persisted across runs
+        assertEquals("cached", new ResultCache(dir, 1024 * 1024, "settings").get("key").get("value"));
+        // different settings never see the old results
+        assertNull(new ResultCache(dir, 1024 * 1024, "other settings").get("key"));
+    }
+
+    @Test
+    public void testLruEviction() throws IOException {
+        // room for two results
+        ResultCache cache = new ResultCache(tmp.newFolder(), 40, "settings");
+        cache.put("first", result("first"));
+        cache.put("second", result("second"));
+        assertNotNull(cache.get("first"));
+        cache.put("third", result("third"));
+
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("second"));
+        assertNotNull(cache.get("first"));
+        assertNotNull(cache.get("third"));
+    }
+
+    @Test
+    public void testCachedBundledArchiveIsNotScanned() throws IOException {
+        byte[] library = new TestArchives("library")
+                .pomProperties("org.example", "library", "1.0")
+                .classes(50)
+                .toBytes();
+        File first = new TestArchives("first").entry("lib/library.jar", library).writeTo(tmp.newFile("first.war"));
+        File second = new TestArchives("second").entry("WEB-INF/lib/library.jar", library).writeTo(tmp.newFile("second.war"));
+
+        ScanStats stats = new ScanStats();
+        ResultCache cache = new ResultCache(tmp.newFolder(), 1024 * 1024, "settings");
+        ArchiveScanner scanner = new ArchiveScanner(new ScanOptions(), stats, cache);
+
+        scanner.scan(first);
+        assertEquals(1, stats.getArchivesDescended());
+        Map<String, Object> result = scanner.scan(second);
+        assertEquals(1, stats.getArchivesDescended());
+
+        Map<String, Object> bundled = ((List<Map<String, Object>>) result.get("bundled")).get(0);
+        assertEquals("JAR", bundled.get("kind"));
+        assertEquals("library", ((Map) bundled.get("maven_id")).get("artifactId"));
+
+        // whole archive served from the cache
+        Object expected = JSONValue.parse(new JSONObject(result).toString());
+        assertEquals(expected, JSONValue.parse(new JSONObject(scanner.scan(second)).toString()));
+        assertEquals(1, stats.getArchivesDescended());
+    }
+}
@@ -0,0 +1,235 @@
+package mercator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File indexDir;
+    private File dir;
+    private long past;
+
+    @Before
+    public void setUp() throws IOException {
+        indexDir = new File(tmp.getRoot(), "index");
+        dir = tmp.newFolder("artifacts");
+        // files recorded right after being written are always checked by content
+        past = System.currentTimeMillis() - 60 * 1000;
+        for (int i = 0; i < 5; i++) {
+            artifact(i, "1.0");
+        }
+    }
+
+    private File artifact(int i, String version) throws IOException {
+        File file = new TestArchives("artifact-" + i)
+                .pomProperties("org.example", "artifact" + i, version)
+                .classes(i)
+                .writeTo(new File(dir, "artifact-" + i + ".jar"));
+        file.setLastModified(past);
+        return file;
+    }
+
+    private String runBatch(ScanIndex index) throws IOException {
+        return runBatch(index, new ScanOptions());
+    }
+
+    private String runBatch(ScanIndex index, ScanOptions options) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bos, false, "UTF-8");
+        new BatchProcessor(2, out, new ArchiveScanner(options, new ScanStats()), index)
+                .run(Collections.singletonList(dir.getPath()));
+        out.flush();
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String runBatch() throws IOException {
+        try (ScanIndex index = new ScanIndex(indexDir, "settings")) {
+            return runBatch(index);
+        }
+    }
+
+    @Test
+    public void testUnchangedFilesNotAnalysed() throws IOException {
+        String first = runBatch();
+        assertEquals(runBatch(null), first);
+
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        assertEquals(first, runBatch(index));
+        index.close();
+        assertEquals(5, index.getUnchanged());
+        assertEquals(0, index.getAnalysed());
+    }
+
+    @Test
+    public void testModifiedAndDeletedFiles() throws IOException {
+        runBatch();
+        // same size, only the modification time tells
+        artifact(1, "1.1").setLastModified(past + 1000);
+        assertTrue(new File(dir, "artifact-3.jar").delete());
+        new TestArchives("artifact-9").pomProperties("org.example", "artifact9", "1.0")
+                .writeTo(new File(dir, "artifact-9.jar"));
+
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        String second = runBatch(index);
+        index.close();
+        assertEquals(3, index.getUnchanged());
+        assertEquals(2, index.getAnalysed());
+        assertEquals(1, index.getDeleted());
+        assertTrue(second.contains("\"version\":\"1.1\""));
+        assertTrue(second.endsWith(JSONValue.toJSONString(new File(dir, "artifact-3.jar").getPath())
+                + ": {\"deleted\":true}}\n"));
+
+        // deletions are only reported once
+        index = new ScanIndex(indexDir, "settings");
+        String third = runBatch(index);
+        index.close();
+        assertFalse(third.contains("deleted"));
+        assertEquals(second.substring(0, second.lastIndexOf("\n", second.length() - 2) + 1), third);
+    }
+
+    @Test
+    public void testTouchedFilesVerifiedByContent() throws IOException {
+        String first = runBatch();
+        for (int i = 0; i < 5; i++) {
+            new File(dir, "artifact-" + i + ".jar").setLastModified(past + 1000);
+        }
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        assertEquals(first, runBatch(index));
+        index.close();
+        assertEquals(5, index.getVerified());
+        assertEquals(0, index.getAnalysed());
+
+        // the new modification time was recorded
+        index = new ScanIndex(indexDir, "settings");
+        runBatch(index);
+        index.close();
+        assertEquals(5, index.getUnchanged());
+    }
+
+    @Test
+    public void testExplicitlyGivenFiles() throws IOException {
+        File file = new File(dir, "artifact-0.jar");
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        ScanIndex.Lookup lookup = index.lookup(file);
+        assertNull(lookup.getResult());
+        index.put(lookup, "{\"kind\":\"JAR\"}".getBytes(StandardCharsets.UTF_8), true);
+        // failures and partial results are analysed again next time
+        File other = new File(dir, "artifact-1.jar");
+        index.put(index.lookup(other), "{\"truncated\":\"entry count limit exceeded\"}".getBytes(StandardCharsets.UTF_8),
+                false);
+        File failed = new File(dir, "artifact-2.jar");
+        index.put(index.lookup(failed), MercatorJava.errorResult(new IOException("broken"), true), false);
+        index.close();
+
+        index = new ScanIndex(indexDir, "settings");
+        assertArrayEquals("{\"kind\":\"JAR\"}".getBytes(StandardCharsets.UTF_8), index.lookup(file).getResult());
+        assertNull(index.lookup(other).getResult());
+        assertNull(index.lookup(failed).getResult());
+        assertTrue(index.contains(file));
+        assertFalse(index.contains(other));
+        assertTrue(file.delete());
+        index.delete(file);
+        index.close();
+
+        index = new ScanIndex(indexDir, "settings");
+        assertFalse(index.contains(file));
+        assertEquals(Collections.<File>emptyList(), index.missing(dir, Collections.<String>emptyList()));
+        index.close();
+    }
+
+    @Test
+    public void testTruncatedScansNotRecorded() throws IOException {
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        assertTrue(runBatch(index, new ScanOptions().setMaxEntries(1)).contains("\"truncated\""));
+        index.close();
+
+        index = new ScanIndex(indexDir, "settings");
+        runBatch(index, new ScanOptions().setMaxEntries(1));
+        index.close();
+        assertEquals(0, index.getUnchanged());
+        assertEquals(5, index.getAnalysed());
+    }
+
+    @Test
+    public void testSettingsChangeStartsOver() throws IOException {
+        runBatch();
+        ScanIndex index = new ScanIndex(indexDir, "other settings");
+        runBatch(index);
+        index.close();
+        assertEquals(5, index.getAnalysed());
+        assertEquals(0, index.getDeleted());
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws IOException {
+        String first = runBatch();
+        File file = new File(indexDir, "index");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        assertEquals(first, runBatch(index));
+        index.close();
+        assertEquals(4, index.getUnchanged());
+        assertEquals(1, index.getAnalysed());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File file = new File(dir, "artifact-0.jar");
+        for (int i = 0; i < 1500; i++) {
+            ScanIndex index = new ScanIndex(indexDir, "settings");
+            index.put(index.lookup(file), ("{\"run\":" + i + "}").getBytes(StandardCharsets.UTF_8), true);
+            index.close();
+        }
+        // compacted once superseded records outnumber the rest by 1024
+        assertTrue(new File(indexDir, "index").length() < 1100 * (file.getAbsolutePath().length() + 65));
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        assertArrayEquals("{\"run\":1499}".getBytes(StandardCharsets.UTF_8), index.lookup(file).getResult());
+        index.close();
+    }
+
+    @Test
+    public void testManyFiles() throws IOException {
+        ScanIndex index = new ScanIndex(indexDir, "settings");
+        File file = new File(dir, "artifact-0.jar");
+        for (int i = 0; i < 20000; i++) {
+            ScanIndex.Lookup lookup = new ScanIndex.Lookup(new File(dir, "lib/" + i + ".jar"), i, past);
+            lookup.digest = new byte[32];
+            index.put(lookup, ("{\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8), true);
+        }
+        index.put(index.lookup(file), "{}".getBytes(StandardCharsets.UTF_8), true);
+        index.close();
+
+        index = new ScanIndex(indexDir, "settings");
+        assertNotNull(index.lookup(file).getResult());
+        for (int i = 0; i < 20000; i += 997) {
+            assertTrue(index.contains(new File(dir, "lib/" + i + ".jar")));
+        }
+        assertEquals(Arrays.asList(new File(dir, "lib/0.jar"), new File(dir, "lib/1.jar")),
+                index.missing(dir, Arrays.asList(file.getPath())).subList(0, 2));
+        index.close();
+    }
+}
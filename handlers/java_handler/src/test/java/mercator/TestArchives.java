@@ -0,0 +1,70 @@
+package mercator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generate archives for tests.
+ */
+public class TestArchives {
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+    private final Manifest manifest = new Manifest();
+
+    public TestArchives(String title) {
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_TITLE, title);
+    }
+
+    public TestArchives attribute(String name, String value) {
+        manifest.getMainAttributes().putValue(name, value);
+        return this;
+    }
+
+    public TestArchives entry(String name, byte[] content) {
+        entries.put(name, content);
+        return this;
+    }
+
+    public TestArchives entry(String name, String content) {
+        return entry(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public TestArchives pomProperties(String groupId, String artifactId, String version) {
+        return entry(String.format("META-INF/maven/%s/%s/pom.properties", groupId, artifactId),
+                String.format("groupId=%s%nartifactId=%s%nversion=%s%n", groupId, artifactId, version));
+    }
+
+    public TestArchives classes(int count) {
+        for (int i = 0; i < count; i++) {
+            entry(String.format("com/example/Generated%d.class", i), new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 51});
+        }
+        return this;
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (JarOutputStream jos = new JarOutputStream(bos, manifest)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jos.putNextEntry(new JarEntry(entry.getKey()));
+                jos.write(entry.getValue());
+                jos.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    public File writeTo(File file) throws IOException {
+        Files.write(file.toPath(), toBytes());
+        return file;
+    }
+}
@@ -16,6 +16,7 @@ package main
 
 import (
 	"archive/zip"
+	"bufio"
 	"crypto/sha1"
 	"encoding/hex"
 	"encoding/json"
@@ -311,9 +312,80 @@ func walkFiles(root string, config *core.Configuration) chan *Resolved {
 }
 
 // Invoke special handlers
+//
+// All Java artifacts are handed over to a single handler process running in batch
+// mode, so the JVM startup is paid only once per scan. The handler prints one JSON
+// object per line, keyed by the path of the processed file.
 func processJava(invocations []*JavaHandlerInvocation) {
+	if len(invocations) == 0 {
+		return
+	}
+
+	config := invocations[0].Config
+	handler := invocations[0].Resolved.Handler
+	if handler.Binary == "" {
+		for _, inv := range invocations {
+			runHandler(inv.Resolved, inv.Config, inv.Record, false)
+		}
+		return
+	}
+
+	var paths []string
+	records := make(map[string][]*ItemRecord)
 	for _, inv := range invocations {
-		runHandler(inv.Resolved, inv.Config, inv.Record, false)
+		if _, ok := records[inv.Resolved.Path]; !ok {
+			paths = append(paths, inv.Resolved.Path)
+		}
+		records[inv.Resolved.Path] = append(records[inv.Resolved.Path], inv.Record)
+	}
+
+	// $ {Handler.Binary} {Handler.Args} {Handler} --batch - < paths
+	handlerPath := filepath.Join(config.Directory, handler.Handler)
+	args := append(append([]string{}, handler.Args...), handlerPath, "--batch", "-")
+	cmd := exec.Command(handler.Binary, args...)
+	cmd.Stdin = strings.NewReader(strings.Join(paths, "\n") + "\n")
+	stdout, err := cmd.StdoutPipe()
+	if err != nil {
+		log.Printf("error: unable to run the Java handler: %v", err)
+		return
+	}
+	if err = cmd.Start(); err != nil {
+		log.Printf("error: unable to run the Java handler: %v", err)
+		return
+	}
+
+	scanner := bufio.NewScanner(stdout)
+	// results of big EARs can be quite long
+	scanner.Buffer(make([]byte, 64*1024), 256*1024*1024)
+	for scanner.Scan() {
+		var record map[string]JSONObject
+		if err := json.Unmarshal(scanner.Bytes(), &record); err != nil {
+			// the files of the record are left without a result
+			line := scanner.Text()
+			if len(line) > 200 {
+				line = line[:200] + "..."
+			}
+			log.Printf("error: unable to parse Java handler output: %v: %s", err, line)
+			continue
+		}
+		for path, result := range record {
+			// failed files are left without a result, as in the single file mode
+			if _, failed := result["error"]; failed {
+				continue
+			}
+			for _, r := range records[path] {
+				r.Result = result
+			}
+		}
+	}
+	if err := scanner.Err(); err != nil {
+		// the handler would block on a full pipe otherwise
+		log.Printf("error: unable to read Java handler output: %v", err)
+		cmd.Process.Kill()
+		io.Copy(ioutil.Discard, stdout)
+	}
+	if err := cmd.Wait(); err != nil {
+		log.Printf("error: Java handler failed: %v", err)
 	}
 }
 